@@ -0,0 +1,261 @@
+package com.amica.billing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import lombok.extern.java.Log;
+
+/**
+ * Delivers events to each listener on a thread of its own, through a
+ * bounded queue, so that a slow listener holds up neither the thread that
+ * fired the event nor the other listeners. Each time a listener's thread
+ * wakes up, it drains whatever has queued up, to a maximum batch size,
+ * and delivers it as one list. Events are delivered to each listener in
+ * the order in which they were dispatched.
+ *
+ * When a listener's queue is full, the {@link Overflow overflow policy}
+ * decides what happens: by default, the firing thread waits for room.
+ * A listener that fires events itself should not use that policy,
+ * as it could wait on its own queue.
+ *
+ * When a listener is removed, its thread delivers whatever is already
+ * in its queue, including events from any firing thread that was waiting
+ * for room, and then stops. Events that arrive for it after that are
+ * dropped, and counted as such.
+ */
+@Log
+public class AsyncDispatcher implements EventDispatcher {
+
+	/**
+	 * What to do with an event when a listener's queue is full.
+	 */
+	public enum Overflow {
+		/** Wait for room in the queue. */
+		BLOCK,
+		/** Discard the oldest queued event to make room for the new one. */
+		DROP_OLDEST,
+		/** Discard the new event. */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Put in a channel's queue to wake its thread when it's stopped.
+	 */
+	private static final Object STOP = new Object();
+
+	/**
+	 * One listener's queue and delivery thread. We count events as they're
+	 * queued and as they're delivered or dropped, so that we can tell when
+	 * everything queued up to a given point has been dealt with.
+	 * The queue holds the {@link #STOP} marker as well as events.
+	 */
+	private class Channel<T> implements Runnable {
+
+		private Consumer<List<T>> listener;
+		private BlockingQueue<Object> queue = new ArrayBlockingQueue<>(capacity);
+		private AtomicLong queued = new AtomicLong();
+		private AtomicLong done = new AtomicLong();
+		private volatile boolean stopped;
+		private Thread thread;
+
+		public Channel(Consumer<List<T>> listener) {
+			this.listener = listener;
+			thread = new Thread(this, "Billing-listener-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Queues the event according to the overflow policy. If we've been
+		 * stopped, we drop it -- even if it's already queued, as long as
+		 * our thread hasn't taken it, since the thread may be gone.
+		 */
+		public void offer(T event) {
+			queued.incrementAndGet();
+			if (stopped) {
+				dropped(1);
+				return;
+			}
+			try {
+				switch (overflow) {
+				case BLOCK:
+					queue.put(event);
+					break;
+				case DROP_NEWEST:
+					if (!queue.offer(event)) {
+						dropped(1);
+					}
+					break;
+				case DROP_OLDEST:
+					while (!queue.offer(event)) {
+						if (queue.poll() != null) {
+							dropped(1);
+						}
+					}
+					break;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				dropped(1);
+				return;
+			}
+			if (stopped && queue.remove(event)) {
+				dropped(1);
+			}
+		}
+
+		private void dropped(int count) {
+			dropped.addAndGet(count);
+			finished(count);
+		}
+
+		private void finished(int count) {
+			done.addAndGet(count);
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Delivers batches until we're stopped and the queue is empty.
+		 */
+		@SuppressWarnings("unchecked") // everything but STOP is an event
+		public void run() {
+			List<Object> batch = new ArrayList<>(Math.min(maxBatch, capacity));
+			while (true) {
+				Object next;
+				try {
+					next = stopped ? queue.poll() : queue.take();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				if (next == null) {
+					return;
+				}
+				batch.add(next);
+				queue.drainTo(batch, maxBatch - 1);
+				batch.removeIf(event -> event == STOP);
+				if (batch.isEmpty()) {
+					continue;
+				}
+				try {
+					listener.accept((List<T>) List.copyOf(batch));
+				} catch (RuntimeException ex) {
+					log.log(Level.WARNING, ex, () -> "Listener failed on a batch of " +
+							batch.size() + " events.");
+				}
+				int count = batch.size();
+				batch.clear();
+				finished(count);
+			}
+		}
+
+		/**
+		 * Waits until every event queued so far has been delivered or dropped.
+		 */
+		public synchronized void flush() throws InterruptedException {
+			long target = queued.get();
+			while (done.get() < target) {
+				wait();
+			}
+		}
+
+		/**
+		 * Has our thread finish what's queued and then stop. If the queue
+		 * is full, the thread is busy, and will see the flag before it
+		 * waits again; otherwise the marker wakes it.
+		 */
+		public void stop() {
+			stopped = true;
+			queue.offer(STOP);
+		}
+	}
+
+	private int capacity;
+	private int maxBatch;
+	private Overflow overflow;
+	private Map<Consumer<?>,Channel<?>> channels = new ConcurrentHashMap<>();
+	private AtomicInteger threadCount = new AtomicInteger();
+	private AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+
+	/**
+	 * Provide the capacity of each listener's queue, the most events
+	 * to deliver to a listener at once, and the overflow policy.
+	 */
+	public AsyncDispatcher(int capacity, int maxBatch, Overflow overflow) {
+		if (capacity < 1 || maxBatch < 1) {
+			throw new IllegalArgumentException
+				("Queue capacity and batch size must be positive.");
+		}
+		this.capacity = capacity;
+		this.maxBatch = maxBatch;
+		this.overflow = overflow;
+	}
+
+	/**
+	 * Returns the number of events that have been dropped because
+	 * a listener's queue was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Queues the event for each listener. The list may be a snapshot, so
+	 * we only start a channel for a listener that's still in the live list:
+	 * a listener that's removed while we're dispatching either gets no
+	 * channel, or gets one that {@link #removed} then stops.
+	 */
+	@Override
+	@SuppressWarnings("unchecked") // each listener's channel is created for its type
+	public <T> void dispatch(List<Consumer<List<T>>> listeners, T event) {
+		if (closed) {
+			throw new IllegalStateException("Dispatcher has been closed.");
+		}
+		for (Consumer<List<T>> listener : listeners) {
+			Channel<T> channel = (Channel<T>) channels.computeIfAbsent(listener,
+					key -> listeners.contains(key) ? new Channel<>(listener) : null);
+			if (channel != null) {
+				channel.offer(event);
+			}
+		}
+	}
+
+	@Override
+	public void removed(Consumer<?> listener) {
+		Channel<?> channel = channels.remove(listener);
+		if (channel != null) {
+			channel.stop();
+		}
+	}
+
+	@Override
+	public void flush() throws InterruptedException {
+		for (Channel<?> channel : channels.values()) {
+			channel.flush();
+		}
+	}
+
+	/**
+	 * Refuses any more events, delivers those that are queued,
+	 * and stops all listener threads.
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		closed = true;
+		flush();
+		for (Channel<?> channel : channels.values()) {
+			channel.stop();
+		}
+		channels.clear();
+	}
+}
@@ -3,22 +3,27 @@ package com.amica.billing;
 import static java.util.function.Function.identity;
 
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.amica.billing.db.InvoiceQuery;
 import com.amica.billing.db.Persistence;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 
 /**
  * Offers a few useful queries on the loaded data;
@@ -41,61 +46,215 @@ public class Billing {
 	 */
 	public static Comparator<Invoice> compareByDate =
 			Comparator.comparing(Invoice::getIssueDate);
-			
+	
 	private Persistence persistence;
-	private List<Consumer<Customer>> customerListeners = new ArrayList<>();
-	private List<Consumer<Invoice>> invoiceListeners = new ArrayList<>();
+	private List<Consumer<List<Customer>>> customerListeners = 
+			new CopyOnWriteArrayList<>();
+	private List<Consumer<List<Invoice>>> invoiceListeners = 
+			new CopyOnWriteArrayList<>();
+	private List<Consumer<List<Invoice>>> overdueListeners = 
+			new CopyOnWriteArrayList<>();
+	
+	/**
+	 * When positive, listeners hear about changes on threads of their own,
+	 * through queues of this size, rather than on the thread that makes 
+	 * each change. See {@link AsyncDispatcher}.
+	 */
+	@Value("${Billing.listenerQueueCapacity:0}")
+	@Setter
+	private int listenerQueueCapacity;
+	
+	@Value("${Billing.listenerBatchSize:1000}")
+	@Setter
+	private int listenerBatchSize = 1000;
+	
+	@Value("${Billing.listenerOverflow:BLOCK}")
+	@Setter
+	private AsyncDispatcher.Overflow listenerOverflow = AsyncDispatcher.Overflow.BLOCK;
+	
+	@Getter
+	@Setter
+	private EventDispatcher dispatcher = new SynchronousDispatcher();
+	
+	/**
+	 * Adapts a listener for single events to take batches.
+	 * Equal to any other adapter for the same listener, so that we 
+	 * can find it again to remove it.
+	 */
+	@EqualsAndHashCode
+	private static class EachOf<T> implements Consumer<List<T>> {
+		private Consumer<T> listener;
+		
+		public EachOf(Consumer<T> listener) {
+			this.listener = listener;
+		}
+		
+		public void accept(List<T> batch) {
+			batch.forEach(listener);
+		}
+	}
 	
 	/**
 	 * Provide a persistence service, and we rely on that for 
-	 * loading and saving customers and vinvoices. 
+	 * loading and saving customers and vinvoices. The persistence service
+	 * hears about each invoice change before any listener, and always
+	 * on the thread that made the change, so that any aggregates it keeps
+	 * are up to date before listeners hear about the change.
 	 */
 	public Billing(Persistence persistence) {
 		this.persistence = persistence;
 	}
 	
+	/**
+	 * Switches to asynchronous delivery of events, if configured.
+	 */
+	@PostConstruct
+	public void init() {
+		if (listenerQueueCapacity > 0) {
+			dispatcher = new AsyncDispatcher(listenerQueueCapacity, 
+					listenerBatchSize, listenerOverflow);
+		}
+	}
+	
+	/**
+	 * Waits until all listeners have heard about all changes made so far.
+	 */
+	public void flushListeners() throws InterruptedException {
+		dispatcher.flush();
+	}
+	
+	/**
+	 * Delivers any pending events and stops any listener threads.
+	 */
+	@PreDestroy
+	public void close() throws InterruptedException {
+		dispatcher.close();
+	}
 	
 	/**
 	 * Add a listener for changes to customers.
 	 */
-	public synchronized void addCustomerListener(Consumer<Customer> listener) {
+	public void addCustomerListener(Consumer<Customer> listener) {
+		customerListeners.add(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Add a listener for changes to customers, which will hear about
+	 * one or more changes at a time.
+	 */
+	public void addCustomerBatchListener(Consumer<List<Customer>> listener) {
 		customerListeners.add(listener);
 	}
 	
 	/**
 	 * Remove a registered listener for changes to customers.
 	 */
-	public synchronized void removeCustomerListener(Consumer<Customer> listener) {
+	public void removeCustomerListener(Consumer<Customer> listener) {
+		removeCustomerBatchListener(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Remove a registered batch listener for changes to customers.
+	 */
+	public void removeCustomerBatchListener(Consumer<List<Customer>> listener) {
 		customerListeners.remove(listener);
+		dispatcher.removed(listener);
 	}
 	
 	/**
 	 * Add a listener for changes to invoices.
 	 */
-	public synchronized void addInvoiceListener(Consumer<Invoice> listener) {
+	public void addInvoiceListener(Consumer<Invoice> listener) {
+		invoiceListeners.add(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Add a listener for changes to invoices, which will hear about
+	 * one or more changes at a time.
+	 */
+	public void addInvoiceBatchListener(Consumer<List<Invoice>> listener) {
 		invoiceListeners.add(listener);
 	}
 	
 	/**
 	 * Remove a registered listener for changes to invoices.
 	 */
-	public synchronized void removeInvoiceListener(Consumer<Invoice> listener) {
+	public void removeInvoiceListener(Consumer<Invoice> listener) {
+		removeInvoiceBatchListener(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Remove a registered batch listener for changes to invoices.
+	 */
+	public void removeInvoiceBatchListener(Consumer<List<Invoice>> listener) {
 		invoiceListeners.remove(listener);
+		dispatcher.removed(listener);
+	}
+	
+	/**
+	 * Add a listener for invoices becoming overdue. These events come
+	 * from an {@link OverdueScheduler}, if one is running.
+	 */
+	public void addOverdueListener(Consumer<Invoice> listener) {
+		overdueListeners.add(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Add a listener for invoices becoming overdue, which will hear about
+	 * one or more invoices at a time.
+	 */
+	public void addOverdueBatchListener(Consumer<List<Invoice>> listener) {
+		overdueListeners.add(listener);
+	}
+	
+	/**
+	 * Remove a registered listener for invoices becoming overdue.
+	 */
+	public void removeOverdueListener(Consumer<Invoice> listener) {
+		removeOverdueBatchListener(new EachOf<>(listener));
+	}
+	
+	/**
+	 * Remove a registered batch listener for invoices becoming overdue.
+	 */
+	public void removeOverdueBatchListener(Consumer<List<Invoice>> listener) {
+		overdueListeners.remove(listener);
+		dispatcher.removed(listener);
+	}
+	
+	/**
+	 * Fires the customer-change event. We hold our lock while dispatching,
+	 * so that each listener hears about changes in the order they were made.
+	 */
+	private synchronized void fireCustomerChanged(Customer customer) {
+		dispatcher.dispatch(customerListeners, customer);
+	}
+	
+	/**
+	 * Updates the persistence service's aggregates and fires the 
+	 * invoice-change event, holding our lock as above.
+	 */
+	private synchronized void fireInvoiceChanged(Invoice invoice) {
+		persistence.onInvoiceChanged(invoice);
+		dispatcher.dispatch(invoiceListeners, invoice);
+	}
+	
+	/**
+	 * Fires the invoice-overdue event, holding our lock as above.
+	 */
+	synchronized void fireInvoiceOverdue(Invoice invoice) {
+		dispatcher.dispatch(overdueListeners, invoice);
 	}
 	
 	/**
 	 * Create the new customer as given, save customers, and fire
-	 * the customer-change event.
+	 * the customer-change event. If two threads create customers with
+	 * the same name at once, the persistence service lets only one through.
 	 */
 	public void createCustomer(String firstName, String lastName, Terms terms) {
 		Customer customer = new Customer(firstName, lastName, terms);
-		if (!getCustomers().containsKey(customer.getName())) {
-			persistence.saveCustomer(customer);
-			synchronized(this) {
-				for (Consumer<Customer> listener : customerListeners) {
-					listener.accept(customer);
-				}
-			}
+		if (persistence.createCustomer(customer)) {
+			fireCustomerChanged(customer);
 		} else {
 			throw new IllegalArgumentException
 				("There is already a customer with the name " + 
@@ -105,24 +264,19 @@ public class Billing {
 
 	/**
 	 * Create an invoice with the given data and add it to the set.
-	 * Invoice number is generated; invoice date is assumed to be today.
+	 * Invoice number is generated by the persistence service; 
+	 * invoice date is assumed to be today.
 	 * Save invoices and fire the invoice-change event.
 	 */
 	public Invoice createInvoice(String customerName, double amount) {
 		
-		int nextInvoiceNumber = getInvoices().keySet().stream()
-				.mapToInt(Integer::intValue).max().orElse(0) + 1;
-
-		if (getCustomers().containsKey(customerName)) {
+		Customer customer = getCustomers().get(customerName);
+		if (customer != null) {
+			int nextInvoiceNumber = persistence.nextInvoiceNumber();
 			Invoice invoice = new Invoice(nextInvoiceNumber, 
-					getCustomers().get(customerName), amount, 
-					LocalDate.now());
+					customer, amount, LocalDate.now());
 			persistence.saveInvoice(invoice);
-			synchronized(this) {
-				for (Consumer<Invoice> listener : invoiceListeners) {
-					listener.accept(invoice);
-				}
-			}
+			fireInvoiceChanged(invoice);
 			return invoice;
 		} else {
 			throw new IllegalArgumentException("No such customer: " + customerName);
@@ -131,20 +285,17 @@ public class Billing {
 
 	/**
 	 * Set today's date as the paid date for the invoice with the given number.
-	 * Save invoices and fire the invoice-change event.
+	 * Save invoices and fire the invoice-change event. The persistence
+	 * service pays the invoice by compare-and-set, under the lock that
+	 * guards its indexes, so if two threads pay it at once, one of them
+	 * fails, and no query sees it half-changed.
 	 */
 	public void payInvoice(int invoiceNumber) {
 		
-		if (getInvoices().containsKey(invoiceNumber)) {
-			Invoice invoice = getInvoices().get(invoiceNumber);
-			if (!invoice.getPaidDate().isPresent()) {
-				invoice.setPaidDate(Optional.of(LocalDate.now()));
-				persistence.saveInvoice(invoice);
-				synchronized(this) {
-					for (Consumer<Invoice> listener : invoiceListeners) {
-						listener.accept(invoice);
-					}
-				}
+		Invoice invoice = getInvoices().get(invoiceNumber);
+		if (invoice != null) {
+			if (persistence.payInvoice(invoice, LocalDate.now())) {
+				fireInvoiceChanged(invoice);
 			} else {
 				throw new IllegalStateException("Invoice " + invoiceNumber + 
 						" has already been paid.");
@@ -168,6 +319,16 @@ public class Billing {
 		return Collections.unmodifiableMap(persistence.getInvoices());
 	}
 	
+	/**
+	 * Returns a billing object over a read-only copy of the current
+	 * customers and invoices, for a set of queries that need to agree with
+	 * one another while this object carries on changing. The persistence
+	 * service takes the copy, so that it can hold off changes meanwhile.
+	 */
+	public Billing snapshot() {
+		return new Billing(persistence.snapshot());
+	}
+	
 	/**
 	 * Return a stream of all invoices, sorted by number.
 	 */
@@ -179,43 +340,50 @@ public class Billing {
 	 * Return a stream of all invoices, sorted by issue date.
 	 */
 	public Stream<Invoice> getInvoicesOrderedByDate() {
-		return getInvoices().values().stream().sorted(compareByDate);
+		return persistence.getInvoicesOrderedByDate();
 	}
 	
 	/**
 	 * Return a stream of all invoices for a given customer.
 	 */
 	public Stream<Invoice> getInvoicesForCustomer(Customer customer) {
-		return getInvoices().values().stream()
-				.filter(inv -> inv.getCustomer().equals(customer))
-				.sorted(compareByNumber);
+		return persistence.getInvoicesForCustomer(customer);
+	}
+	
+	/**
+	 * Return a stream of the invoices that match the given query,
+	 * in the order it specifies.
+	 */
+	public Stream<Invoice> findInvoices(InvoiceQuery query) {
+		return persistence.findInvoices(query);
 	}
 	
 	/**
 	 * Return a map of customers and their invoices, sorted by number.
 	 */
 	public Map<Customer,List<Invoice>> getInvoicesGroupedByCustomer() {
-		return getInvoices().values().stream().sorted(compareByNumber)
-			.collect(Collectors.groupingBy(Invoice::getCustomer, 
-				Collectors.toList()));
+		return persistence.getInvoicesGroupedByCustomer();
 	}
 	
 	/**
 	 * Return a stream of overdue invoices, sorted by issue date.
 	 */
 	public Stream<Invoice> getOverdueInvoices(LocalDate asOf) {
-		return getInvoices().values().stream()
-				.filter(inv -> inv.isOverdue(asOf))
-				.sorted(compareByDate);
+		return persistence.getOverdueInvoices(asOf);
 	}
 	
 	/**
 	 * Return the volume of business (sum of all invoices) for a customer. 
 	 */
 	public double getVolumeForCustomer(Customer customer) {
-		return getInvoicesForCustomer(customer)
-				.mapToDouble(Invoice::getAmount)
-				.sum();
+		return persistence.getVolumeForCustomer(customer);
+	}
+	
+	/**
+	 * Return the number of invoices issued to a customer. 
+	 */
+	public int getInvoiceCountForCustomer(Customer customer) {
+		return persistence.getInvoiceCountForCustomer(customer);
 	}
 	
 	/**
@@ -4,9 +4,11 @@ import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Transient;
 
 /**
  * Simple JavaBean representing a customer.
+ * The full name is built once, when first asked for, and not stored.
  *
  * @author Will Provost
  */
@@ -18,6 +20,8 @@ public class Customer {
     private String lastName;
     private Terms terms;
     private String _id;
+    @Transient
+    private transient String name;
 
     public Customer(String firstName, String lastName, Terms terms) {
         this.firstName = firstName;
@@ -26,7 +30,10 @@ public class Customer {
     }
     
     public String getName() {
-    	return firstName + " " + lastName;
+    	if (name == null) {
+    		name = firstName + " " + lastName;
+    	}
+    	return name;
     }
     
     @Override
@@ -0,0 +1,38 @@
+package com.amica.billing;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Strategy for delivering {@link Billing}'s change events to its listeners.
+ * Listeners take events in batches, as lists; a dispatcher may deliver
+ * each event on its own, right away, or queue events and deliver them
+ * later, several at a time.
+ */
+public interface EventDispatcher {
+
+	/**
+	 * Delivers the given event to each of the given listeners,
+	 * now or later.
+	 */
+	public <T> void dispatch(List<Consumer<List<T>>> listeners, T event);
+
+	/**
+	 * Notification that the given listener has been removed, so that
+	 * any resources held for it can be released.
+	 */
+	public default void removed(Consumer<?> listener) {
+	}
+
+	/**
+	 * Waits until all events dispatched so far have been delivered.
+	 */
+	public default void flush() throws InterruptedException {
+	}
+
+	/**
+	 * Delivers any pending events and releases any threads.
+	 */
+	public default void close() throws InterruptedException {
+	}
+}
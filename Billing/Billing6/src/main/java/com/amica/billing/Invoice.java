@@ -1,5 +1,7 @@
 package com.amica.billing;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.LocalDate;
 import java.util.Optional;
 
@@ -12,6 +14,8 @@ import org.springframework.data.mongodb.core.mapping.DBRef;
 
 /**
  * Simple JavaBean representing an invoice.
+ * The paid date can be set atomically, by {@link #pay pay},
+ * so that of several threads paying the same invoice, only one succeeds.
  *
  * @author Will Provost
  */
@@ -26,7 +30,17 @@ public class Invoice {
     private Customer customer;
     private double amount;
     private LocalDate issueDate;
-    private LocalDate paidDate;
+    private volatile LocalDate paidDate;
+
+    private static final VarHandle PAID_DATE;
+    static {
+        try {
+            PAID_DATE = MethodHandles.lookup()
+                    .findVarHandle(Invoice.class, "paidDate", LocalDate.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
     
     public Invoice(int number, Customer customer, double amount, 
     		LocalDate issueDate) {
@@ -46,6 +60,14 @@ public class Invoice {
     	this.paidDate = paidDate.orElse(null);
     }
     
+    /**
+     * Sets the paid date if the invoice hasn't been paid yet, and returns
+     * true; or returns false, leaving the invoice alone, if it has.
+     */
+    public boolean pay(LocalDate paidDate) {
+        return PAID_DATE.compareAndSet(this, (LocalDate) null, paidDate);
+    }
+    
     public LocalDate getDueDate() {
     	int daysAllowed = customer.getTerms().getDays();
     	return issueDate.plusDays(daysAllowed);
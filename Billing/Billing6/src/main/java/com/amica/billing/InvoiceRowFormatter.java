@@ -0,0 +1,185 @@
+package com.amica.billing;
+
+import java.io.PrintWriter;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * Formats invoices as fixed-width report rows, exactly as would
+ * {@link Reporter#formatInvoice} and {@link Reporter#formatOverdueInvoice},
+ * but into one {@link StringBuilder} that's reused from row to row,
+ * so that a report can be written row by row without creating a string
+ * or a formatter for each one. Amounts that aren't a whole number of cents,
+ * dates outside of four-digit years, and locales that don't use '.' and ','
+ * as decimal and grouping separators are left to String.format.
+ *
+ * Not thread-safe: use one instance per report.
+ */
+final class InvoiceRowFormatter {
+
+	public static final int NUMBER_WIDTH = 4;
+	public static final int NAME_WIDTH = 24;
+	public static final int DATE_WIDTH = 10;
+	public static final int AMOUNT_WIDTH = 10;
+	public static final String GAP = "  ";
+
+	private static final long MAX_CENTS = 1L << 50;
+
+	private StringBuilder row = new StringBuilder(96);
+	private char[] chars = new char[96];
+	private boolean plainLocale;
+
+	public InvoiceRowFormatter() {
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance
+				(Locale.getDefault(Locale.Category.FORMAT));
+		plainLocale = symbols.getDecimalSeparator() == '.' &&
+				symbols.getGroupingSeparator() == ',' &&
+				symbols.getZeroDigit() == '0';
+	}
+
+	private void pad(int count) {
+		for (int i = 0; i < count; ++i) {
+			row.append(' ');
+		}
+	}
+
+	private void appendRight(CharSequence text, int width) {
+		pad(width - text.length());
+		row.append(text);
+	}
+
+	/**
+	 * Appends the customer's name, as would {@link Customer#getName},
+	 * padded on the right to the name width.
+	 */
+	private void appendName(Customer customer) {
+		int start = row.length();
+		row.append(customer.getFirstName()).append(' ')
+			.append(customer.getLastName());
+		pad(NAME_WIDTH - (row.length() - start));
+	}
+
+	private static int digits(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Appends the given non-negative value as exactly the given number
+	 * of digits, with a grouping comma before each group of three if asked.
+	 */
+	private void appendDigits(long value, int count, boolean grouped) {
+		int length = grouped ? count + (count - 1) / 3 : count;
+		int start = row.length();
+		row.setLength(start + length);
+		int digit = 0;
+		for (int i = start + length - 1; i >= start; --i) {
+			if (grouped && digit == 3) {
+				row.setCharAt(i, ',');
+				digit = 0;
+			} else {
+				row.setCharAt(i, (char) ('0' + value % 10));
+				value /= 10;
+				++digit;
+			}
+		}
+	}
+
+	private void appendDigits(int value, int count) {
+		appendDigits(value, count, false);
+	}
+
+	private void appendNumber(int number) {
+		if (number >= 0 && plainLocale) {
+			int count = digits(number);
+			pad(NUMBER_WIDTH - count);
+			appendDigits(number, count);
+		} else {
+			row.append(String.format("%4d", number));
+		}
+	}
+
+	/**
+	 * Appends the date as "MM/dd/yyyy", padded on the left to the
+	 * date width, or spaces for a missing date.
+	 */
+	private void appendDate(LocalDate date) {
+		if (date == null) {
+			pad(DATE_WIDTH);
+		} else if (date.getYear() < 1 || date.getYear() > 9999) {
+			appendRight(date.format(Reporter.getFormatter()), DATE_WIDTH);
+		} else {
+			appendDigits(date.getMonthValue(), 2);
+			row.append('/');
+			appendDigits(date.getDayOfMonth(), 2);
+			row.append('/');
+			appendDigits(date.getYear(), 4);
+		}
+	}
+
+	/**
+	 * Appends the amount as would "%,10.2f". When the amount is exactly
+	 * the double that's closest to some whole number of cents, we can
+	 * lay out the digits and separators ourselves.
+	 */
+	private void appendAmount(double amount) {
+		long cents = Math.round(amount * 100);
+		if (plainLocale && cents >= 0 && cents < MAX_CENTS &&
+				cents / 100.0 == amount &&
+				Double.doubleToRawLongBits(amount) >= 0) {
+			long dollars = cents / 100;
+			int count = digits(dollars);
+			pad(AMOUNT_WIDTH - (count + (count - 1) / 3 + 3));
+			appendDigits(dollars, count, true);
+			row.append('.');
+			appendDigits((int) (cents % 100), 2);
+		} else {
+			row.append(String.format("%,10.2f", amount));
+		}
+	}
+
+	/**
+	 * Formats the given invoice as a row, replacing the previous row.
+	 */
+	public StringBuilder format(Invoice invoice) {
+		row.setLength(0);
+		appendNumber(invoice.getNumber());
+		row.append(GAP);
+		appendName(invoice.getCustomer());
+		row.append(GAP);
+		appendDate(invoice.getIssueDate());
+		row.append(GAP);
+		appendAmount(invoice.getAmount());
+		row.append(GAP);
+		appendDate(invoice.getPaidDate().orElse(null));
+		return row;
+	}
+
+	/**
+	 * Formats the given invoice as a row with a due-date column,
+	 * replacing the previous row.
+	 */
+	public StringBuilder formatOverdue(Invoice invoice) {
+		format(invoice);
+		row.append(GAP);
+		appendDate(invoice.getDueDate());
+		return row;
+	}
+
+	/**
+	 * Writes the current row to the given writer, through a reusable
+	 * character array rather than a new string.
+	 */
+	public void writeTo(PrintWriter out) {
+		if (chars.length < row.length()) {
+			chars = new char[row.length() * 2];
+		}
+		row.getChars(0, row.length(), chars, 0);
+		out.write(chars, 0, row.length());
+	}
+}
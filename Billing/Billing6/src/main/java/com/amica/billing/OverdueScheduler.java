@@ -0,0 +1,171 @@
+package com.amica.billing;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.amica.billing.db.InvoiceQuery;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Setter;
+import lombok.extern.java.Log;
+
+/**
+ * Fires {@link Billing}'s invoice-overdue event at the moment each unpaid
+ * invoice passes its due date, so that listeners can react to invoices
+ * becoming overdue rather than querying for overdue invoices over and over.
+ *
+ * Each unpaid invoice waits in a {@link TimerWheel}, keyed on the start of
+ * the day after its due date, in ticks of the configured length. We listen
+ * for invoice changes: a new unpaid invoice is scheduled, and a payment
+ * cancels the invoice's timer. A background thread advances the wheel
+ * once a tick. When an invoice's time comes, we look it up again and fire
+ * the event only if it's still unpaid, in case a payment crossed paths
+ * with the timer. Invoices that are already overdue when we first see
+ * them have already made the transition, so we don't schedule those.
+ */
+@Log
+@Component
+public class OverdueScheduler {
+
+	public static final int WHEEL_SIZE = 64;
+	public static final int LEVELS = 4;
+
+	private Billing billing;
+	private Consumer<Invoice> listener = this::onInvoiceChanged;
+	private TimerWheel<Integer> wheel;
+	private Map<Integer,TimerWheel.Timeout<Integer>> timeouts = new HashMap<>();
+	private ScheduledExecutorService ticker;
+
+	/**
+	 * The clock by which we tell when invoices become overdue;
+	 * set before {@link #start starting}.
+	 */
+	@Setter
+	private Clock clock = Clock.systemDefaultZone();
+
+	/**
+	 * The length of a tick, and so how soon after midnight an invoice's
+	 * event can fire; set before {@link #start starting}.
+	 */
+	@Value("${OverdueScheduler.tickMillis:60000}")
+	@Setter
+	private long tickMillis = 60000;
+
+	public OverdueScheduler(Billing billing) {
+		this.billing = billing;
+	}
+
+	private long currentTick() {
+		return clock.millis() / tickMillis;
+	}
+
+	/**
+	 * Returns the first tick at or after the start of the day after the
+	 * given invoice's due date.
+	 */
+	private long overdueTick(Invoice invoice) {
+		long millis = invoice.getDueDate().plusDays(1).atStartOfDay(clock.getZone())
+				.toInstant().toEpochMilli();
+		return (millis + tickMillis - 1) / tickMillis;
+	}
+
+	/**
+	 * Starts listening for invoice changes, schedules the unpaid invoices
+	 * that aren't overdue yet, and starts the ticking thread.
+	 */
+	@PostConstruct
+	public void start() {
+		synchronized(this) {
+			wheel = new TimerWheel<>(WHEEL_SIZE, LEVELS, currentTick());
+		}
+		billing.addInvoiceListener(listener);
+		try (Stream<Invoice> unpaid = billing.findInvoices(InvoiceQuery.all().paid(false))) {
+			unpaid.forEach(this::onInvoiceChanged);
+		}
+
+		ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "OverdueScheduler-ticker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops listening and stops the ticking thread.
+	 */
+	@PreDestroy
+	public void close() {
+		billing.removeInvoiceListener(listener);
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+	}
+
+	/**
+	 * Returns the number of invoices waiting to become overdue.
+	 */
+	public synchronized int getPendingCount() {
+		return wheel.size();
+	}
+
+	/**
+	 * Cancels any timer for the changed invoice, and, if it's unpaid and
+	 * not yet overdue, schedules it again for its due date.
+	 */
+	private synchronized void onInvoiceChanged(Invoice invoice) {
+		TimerWheel.Timeout<Integer> previous = timeouts.remove(invoice.getNumber());
+		if (previous != null) {
+			wheel.cancel(previous);
+		}
+		if (invoice.getPaidDate().isEmpty()) {
+			long deadline = overdueTick(invoice);
+			if (deadline > currentTick()) {
+				timeouts.put(invoice.getNumber(),
+						wheel.schedule(invoice.getNumber(), deadline));
+			}
+		}
+	}
+
+	/**
+	 * Advances the wheel to the current time, and fires the overdue event
+	 * for each invoice whose time has come and that is, in fact, overdue.
+	 * We fire events outside our lock, so that listeners can make changes.
+	 */
+	public void tick() {
+		try {
+			List<Integer> expired = new ArrayList<>();
+			synchronized(this) {
+				wheel.advanceTo(currentTick(), expired::add);
+				expired.forEach(timeouts::remove);
+			}
+
+			LocalDate today = LocalDate.now(clock);
+			for (int number : expired) {
+				Invoice invoice = billing.getInvoices().get(number);
+				if (invoice != null && invoice.getPaidDate().isEmpty() &&
+						invoice.isOverdue(today)) {
+					billing.fireInvoiceOverdue(invoice);
+				}
+			}
+		} catch (RuntimeException ex) {
+			log.log(Level.WARNING, ex, () -> "Couldn't check for overdue invoices.");
+		}
+	}
+}
@@ -9,6 +9,8 @@ import java.util.stream.StreamSupport;
 import com.amica.billing.parse.CSVParser;
 import com.amica.billing.parse.FlatParser;
 import com.amica.billing.parse.Parser;
+import com.amica.billing.parse.QuotedCSVParser;
+import com.amica.billing.parse.SnapshotParser;
 import com.amica.esa.componentconfiguration.manager.ComponentConfigurationManager;
 import com.amica.escm.configuration.api.Configuration;
 
@@ -83,6 +85,8 @@ public class ParserFactory {
 	public static void resetParsers() {
 		parsers.put("csv", CSVParser::new);
 		parsers.put("flat", FlatParser::new);
+		parsers.put("qcsv", QuotedCSVParser::new);
+		parsers.put("snap", SnapshotParser::new);
 		parsers.put(null, CSVParser::new);
 
 		if (System.getProperty("server.env") != null) {
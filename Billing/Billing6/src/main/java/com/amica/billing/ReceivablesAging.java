@@ -0,0 +1,283 @@
+package com.amica.billing;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import com.amica.billing.db.InvoiceQuery;
+
+import lombok.Getter;
+
+/**
+ * Outstanding amounts for each customer, in aging buckets by days past
+ * due, kept up to date as invoices are created and paid, and as the
+ * as-of date moves, so that the aging of all receivables can be had
+ * without looking at every invoice.
+ *
+ * This class is an invoice listener: each event takes the invoice's
+ * old amount out of its bucket, if we had it, and puts the new one in,
+ * if it's unpaid. We also keep a schedule of the days on which unpaid
+ * invoices will cross into their next buckets, so moving the as-of date
+ * forward only touches the invoices that change buckets on the way.
+ * Moving it back is rare, and re-buckets every unpaid invoice.
+ * Amounts are totaled in cents, so that they don't drift.
+ *
+ * This class is thread-safe: events may arrive on a listener thread
+ * while other threads ask for the aging.
+ */
+public class ReceivablesAging implements Consumer<Invoice> {
+
+	/**
+	 * The aging buckets, each holding invoices up to a number of days
+	 * past due: current, 1-30, 31-60, 61-90, and over 90.
+	 */
+	public enum Bucket {
+		CURRENT(0, "Current"),
+		PAST_DUE_1_30(30, "1-30"),
+		PAST_DUE_31_60(60, "31-60"),
+		PAST_DUE_61_90(90, "61-90"),
+		PAST_DUE_OVER_90(Integer.MAX_VALUE, "90+");
+
+		private static final Bucket[] BUCKETS = values();
+
+		private int maxDaysPastDue;
+		private String label;
+
+		private Bucket(int maxDaysPastDue, String label) {
+			this.maxDaysPastDue = maxDaysPastDue;
+			this.label = label;
+		}
+
+		public int getMaxDaysPastDue() {
+			return maxDaysPastDue;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * Returns the bucket for the given number of days past due;
+		 * zero or less is current.
+		 */
+		public static Bucket forDaysPastDue(long daysPastDue) {
+			for (Bucket bucket : BUCKETS) {
+				if (daysPastDue <= bucket.maxDaysPastDue) {
+					return bucket;
+				}
+			}
+			return PAST_DUE_OVER_90;
+		}
+	}
+
+	private static final int BUCKETS = Bucket.BUCKETS.length;
+
+	/**
+	 * One customer's outstanding amounts in each bucket, as of one date.
+	 */
+	@Getter
+	public static class CustomerAging {
+		private Customer customer;
+		private double[] amounts;
+		private double total;
+
+		private CustomerAging(Customer customer, long[] cents) {
+			this.customer = customer;
+			amounts = new double[BUCKETS];
+			for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+				amounts[bucket] = cents[bucket] / 100.0;
+				total += cents[bucket];
+			}
+			total /= 100.0;
+		}
+
+		public double getAmount(Bucket bucket) {
+			return amounts[bucket.ordinal()];
+		}
+
+		public double[] getAmounts() {
+			return amounts.clone();
+		}
+	}
+
+	/**
+	 * What we've counted for one unpaid invoice.
+	 */
+	private static class Receivable {
+		private Customer customer;
+		private long cents;
+		private long dueDay;
+		private Bucket bucket;
+		private long nextChange;
+	}
+
+	/**
+	 * One customer's totals, and how many unpaid invoices make them up,
+	 * so we know when to drop the customer.
+	 */
+	private static class Balance {
+		private long[] cents = new long[BUCKETS];
+		private int invoices;
+	}
+
+	private LocalDate asOf;
+	private long asOfDay;
+	private Map<Integer,Receivable> receivables = new HashMap<>();
+	private Map<Customer,Balance> balances = new HashMap<>();
+	private long[] totals = new long[BUCKETS];
+	private NavigableMap<Long,Set<Integer>> changes = new TreeMap<>();
+
+	/**
+	 * Creates the aging of the given invoices as of the given date.
+	 */
+	public ReceivablesAging(Collection<Invoice> invoices, LocalDate asOf) {
+		this.asOf = asOf;
+		this.asOfDay = asOf.toEpochDay();
+		invoices.forEach(this::accept);
+	}
+
+	/**
+	 * Creates the aging of the given billing object's invoices as of
+	 * the given date, and keeps it up to date by listening for changes.
+	 * We start listening before we read the unpaid invoices, so we don't
+	 * miss any change; hearing about an invoice twice does no harm.
+	 */
+	public static ReceivablesAging attachTo(Billing billing, LocalDate asOf) {
+		ReceivablesAging aging = new ReceivablesAging(List.of(), asOf);
+		billing.addInvoiceListener(aging);
+		try (Stream<Invoice> unpaid = billing.findInvoices(InvoiceQuery.all().paid(false))) {
+			unpaid.forEach(aging);
+		}
+		return aging;
+	}
+
+	public synchronized LocalDate getAsOf() {
+		return asOf;
+	}
+
+	/**
+	 * Puts the receivable in its bucket as of our date, and schedules
+	 * its move to the next bucket, if there is one.
+	 */
+	private void place(int number, Receivable receivable) {
+		receivable.bucket = Bucket.forDaysPastDue(asOfDay - receivable.dueDay);
+		Balance balance = balances.computeIfAbsent
+				(receivable.customer, k -> new Balance());
+		balance.cents[receivable.bucket.ordinal()] += receivable.cents;
+		totals[receivable.bucket.ordinal()] += receivable.cents;
+		if (receivable.bucket != Bucket.PAST_DUE_OVER_90) {
+			receivable.nextChange = receivable.dueDay +
+					receivable.bucket.getMaxDaysPastDue() + 1;
+			changes.computeIfAbsent(receivable.nextChange, k -> new HashSet<>())
+					.add(number);
+		}
+	}
+
+	/**
+	 * Takes the receivable out of its bucket and off the schedule.
+	 */
+	private void unplace(int number, Receivable receivable) {
+		balances.get(receivable.customer).cents[receivable.bucket.ordinal()] -=
+				receivable.cents;
+		totals[receivable.bucket.ordinal()] -= receivable.cents;
+		if (receivable.bucket != Bucket.PAST_DUE_OVER_90) {
+			Set<Integer> due = changes.get(receivable.nextChange);
+			if (due != null) {
+				due.remove(number);
+				if (due.isEmpty()) {
+					changes.remove(receivable.nextChange);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Folds the given invoice into the aging: out of its old bucket,
+	 * if it was unpaid, and into its new one, if it still is.
+	 */
+	@Override
+	public synchronized void accept(Invoice invoice) {
+		Receivable previous = receivables.remove(invoice.getNumber());
+		if (previous != null) {
+			unplace(invoice.getNumber(), previous);
+			Balance balance = balances.get(previous.customer);
+			if (--balance.invoices == 0) {
+				balances.remove(previous.customer);
+			}
+		}
+		if (invoice.getPaidDate().isEmpty()) {
+			Receivable receivable = new Receivable();
+			receivable.customer = invoice.getCustomer();
+			receivable.cents = Math.round(invoice.getAmount() * 100);
+			receivable.dueDay = invoice.getDueDate().toEpochDay();
+			place(invoice.getNumber(), receivable);
+			balances.get(receivable.customer).invoices++;
+			receivables.put(invoice.getNumber(), receivable);
+		}
+	}
+
+	/**
+	 * Moves the as-of date. Going forward, we move only the invoices
+	 * scheduled to change buckets by the new date; going back, we
+	 * re-bucket every unpaid invoice.
+	 */
+	public synchronized void setAsOf(LocalDate asOf) {
+		long day = asOf.toEpochDay();
+		if (day < asOfDay) {
+			this.asOf = asOf;
+			asOfDay = day;
+			balances.values().forEach(balance -> Arrays.fill(balance.cents, 0));
+			Arrays.fill(totals, 0);
+			changes.clear();
+			receivables.forEach(this::place);
+			return;
+		}
+
+		this.asOf = asOf;
+		asOfDay = day;
+		while (!changes.isEmpty() && changes.firstKey() <= day) {
+			for (int number : changes.pollFirstEntry().getValue()) {
+				Receivable receivable = receivables.get(number);
+				unplace(number, receivable);
+				place(number, receivable);
+			}
+		}
+	}
+
+	/**
+	 * Returns the given customer's outstanding amounts, or null if the
+	 * customer has no unpaid invoices.
+	 */
+	public synchronized CustomerAging getAging(Customer customer) {
+		Balance balance = balances.get(customer);
+		return balance != null ? new CustomerAging(customer, balance.cents) : null;
+	}
+
+	/**
+	 * Returns the outstanding amounts of each customer that has unpaid
+	 * invoices, ordered by customer name.
+	 */
+	public synchronized List<CustomerAging> getAging() {
+		return balances.entrySet().stream()
+				.map(entry -> new CustomerAging(entry.getKey(), entry.getValue().cents))
+				.sorted(Comparator.comparing(aging -> aging.getCustomer().getName()))
+				.toList();
+	}
+
+	/**
+	 * Returns the total outstanding in the given bucket, for all customers.
+	 */
+	public synchronized double getTotal(Bucket bucket) {
+		return totals[bucket.ordinal()] / 100.0;
+	}
+}
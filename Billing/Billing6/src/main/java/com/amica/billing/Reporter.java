@@ -1,18 +1,53 @@
 package com.amica.billing;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.java.Log;
@@ -20,6 +55,22 @@ import lombok.extern.java.Log;
 /**
  * This class formats plain-text reports using a few of the queries
  * available in the {@link Billing} class.
+ * Reports are regenerated when the billing object fires change events:
+ * right away by default, or, with a debounce window, in the background,
+ * coalescing any number of events into one regeneration of each report.
+ * An invoice event only touches the reports that it actually affects:
+ * we keep the highest invoice number that we've reported and where each
+ * customer's section lies in the by-customer report, but nothing
+ * for each invoice, so memory use doesn't grow with the number of invoices.
+ * The receivables aging report comes from a {@link ReceivablesAging}
+ * that we create when we first generate it, and then keep up to date
+ * with invoice events and the as-of date.
+ * All reports can also be generated at once, in parallel, from a 
+ * snapshot of the billing data.
+ * Each report has a lock of its own, held while its file is written
+ * and while the state we keep for updating it incrementally is used,
+ * so that different reports can be written at once, but no two threads
+ * write the same one.
 
  * @author Will Provost
  */
@@ -38,6 +89,10 @@ public class Reporter {
 			"overdue_invoices.txt";
 	public static final String FILENAME_CUSTOMERS_AND_VOLUME = 
 			"customer_and_volume.txt";
+	public static final String FILENAME_RECEIVABLES_AGING = 
+			"receivables_aging.txt";
+	
+	public static final int BUFFER_SIZE = 64 * 1024;
 	
 	/**
 	 * Factory for a date formatter that we use consistently in a few reports. 
@@ -69,15 +124,151 @@ public class Reporter {
 				invoice.getDueDate().format(getFormatter()));
 	}
 	
+	/**
+	 * The reports that we generate, each tied to its generating method.
+	 */
+	public enum Report {
+		INVOICES_BY_NUMBER(Reporter::reportInvoicesOrderedByNumber),
+		INVOICES_BY_CUSTOMER(Reporter::reportInvoicesGroupedByCustomer),
+		OVERDUE_INVOICES(Reporter::reportOverdueInvoices),
+		CUSTOMERS_AND_VOLUME(Reporter::reportCustomersAndVolume),
+		RECEIVABLES_AGING(Reporter::reportReceivablesAging);
+		
+		private BiConsumer<Reporter,Billing> generator;
+		
+		private Report(BiConsumer<Reporter,Billing> generator) {
+			this.generator = generator;
+		}
+		
+		public void generate(Reporter reporter) {
+			generate(reporter, reporter.billing);
+		}
+		
+		/**
+		 * Generates this report from the given billing object,
+		 * such as a {@link Billing#snapshot snapshot}, rather than 
+		 * the one the reporter listens to.
+		 */
+		public void generate(Reporter reporter, Billing source) {
+			Lock lock = reporter.fileLocks.get(this);
+			lock.lock();
+			try {
+				generator.accept(reporter, source);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
 	private Billing billing;
 	
 	@Value("${Reporter.outputFolder}")
 	@Setter
 	private Path outputFolder;
 	
-	@Setter
 	private LocalDate asOf = LocalDate.of(2022, 1, 8);
 	
+	/**
+	 * When positive, change events only mark reports as dirty, and a 
+	 * background thread regenerates each dirty report at most once in 
+	 * this many milliseconds. When zero, as by default, reports are 
+	 * regenerated on the thread that fires each event.
+	 */
+	@Value("${Reporter.debounceMillis:0}")
+	@Setter
+	private long debounceMillis;
+	
+	/**
+	 * When true, as by default, we work out which reports an invoice event
+	 * affects, and update only those: appending new invoices to the 
+	 * by-number report, and rewriting only the affected customers' sections
+	 * of the by-customer report. When false, every invoice event 
+	 * regenerates all reports.
+	 */
+	@Value("${Reporter.incremental:true}")
+	@Setter
+	private boolean incremental = true;
+	
+	/**
+	 * Where one customer's section lies in the by-customer report file.
+	 */
+	private static class Section {
+		private long start;
+		private long length;
+		
+		public Section(long start, long length) {
+			this.start = start;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * Counts the bytes written through it, so that we can tell where
+	 * each section of a report starts.
+	 */
+	private static class CountingStream extends FilterOutputStream {
+		private long count;
+		
+		public CountingStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			++count;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+	
+	/**
+	 * How many reports {@link #generateAllReports} generates at once, on 
+	 * a thread pool of our own, unless an executor has been set. Zero or 
+	 * less generates them one after another on the calling thread.
+	 */
+	@Value("${Reporter.parallelism:4}")
+	@Setter
+	private int parallelism = 4;
+	
+	@Getter(AccessLevel.NONE)
+	@Setter
+	private Executor reportExecutor;
+	@Getter(AccessLevel.NONE)
+	private ExecutorService workers;
+	@Getter(AccessLevel.NONE)
+	private Map<Report,Duration> timings = new EnumMap<>(Report.class);
+	
+	@Getter(AccessLevel.NONE)
+	private Map<Report,Lock> fileLocks = new EnumMap<>(Report.class);
+	@Getter(AccessLevel.NONE)
+	private boolean tracking;
+	@Getter(AccessLevel.NONE)
+	private int highestReported;
+	@Getter(AccessLevel.NONE)
+	private Set<Report> generated = EnumSet.noneOf(Report.class);
+	@Getter(AccessLevel.NONE)
+	private Map<Customer,Section> customerSections;
+	@Getter(AccessLevel.NONE)
+	private int lastNumberWritten;
+	@Getter(AccessLevel.NONE)
+	private ReceivablesAging aging;
+	
+	@Getter(AccessLevel.NONE)
+	private Set<Report> dirty = EnumSet.noneOf(Report.class);
+	@Getter(AccessLevel.NONE)
+	private List<Invoice> appended = new ArrayList<>();
+	@Getter(AccessLevel.NONE)
+	private Set<Customer> dirtyCustomers = new LinkedHashSet<>();
+	@Getter(AccessLevel.NONE)
+	private boolean scheduled;
+	@Getter(AccessLevel.NONE)
+	private ScheduledExecutorService scheduler;
+	
 	/**
 	 * Create a reporter object with reference to a {@link Billing} object,
 	 * a target folder to contain generated reports, and a date based on which
@@ -85,27 +276,311 @@ public class Reporter {
 	 */
 	public Reporter(Billing billing) {
 		this.billing = billing;
+		for (Report report : Report.values()) {
+			fileLocks.put(report, new ReentrantLock());
+		}
 		billing.addCustomerListener(this::onCustomerChanged);
 		billing.addInvoiceListener(this::onInvoiceChanged);
 	}
 	
+	/**
+	 * Sets the date as of which we consider invoices to be overdue.
+	 * This changes what we know about every invoice, so the next invoice
+	 * event will regenerate all reports.
+	 */
+	public synchronized void setAsOf(LocalDate asOf) {
+		this.asOf = asOf;
+		tracking = false;
+		if (aging != null) {
+			aging.setAsOf(asOf);
+		}
+	}
+	
 	/**
 	 * Handles the customer-change event fired by the billing object.
 	 * This triggers the re-generation of the customers-and-volume report. 
 	 */
 	private void onCustomerChanged(Customer customer) {
-		reportCustomersAndVolume();
+		synchronized(this) {
+			dirty.add(Report.CUSTOMERS_AND_VOLUME);
+		}
+		regenerate();
 	}
 	
 	/**
 	 * Handles the invoice-change event fired by the billing object.
-	 * This triggers the re-generation of all reports. 
+	 * This triggers the re-generation of the affected reports: all of them
+	 * unless we're incremental and have seen invoice events before,
+	 * since the as-of date was last set. 
 	 */
 	private void onInvoiceChanged(Invoice invoice) {
-		reportInvoicesOrderedByNumber();
-		reportInvoicesGroupedByCustomer();
-		reportOverdueInvoices();
-		reportCustomersAndVolume();
+		synchronized(this) {
+			if (aging != null) {
+				aging.accept(invoice);
+			}
+			if (incremental && tracking) {
+				markAffected(invoice);
+			} else {
+				dirty.addAll(EnumSet.allOf(Report.class));
+				tracking = incremental;
+			}
+		}
+		regenerate();
+	}
+	
+	/**
+	 * Marks only the reports, new rows, or customer sections that the
+	 * changed invoice affects. The billing object fires invoice events 
+	 * for two things: creating an invoice, which is unpaid, and paying one,
+	 * which changes nothing but the paid date. So an unpaid invoice is new;
+	 * a new invoice past the highest number we've reported can be appended
+	 * to the by-number report; only a new invoice changes a customer's
+	 * volume; and the overdue report changes only if the invoice is overdue
+	 * now or was overdue while unpaid. Caller must hold our lock.
+	 */
+	private void markAffected(Invoice invoice) {
+		boolean isNew = invoice.getPaidDate().isEmpty();
+		
+		if (isNew && invoice.getNumber() > highestReported && highestReported > 0 &&
+				generated.contains(Report.INVOICES_BY_NUMBER)) {
+			appended.add(invoice);
+		} else {
+			dirty.add(Report.INVOICES_BY_NUMBER);
+		}
+		highestReported = Math.max(highestReported, invoice.getNumber());
+		
+		dirty.add(Report.RECEIVABLES_AGING);
+		if (generated.contains(Report.INVOICES_BY_CUSTOMER)) {
+			dirtyCustomers.add(invoice.getCustomer());
+		} else {
+			dirty.add(Report.INVOICES_BY_CUSTOMER);
+		}
+		
+		if (invoice.isOverdue(asOf) || asOf.isAfter(invoice.getDueDate())) {
+			dirty.add(Report.OVERDUE_INVOICES);
+		}
+		
+		if (isNew) {
+			dirty.add(Report.CUSTOMERS_AND_VOLUME);
+		}
+	}
+	
+	/**
+	 * Applies pending changes right away, or, if we're debouncing,
+	 * makes sure that the background thread will get to them.
+	 */
+	private void regenerate() {
+		if (debounceMillis <= 0) {
+			applyPending();
+			return;
+		}
+		
+		synchronized(this) {
+			if (!scheduled) {
+				if (scheduler == null) {
+					scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+						Thread thread = new Thread(runnable, "Reporter-regeneration");
+						thread.setDaemon(true);
+						return thread;
+					});
+				}
+				scheduler.schedule(this::applyPending, 
+						debounceMillis, TimeUnit.MILLISECONDS);
+				scheduled = true;
+			}
+		}
+	}
+	
+	/**
+	 * Marks the given report to be regenerated in full, after a failure.
+	 */
+	private void retry(Report report, Exception ex) {
+		log.log(Level.FINE, ex, () -> "Couldn't update " + report + 
+				"; will regenerate it.");
+		synchronized(this) {
+			dirty.add(report);
+		}
+		regenerate();
+	}
+	
+	/**
+	 * Regenerates whatever reports are dirty, and then appends new rows
+	 * and rewrites customer sections for reports that weren't regenerated.
+	 * With debouncing, this runs on the background thread, while the 
+	 * billing object may be changing; if a report trips over a concurrent 
+	 * change, we mark it dirty again so that it's retried.
+	 */
+	private void applyPending() {
+		Set<Report> reports;
+		List<Invoice> appends;
+		Set<Customer> customers;
+		synchronized(this) {
+			reports = EnumSet.copyOf(dirty);
+			dirty.clear();
+			appends = new ArrayList<>(appended);
+			appended.clear();
+			customers = new LinkedHashSet<>(dirtyCustomers);
+			dirtyCustomers.clear();
+			scheduled = false;
+		}
+		
+		for (Report report : reports) {
+			try {
+				report.generate(this);
+			} catch (ConcurrentModificationException ex) {
+				retry(report, ex);
+			} catch (RuntimeException ex) {
+				log.log(Level.WARNING, ex, () -> "Couldn't generate " + report);
+			}
+		}
+		
+		if (!appends.isEmpty() && !reports.contains(Report.INVOICES_BY_NUMBER)) {
+			try {
+				appendInvoicesOrderedByNumber(appends);
+			} catch (IOException ex) {
+				retry(Report.INVOICES_BY_NUMBER, ex);
+			}
+		}
+		if (!customers.isEmpty() && !reports.contains(Report.INVOICES_BY_CUSTOMER)) {
+			try {
+				updateInvoicesGroupedByCustomer(customers);
+			} catch (ConcurrentModificationException | IOException ex) {
+				retry(Report.INVOICES_BY_CUSTOMER, ex);
+			}
+		}
+	}
+	
+	/**
+	 * Records that the given report has been generated in full from the
+	 * given source. If that's our own billing object, the file can now be
+	 * updated incrementally; if it's a snapshot, the file may be behind
+	 * our billing object, so it will have to be regenerated in full.
+	 */
+	private synchronized void markGenerated(Report report, Billing source) {
+		if (!DIVERT_TO_SYSOUT && source == billing) {
+			generated.add(report);
+		} else {
+			generated.remove(report);
+		}
+	}
+	
+	/**
+	 * Records that we've reported the given invoice number.
+	 */
+	private synchronized void markReported(int number) {
+		highestReported = Math.max(highestReported, number);
+	}
+	
+	private synchronized boolean isGenerated(Report report) {
+		return generated.contains(report);
+	}
+	
+	/**
+	 * Regenerates any dirty reports now, waiting for any regeneration that's
+	 * already under way, so that the report files reflect all events fired 
+	 * before this call. Does nothing unless we're debouncing.
+	 */
+	public void flush() throws InterruptedException {
+		ScheduledExecutorService current;
+		synchronized(this) {
+			current = scheduler;
+		}
+		if (current != null) {
+			try {
+				current.submit(this::applyPending).get();
+			} catch (ExecutionException ex) {
+				log.log(Level.WARNING, ex.getCause(), 
+						() -> "Couldn't regenerate reports.");
+			}
+		}
+	}
+	
+	/**
+	 * Flushes any dirty reports and stops the background threads.
+	 */
+	@PreDestroy
+	public void close() throws InterruptedException {
+		flush();
+		synchronized(this) {
+			if (scheduler != null) {
+				scheduler.shutdown();
+				scheduler = null;
+			}
+			if (workers != null) {
+				workers.shutdown();
+				workers = null;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the executor on which to generate reports in parallel:
+	 * the one we've been given, or a pool of our own.
+	 */
+	private synchronized Executor getReportExecutor() {
+		if (reportExecutor != null) {
+			return reportExecutor;
+		} else if (parallelism <= 0) {
+			return Runnable::run;
+		}
+		
+		if (workers == null) {
+			AtomicInteger count = new AtomicInteger();
+			workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+				Thread thread = new Thread(runnable, 
+						"Reporter-worker-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return workers;
+	}
+	
+	/**
+	 * Generates the given report from the given billing object,
+	 * and records how long that took.
+	 */
+	private Duration generateTimed(Report report, Billing source) {
+		long start = System.nanoTime();
+		report.generate(this, source);
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+		synchronized(this) {
+			timings.put(report, elapsed);
+		}
+		log.fine(() -> String.format("Generated %s in %d ms", 
+				report, elapsed.toMillis()));
+		return elapsed;
+	}
+	
+	/**
+	 * Generates all reports concurrently, from a {@link Billing#snapshot
+	 * snapshot} of the billing data, so that they agree with one another 
+	 * even if the data changes while they're being written. The whole run
+	 * takes about as long as the slowest report. Each future completes
+	 * with the time it took to generate that report, or exceptionally
+	 * if the report failed. This is meant for occasional runs, such as
+	 * at the end of the day; incremental updates triggered by events 
+	 * during the run may be overwritten with the snapshot's data,
+	 * and the next event regenerates each report in full.
+	 */
+	public Map<Report,CompletableFuture<Duration>> generateAllReports() {
+		Billing snapshot = billing.snapshot();
+		Executor executor = getReportExecutor();
+		Map<Report,CompletableFuture<Duration>> results = 
+				new EnumMap<>(Report.class);
+		for (Report report : Report.values()) {
+			results.put(report, CompletableFuture.supplyAsync
+					(() -> generateTimed(report, snapshot), executor));
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns the time taken by the most recent generation of each report
+	 * by {@link #generateAllReports}.
+	 */
+	public synchronized Map<Report,Duration> getTimings() {
+		return new EnumMap<>(timings);
 	}
 	
 	/**
@@ -131,8 +606,8 @@ public class Reporter {
 			return new NonCloser(); 
 		} else {
 			try {
-				return new PrintWriter(new FileWriter
-						(outputFolder.resolve(filename).toFile()));
+				return new PrintWriter(new BufferedWriter(new FileWriter
+						(outputFolder.resolve(filename).toFile()), BUFFER_SIZE));
 			} catch (Exception ex) {
 				
 				log.log(Level.SEVERE, ex,
@@ -143,10 +618,43 @@ public class Reporter {
 		return null;
 	}
 	
+	/**
+	 * Helper method to write rows for the given invoices as the stream
+	 * produces them, separated by line feeds and followed by a line 
+	 * separator, as if joined and printed in one go. Each row is laid out 
+	 * in one reusable buffer, so memory use doesn't grow with the 
+	 * number of rows. Returns the number of the last invoice written,
+	 * or zero if there were none.
+	 */
+	private static int printRows(PrintWriter out, Stream<Invoice> invoices,
+			BiConsumer<InvoiceRowFormatter,Invoice> format) {
+		InvoiceRowFormatter formatter = new InvoiceRowFormatter();
+		Iterator<Invoice> iterator = invoices.iterator();
+		boolean first = true;
+		int last = 0;
+		while (iterator.hasNext()) {
+			if (!first) {
+				out.write('\n');
+			}
+			Invoice invoice = iterator.next();
+			format.accept(formatter, invoice);
+			formatter.writeTo(out);
+			last = invoice.getNumber();
+			first = false;
+		}
+		out.println();
+		return last;
+	}
+	
 	/**
 	 * Generates a report of all invoices, ordered by number.
 	 */
 	public void reportInvoicesOrderedByNumber() {
+		Report.INVOICES_BY_NUMBER.generate(this);
+	}
+	
+	private void reportInvoicesOrderedByNumber(Billing source) {
+		int last;
 		try ( PrintWriter out = getWriter(FILENAME_INVOICES_BY_NUMBER); ) {
 			out.println("All invoices, ordered by invoice number");
 			out.println("=".repeat(66));
@@ -156,10 +664,130 @@ public class Reporter {
 			out.println("-".repeat(4) + "  " + "-".repeat(24) + "  " + 
 					"-".repeat(10) + "  " + "-".repeat(10) + "  " + "-".repeat(10));
 			
-			out.println(billing.getInvoicesOrderedByNumber()
-					.map(Reporter::formatInvoice)
-					.collect(Collectors.joining("\n")));
+			last = printRows(out, source.getInvoicesOrderedByNumber(),
+				InvoiceRowFormatter::format);
+		}
+		if (source == billing) {
+			lastNumberWritten = last;
+			markReported(last);
+		}
+		markGenerated(Report.INVOICES_BY_NUMBER, source);
+	}
+	
+	/**
+	 * Appends rows for the given new invoices to the by-number report, 
+	 * which must already have at least one row. The file ends with a 
+	 * line separator, where a full report would have a line feed between
+	 * rows, so we cut that off before appending. A full regeneration 
+	 * may already have picked up some of the new invoices, so we skip any
+	 * that we've already written; and if the file was last written from
+	 * a snapshot, we regenerate it instead.
+	 */
+	private void appendInvoicesOrderedByNumber(List<Invoice> invoices) 
+			throws IOException {
+		Lock lock = fileLocks.get(Report.INVOICES_BY_NUMBER);
+		lock.lock();
+		try {
+			if (isGenerated(Report.INVOICES_BY_NUMBER)) {
+				appendRows(invoices);
+			} else {
+				reportInvoicesOrderedByNumber();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void appendRows(List<Invoice> invoices) throws IOException {
+		invoices = invoices.stream()
+				.filter(invoice -> invoice.getNumber() > lastNumberWritten).toList();
+		if (invoices.isEmpty()) {
+			return;
+		}
+		
+		Path path = outputFolder.resolve(FILENAME_INVOICES_BY_NUMBER);
+		try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE); ) {
+			channel.truncate(channel.size() - System.lineSeparator().length());
+		}
+		try ( PrintWriter out = new PrintWriter(new FileWriter(path.toFile(), true)); ) {
+			InvoiceRowFormatter formatter = new InvoiceRowFormatter();
+			for (Invoice invoice : invoices) {
+				out.write('\n');
+				formatter.format(invoice);
+				formatter.writeTo(out);
+				lastNumberWritten = invoice.getNumber();
+			}
+			out.println();
+		}
+	}
+	
+	/**
+	 * Helper method to print the heading of the by-customer report.
+	 */
+	private static void printCustomerHeading(PrintWriter out) {
+		out.println("All invoices, grouped by customer and ordered by invoice number");
+		out.println("=".repeat(66));
+		out.println();
+		out.format("       %-24s %10s  %10s  %10s%n", 
+				"Customer", "Issued", "Amount", "Paid");
+		out.println("-".repeat(4) + "  " + "-".repeat(24) + "  " + 
+				"-".repeat(10) + "  " + "-".repeat(10) + "  " + "-".repeat(10));
+	}
+	
+	/**
+	 * Helper method to print one customer's section of the 
+	 * by-customer report.
+	 */
+	private static void printCustomerSection(PrintWriter out, 
+			Customer customer, List<Invoice> invoices) {
+		out.println();
+		out.println(customer.getName());
+		printRows(out, invoices.stream(), InvoiceRowFormatter::format);
+	}
+	
+	/**
+	 * Writes the by-customer report, with a section for each of the given
+	 * customers, in order. For customers whose invoices we're given, we 
+	 * print their sections, leaving out any with no invoices; for others,
+	 * we copy their sections from the earlier report, as given by
+	 * {@link #customerSections}. We write to a temporary file and then 
+	 * move it into place, so that a failure leaves the earlier report, and
+	 * the sections we know of, as they were. Returns where each section 
+	 * lies in the new file.
+	 */
+	private Map<Customer,Section> writeInvoicesGroupedByCustomer
+			(Iterable<Customer> customers, Map<Customer,List<Invoice>> invoices, 
+					FileChannel earlier) throws IOException {
+		Path path = outputFolder.resolve(FILENAME_INVOICES_BY_CUSTOMER);
+		Path temp = outputFolder.resolve(FILENAME_INVOICES_BY_CUSTOMER + ".tmp");
+		Map<Customer,Section> sections = new LinkedHashMap<>();
+		try ( CountingStream counter = new CountingStream(new BufferedOutputStream
+					(Files.newOutputStream(temp), BUFFER_SIZE));
+				PrintWriter out = new PrintWriter(counter); ) {
+			WritableByteChannel channel = Channels.newChannel(counter);
+			printCustomerHeading(out);
+			for (Customer customer : customers) {
+				out.flush();
+				long start = counter.count;
+				if (invoices.containsKey(customer)) {
+					if (invoices.get(customer).isEmpty()) {
+						continue;
+					}
+					printCustomerSection(out, customer, invoices.get(customer));
+					out.flush();
+				} else {
+					Section section = customerSections.get(customer);
+					earlier.transferTo(section.start, section.length, channel);
+				}
+				sections.put(customer, new Section(start, counter.count - start));
+			}
+			out.flush();
+			if (out.checkError()) {
+				throw new IOException("Couldn't write " + temp);
+			}
 		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+		return sections;
 	}
 	
 	/**
@@ -167,30 +795,79 @@ public class Reporter {
 	 * then ordered by number.
 	 */
 	public void reportInvoicesGroupedByCustomer() {
-		try ( PrintWriter out = getWriter(FILENAME_INVOICES_BY_CUSTOMER); ) {
-			out.println("All invoices, grouped by customer and ordered by invoice number");
-			out.println("=".repeat(66));
-			out.println();
-			out.format("       %-24s %10s  %10s  %10s%n", 
-					"Customer", "Issued", "Amount", "Paid");
-			out.println("-".repeat(4) + "  " + "-".repeat(24) + "  " + 
-					"-".repeat(10) + "  " + "-".repeat(10) + "  " + "-".repeat(10));
-			
-			Map<Customer,List<Invoice>> data = 
-					billing.getInvoicesGroupedByCustomer();
-			for (Customer customer : data.keySet()) {
-				out.println();
-				out.println(customer.getName());
-				out.println(data.get(customer).stream().map(Reporter::formatInvoice)
-						.collect(Collectors.joining("\n")));
+		Report.INVOICES_BY_CUSTOMER.generate(this);
+	}
+	
+	private void reportInvoicesGroupedByCustomer(Billing source) {
+		Map<Customer,List<Invoice>> data = 
+				source.getInvoicesGroupedByCustomer();
+		if (DIVERT_TO_SYSOUT) {
+			try ( PrintWriter out = getWriter(FILENAME_INVOICES_BY_CUSTOMER); ) {
+				printCustomerHeading(out);
+				data.forEach((customer, invoices) -> 
+					printCustomerSection(out, customer, invoices));
+			}
+		} else {
+			try {
+				customerSections = 
+						writeInvoicesGroupedByCustomer(data.keySet(), data, null);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
 			}
 		}
+		markGenerated(Report.INVOICES_BY_CUSTOMER, source);
+	}
+	
+	/**
+	 * Re-formats the sections for the given customers, and rewrites the
+	 * by-customer report with those and the sections we already had. 
+	 * Where a customer's group may have moved in the grouped query's order
+	 * -- because it's new, or is down to a single invoice that may have 
+	 * been removed and re-added -- or where the file was last written from
+	 * a snapshot, we regenerate the report in full instead.
+	 */
+	private void updateInvoicesGroupedByCustomer(Set<Customer> customers)
+			throws IOException {
+		Lock lock = fileLocks.get(Report.INVOICES_BY_CUSTOMER);
+		lock.lock();
+		try {
+			if (isGenerated(Report.INVOICES_BY_CUSTOMER)) {
+				updateSections(customers);
+			} else {
+				reportInvoicesGroupedByCustomer();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void updateSections(Set<Customer> customers) throws IOException {
+		Map<Customer,List<Invoice>> changed = new HashMap<>();
+		for (Customer customer : customers) {
+			List<Invoice> invoices = 
+					billing.getInvoicesForCustomer(customer).toList();
+			if (!customerSections.containsKey(customer) || invoices.size() == 1) {
+				reportInvoicesGroupedByCustomer();
+				return;
+			}
+			changed.put(customer, invoices);
+		}
+		
+		Path path = outputFolder.resolve(FILENAME_INVOICES_BY_CUSTOMER);
+		try ( FileChannel earlier = FileChannel.open(path, StandardOpenOption.READ); ) {
+			customerSections = writeInvoicesGroupedByCustomer
+					(customerSections.keySet(), changed, earlier);
+		}
 	}
 	
 	/**
 	 * Generates a report of overdue invoices, ordered by invoice date.
 	 */
 	public void reportOverdueInvoices() {
+		Report.OVERDUE_INVOICES.generate(this);
+	}
+	
+	private void reportOverdueInvoices(Billing source) {
 		try ( PrintWriter out = getWriter(FILENAME_OVERDUE_INVOICES); ) {
 			out.println("Overdue invoices, ordered by issue date");
 			out.println("=".repeat(78));
@@ -201,16 +878,20 @@ public class Reporter {
 					"-".repeat(10) + "  " + "-".repeat(10) + "  " + 
 					"-".repeat(10) + "  " + "-".repeat(10));
 			
-			out.println(billing.getOverdueInvoices(asOf)
-					.map(Reporter::formatOverdueInvoice)
-					.collect(Collectors.joining("\n")));
-		}
+			printRows(out, source.getOverdueInvoices(asOf), 
+				InvoiceRowFormatter::formatOverdue);
 		}
+		markGenerated(Report.OVERDUE_INVOICES, source);
+	}
 	
 	/**
 	 * Generates a report of all customers and their total volume of business.
 	 */
 	public void reportCustomersAndVolume() {
+		Report.CUSTOMERS_AND_VOLUME.generate(this);
+	}
+	
+	private void reportCustomersAndVolume(Billing source) {
 		try ( PrintWriter out = getWriter(FILENAME_CUSTOMERS_AND_VOLUME); ) {
 			out.println("All customers and total volume of business");
 			out.println("=".repeat(66));
@@ -219,16 +900,72 @@ public class Reporter {
 			out.println("-".repeat(24) + "  " + "-".repeat(12));
 
 			// Using the method that returns a stream -- results are ordered:
-			billing.getCustomersAndVolumeStream()
+			source.getCustomersAndVolumeStream()
 					.forEach(cv -> out.format("%-24s  %,12.2f%n",
 							cv.getCustomer().getName(), cv.getVolume()));
 			
 			// Using the method that returns a map -- results are not ordered:
 //			for (Map.Entry<Customer,Double> entry : 
-//					billing.getCustomersAndVolume().entrySet()) {
+//					source.getCustomersAndVolume().entrySet()) {
 //				out.format("%-24s  %,12.2f%n", 
 //						entry.getKey().getName(), entry.getValue());
 //			}
 		}
+		markGenerated(Report.CUSTOMERS_AND_VOLUME, source);
+	}
+	
+	/**
+	 * Generates a report of outstanding amounts for each customer,
+	 * by days past due. For our own billing object, if we're incremental,
+	 * we use the aging that we keep up to date, creating it the first time;
+	 * for a snapshot, or if we're not incremental, we age all invoices.
+	 */
+	public void reportReceivablesAging() {
+		Report.RECEIVABLES_AGING.generate(this);
+	}
+	
+	private void reportReceivablesAging(Billing source) {
+		ReceivablesAging data;
+		synchronized(this) {
+			if (source == billing && incremental) {
+				if (aging == null) {
+					aging = new ReceivablesAging(billing.getInvoices().values(), asOf);
+				}
+				data = aging;
+			} else {
+				data = new ReceivablesAging(source.getInvoices().values(), asOf);
+			}
+		}
+		
+		try ( PrintWriter out = getWriter(FILENAME_RECEIVABLES_AGING); ) {
+			out.println("Receivables aging by days past due, as of " + 
+					data.getAsOf().format(getFormatter()));
+			out.println("=".repeat(96));
+			out.println();
+			out.format("%-24s", "Customer");
+			for (ReceivablesAging.Bucket bucket : ReceivablesAging.Bucket.values()) {
+				out.format("  %10s", bucket.getLabel());
+			}
+			out.format("  %10s%n", "Total");
+			out.println("-".repeat(24) + ("  " + "-".repeat(10)).repeat(6));
+			
+			double total = 0;
+			for (ReceivablesAging.CustomerAging row : data.getAging()) {
+				out.format("%-24s", row.getCustomer().getName());
+				for (double amount : row.getAmounts()) {
+					out.format("  %,10.2f", amount);
+				}
+				out.format("  %,10.2f%n", row.getTotal());
+				total += row.getTotal();
+			}
+			
+			out.println("-".repeat(24) + ("  " + "-".repeat(10)).repeat(6));
+			out.format("%-24s", "Total");
+			for (ReceivablesAging.Bucket bucket : ReceivablesAging.Bucket.values()) {
+				out.format("  %,10.2f", data.getTotal(bucket));
+			}
+			out.format("  %,10.2f%n", total);
+		}
+		markGenerated(Report.RECEIVABLES_AGING, source);
 	}
 }
@@ -0,0 +1,20 @@
+package com.amica.billing;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Delivers each event right away, on the thread that fired it,
+ * as a batch of one. This is the default, and what most tests want:
+ * when a change method returns, every listener has heard about it.
+ */
+public class SynchronousDispatcher implements EventDispatcher {
+
+	@Override
+	public <T> void dispatch(List<Consumer<List<T>>> listeners, T event) {
+		List<T> batch = List.of(event);
+		for (Consumer<List<T>> listener : listeners) {
+			listener.accept(batch);
+		}
+	}
+}
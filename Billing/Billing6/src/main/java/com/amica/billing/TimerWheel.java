@@ -0,0 +1,224 @@
+package com.amica.billing;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: holds items until a deadline, measured in
+ * ticks, so that scheduling and cancelling each take constant time, and
+ * advancing the clock only touches items that are due or that move
+ * closer to being due. Each level is a ring of slots, with each slot of
+ * a level spanning a whole turn of the level below. An item goes into
+ * the lowest level whose turn reaches its deadline; when the levels
+ * below come round to its slot, it moves down, until it reaches the
+ * first level and expires on its tick. Items due further out than the
+ * highest level reaches stay in that level and are looked at again
+ * on each of its turns.
+ *
+ * Slot lists are doubly linked, so an item can be cancelled by its
+ * {@link Timeout handle} without searching. This class is not
+ * thread-safe; callers should synchronize.
+ */
+public class TimerWheel<T> {
+
+	/**
+	 * Handle for a scheduled item, by which it can be cancelled.
+	 */
+	public static class Timeout<T> {
+		private T item;
+		private long deadline;
+		private Timeout<T> previous;
+		private Timeout<T> next;
+		private Timeout<T>[] slots;
+		private int slot = -1;
+
+		private Timeout(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+
+		public T getItem() {
+			return item;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		/**
+		 * Returns true if the item is still waiting for its deadline.
+		 */
+		public boolean isPending() {
+			return slots != null;
+		}
+	}
+
+	private int bits;
+	private int mask;
+	private Timeout<T>[][] levels;
+	private Timeout<T>[] due;
+	private long currentTick;
+	private int size;
+
+	/**
+	 * Creates an array of slots. There's no creating an array of a generic
+	 * type, so we create one of the wildcard type; that's safe, since
+	 * the array never leaves the wheel and only holds our timeouts.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Timeout<T>[] newSlots(int size) {
+		return (Timeout<T>[]) new Timeout<?>[size];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Timeout<T>[][] newLevels(int count) {
+		return (Timeout<T>[][]) new Timeout<?>[count][];
+	}
+
+	/**
+	 * Creates a wheel with the given number of levels, each with the given
+	 * number of slots, which must be a power of two, starting at the
+	 * given tick.
+	 */
+	public TimerWheel(int wheelSize, int levelCount, long startTick) {
+		if (Integer.bitCount(wheelSize) != 1 || levelCount < 1) {
+			throw new IllegalArgumentException
+				("Wheel size must be a power of two, and there must be at least one level.");
+		}
+		bits = Integer.numberOfTrailingZeros(wheelSize);
+		mask = wheelSize - 1;
+		levels = newLevels(levelCount);
+		for (int level = 0; level < levelCount; ++level) {
+			levels[level] = newSlots(wheelSize);
+		}
+		due = newSlots(1);
+		currentTick = startTick;
+	}
+
+	public long getCurrentTick() {
+		return currentTick;
+	}
+
+	/**
+	 * Returns the number of items waiting.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void link(Timeout<T> timeout, Timeout<T>[] slots, int slot) {
+		timeout.slots = slots;
+		timeout.slot = slot;
+		timeout.previous = null;
+		timeout.next = slots[slot];
+		if (timeout.next != null) {
+			timeout.next.previous = timeout;
+		}
+		slots[slot] = timeout;
+	}
+
+	private void unlink(Timeout<T> timeout) {
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			timeout.slots[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.slots = null;
+		timeout.previous = null;
+		timeout.next = null;
+	}
+
+	/**
+	 * Puts the timeout in the lowest level that reaches its deadline, or
+	 * in the highest level if none does; or with the items that are due,
+	 * if its deadline has passed.
+	 */
+	private void place(Timeout<T> timeout) {
+		long delta = timeout.deadline - currentTick;
+		if (delta <= 0) {
+			link(timeout, due, 0);
+			return;
+		}
+		int level = 0;
+		while (level < levels.length - 1 && delta >= 1L << (bits * (level + 1))) {
+			++level;
+		}
+		int slot = (int) (timeout.deadline >>> (bits * level)) & mask;
+		link(timeout, levels[level], slot);
+	}
+
+	/**
+	 * Schedules the given item for the given tick, and returns a handle
+	 * by which it can be cancelled. An item scheduled for the current
+	 * tick, or earlier, expires on the next {@link #advanceTo advance}.
+	 */
+	public Timeout<T> schedule(T item, long deadline) {
+		Timeout<T> timeout = new Timeout<>(item, deadline);
+		place(timeout);
+		++size;
+		return timeout;
+	}
+
+	/**
+	 * Cancels the given timeout, and returns true, if it's still pending.
+	 */
+	public boolean cancel(Timeout<T> timeout) {
+		if (!timeout.isPending()) {
+			return false;
+		}
+		unlink(timeout);
+		--size;
+		return true;
+	}
+
+	/**
+	 * Takes the list out of the given slot, and hands each timeout in it
+	 * to the given action, unlinked.
+	 */
+	private void drain(Timeout<T>[] slots, int slot, Consumer<Timeout<T>> action) {
+		Timeout<T> timeout = slots[slot];
+		slots[slot] = null;
+		while (timeout != null) {
+			Timeout<T> next = timeout.next;
+			timeout.slots = null;
+			timeout.previous = null;
+			timeout.next = null;
+			action.accept(timeout);
+			timeout = next;
+		}
+	}
+
+	private void expire(Timeout<T> timeout, Consumer<T> expired) {
+		--size;
+		expired.accept(timeout.item);
+	}
+
+	/**
+	 * Advances the wheel to the given tick, handing each item that comes
+	 * due on the way to the given consumer, in the order of their ticks.
+	 * On each tick we first move items down from any higher level that
+	 * has come round to a new slot, from the top down, and then expire
+	 * the items in the first level's slot for that tick. If nothing is
+	 * waiting, we jump straight to the given tick.
+	 */
+	public void advanceTo(long tick, Consumer<T> expired) {
+		drain(due, 0, timeout -> expire(timeout, expired));
+		while (currentTick < tick) {
+			if (size == 0) {
+				currentTick = tick;
+				return;
+			}
+			++currentTick;
+			for (int level = levels.length - 1; level > 0; --level) {
+				if ((currentTick & ((1L << (bits * level)) - 1)) == 0) {
+					int slot = (int) (currentTick >>> (bits * level)) & mask;
+					drain(levels[level], slot, this::place);
+				}
+			}
+			drain(levels[0], (int) currentTick & mask, timeout -> expire(timeout, expired));
+			drain(due, 0, timeout -> expire(timeout, expired));
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.amica.billing.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process invoice number sequence, suitable when only one
+ * application instance owns the data, as with file-based persistence.
+ */
+public class AtomicInvoiceNumberSequence implements InvoiceNumberSequence {
+
+    private AtomicInteger last;
+
+    /**
+     * Start the sequence after the given number, which would usually be
+     * the highest invoice number found when loading.
+     */
+    public AtomicInvoiceNumberSequence(int last) {
+        this.last = new AtomicInteger(last);
+    }
+
+    @Override
+    public int next() {
+        return last.incrementAndGet();
+    }
+
+    @Override
+    public void reserve(int number) {
+        last.accumulateAndGet(number, Math::max);
+    }
+}
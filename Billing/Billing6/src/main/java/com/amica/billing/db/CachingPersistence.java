@@ -1,43 +1,470 @@
 package com.amica.billing.db;
 
+import com.amica.billing.Billing;
 import com.amica.billing.Customer;
 import com.amica.billing.Invoice;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Value;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Base for persistence services that keep customers and invoices in memory,
+ * with indexes and running volumes, and read and write a backing store.
+ *
+ * By default every invoice is loaded and held. With a maximum number of
+ * cached invoices, invoices are instead held in a bounded
+ * {@link InvoiceCache}, and read through from the backing store as needed;
+ * invoices for the configured pinned customers are always held. In that
+ * mode we keep the running volumes but not the indexes, and the other
+ * queries scan the backing store.
+ *
+ * Customers are registered in a {@link CustomerDictionary}, which gives
+ * each one a dense ID; the indexes, volumes, and columns are keyed by
+ * those IDs rather than by name.
+ *
+ * Optionally, in either mode, we also hold invoices in
+ * {@link InvoiceColumns columns} of primitives, and answer overdue
+ * queries from those, rather than from the invoice objects. Volumes
+ * always come from the running totals, which are a lookup; but the
+ * columns hold each invoice's customer and amount as last saved, so
+ * in bounded mode we total volumes from them on loading, and correct
+ * them from them when an invoice is replaced, rather than reading
+ * the invoice's stored version.
+ *
+ * This class is safe for use by several threads. Customers and invoices
+ * are held in concurrent maps, and a new customer is added only if its
+ * name is free, atomically. Indexes and volumes are guarded by a
+ * read-write lock; queries on the indexes gather their results before
+ * releasing it. Changes to the maps are made under the write lock too,
+ * so that a {@link #snapshot snapshot}, copied under the read lock,
+ * sees them all as of one moment. Writes to the backing store happen
+ * outside the lock.
+ */
 @Getter
 public abstract class CachingPersistence implements Persistence{
    protected Map<String, Customer> customers;
    protected Map<Integer, Invoice> invoices;
+   @Getter(AccessLevel.NONE)
+   protected CustomerDictionary dictionary = new CustomerDictionary();
+   @Getter(AccessLevel.NONE)
+   protected InvoiceIndex index = new InvoiceIndex(dictionary);
+   @Getter(AccessLevel.NONE)
+   protected CustomerVolumes volumes = new CustomerVolumes(dictionary);
+   @Getter(AccessLevel.NONE)
+   protected InvoiceNumberSequence sequence;
+   @Getter(AccessLevel.NONE)
+   protected InvoiceCache cache;
+   @Getter(AccessLevel.NONE)
+   protected InvoiceColumns columns;
+   @Getter(AccessLevel.NONE)
+   private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+   @Value("${CachingPersistence.maxCachedInvoices:0}")
+   @Setter
+   @Getter(AccessLevel.NONE)
+   protected int maxCachedInvoices;
+
+   @Value("${CachingPersistence.pinnedCustomers:}")
+   @Setter
+   @Getter(AccessLevel.NONE)
+   protected List<String> pinnedCustomers = new ArrayList<>();
+
+   @Value("${CachingPersistence.columnar:false}")
+   @Setter
+   @Getter(AccessLevel.NONE)
+   protected boolean columnar;
 
    protected abstract Stream<Customer> readCustomers();
    protected abstract Stream<Invoice> readInvoices();
    protected abstract void writeCustomer(Customer customer);
    protected abstract void writeInvoice(Invoice invoice);
 
+   /**
+    * Creates the sequence for new invoice numbers, given the highest
+    * number found when loading. By default this is an in-process counter.
+    */
+   protected InvoiceNumberSequence createSequence(int last) {
+       return new AtomicInvoiceNumberSequence(last);
+   }
+
+   /**
+    * Reads one invoice from the backing store, for the bounded cache.
+    * By default we scan for it; stores that can look invoices up by
+    * number should override this.
+    */
+   protected Invoice readInvoice(int number) {
+       try(Stream<Invoice> invoiceStream = readInvoices()) {
+           return invoiceStream.filter(invoice -> invoice.getNumber() == number)
+                   .reduce((older, newer) -> newer).orElse(null);
+       }
+   }
+
+   /**
+    * Reads the given invoices from the backing store, in one pass, for the
+    * bounded cache. By default we scan for them; stores that can look up
+    * several invoices at once should override this. If the store holds
+    * more than one record of an invoice, we may return each of them.
+    */
+   protected Stream<Invoice> readInvoices(int[] numbers) {
+       BitSet wanted = new BitSet();
+       Arrays.stream(numbers).forEach(wanted::set);
+       try(Stream<Invoice> invoiceStream = readInvoices()) {
+           return invoiceStream.filter(invoice -> wanted.get(invoice.getNumber()))
+                   .toList().stream();
+       }
+   }
+
+   /**
+    * Returns the bounded invoice cache, for its statistics,
+    * or null if all invoices are held in memory.
+    */
+   public InvoiceCache getInvoiceCache() {
+       return cache;
+   }
+
+   /**
+    * Returns the invoice columns, or null if we don't keep them.
+    */
+   public InvoiceColumns getColumns() {
+       return columns;
+   }
+
+   /**
+    * Runs the given query while holding the read lock.
+    */
+   private <T> T read(Supplier<T> query) {
+       lock.readLock().lock();
+       try {
+           return query.get();
+       } finally {
+           lock.readLock().unlock();
+       }
+   }
+
+   /**
+    * Runs the given update while holding the write lock.
+    */
+   private void write(Runnable update) {
+       lock.writeLock().lock();
+       try {
+           update.run();
+       } finally {
+           lock.writeLock().unlock();
+       }
+   }
+
    public void load() {
+       write(() -> {
+           columns = columnar ? new InvoiceColumns(dictionary) : null;
+           if (maxCachedInvoices > 0) {
+               loadBounded();
+               return;
+           }
+           cache = null;
+           loadCustomers();
+           try(Stream<Invoice> invoiceStream = readInvoices()) {
+               invoices = invoiceStream.collect(Collectors.toMap(Invoice::getNumber, Function.identity(), (older, newer) -> newer, ConcurrentHashMap::new));
+           }
+           index.rebuild(invoices.values().stream());
+           volumes.rebuild(invoices.values().stream());
+           if (columns != null) {
+               invoices.values().forEach(columns::put);
+           }
+           sequence = createSequence(invoices.keySet().stream()
+                   .mapToInt(Integer::intValue).max().orElse(0));
+       });
+   }
+
+   /**
+    * Loads customers into a map by name, and registers them, in order,
+    * in a fresh dictionary.
+    */
+   private void loadCustomers() {
+       Map<String, Customer> loaded = new ConcurrentHashMap<>();
+       dictionary.clear();
        try(Stream<Customer> customerStream = readCustomers()) {
-           customers = customerStream.collect(Collectors.toMap(Customer::getName, Function.identity()));
+           customerStream.forEachOrdered(customer -> {
+               loaded.put(customer.getName(), customer);
+               dictionary.register(customer);
+           });
        }
+       customers = loaded;
+   }
+
+   /**
+    * Loads customers, and streams through the invoices once to note
+    * which numbers exist and to total volumes, leaving the latest ones
+    * and those of pinned customers in the cache. A store may hold more
+    * than one record of an invoice, the later ones replacing the earlier:
+    * we take the earlier record out of the volumes if it's still cached,
+    * and otherwise count the invoice once, as Billing never changes an
+    * invoice's customer or amount once it's issued. With columns, each
+    * invoice's row ends up holding its last record, so we total the
+    * volumes from the rows at the end instead.
+    */
+   private void loadBounded() {
+       loadCustomers();
+       cache = new InvoiceCache(maxCachedInvoices, this::readInvoice, this::readInvoices);
+       pinnedCustomers.forEach(cache::pin);
+       invoices = cache;
+       volumes.rebuild(Stream.empty());
+       index.rebuild(Stream.empty());
        try(Stream<Invoice> invoiceStream = readInvoices()) {
-           invoices = invoiceStream.collect(Collectors.toMap(Invoice::getNumber, Function.identity()));
+           invoiceStream.forEach(invoice -> {
+               boolean seen = cache.containsKey(invoice.getNumber());
+               Invoice earlier = cache.loaded(invoice);
+               if (columns != null) {
+                   columns.put(invoice);
+                   return;
+               }
+               if (earlier != null) {
+                   volumes.remove(earlier);
+               }
+               if (!seen || earlier != null) {
+                   volumes.add(invoice);
+               }
+           });
        }
+       if (columns != null) {
+           columns.addTo(volumes);
+       }
+       sequence = createSequence(cache.getHighestNumber());
    }
 
     @Override
     public void saveCustomer(Customer customer) {
-        customers.put(customer.getName(), customer);
+        write(() -> {
+            customers.put(customer.getName(), customer);
+            dictionary.register(customer);
+        });
+        writeCustomer(customer);
+    }
+
+    /**
+     * Adds the customer only if no customer has its name,
+     * atomically, and writes it if so.
+     */
+    @Override
+    public boolean createCustomer(Customer customer) {
+        lock.writeLock().lock();
+        try {
+            if (customers.putIfAbsent(customer.getName(), customer) != null) {
+                return false;
+            }
+            dictionary.register(customer);
+        } finally {
+            lock.writeLock().unlock();
+        }
         writeCustomer(customer);
+        return true;
+    }
+
+    /**
+     * Returns the stored version of the given invoice, for its volume.
+     * In bounded mode it may not be cached, so we read it through --
+     * outside our lock, which callers take afterwards -- unless the
+     * columns already hold its customer and amount.
+     */
+    private Invoice readStored(Invoice invoice) {
+        if (cache == null || read(() -> columns != null
+                && columns.contains(invoice.getNumber()))) {
+            return null;
+        }
+        return cache.get(invoice.getNumber());
+    }
+
+    /**
+     * Replaces any previous version of the invoice in the indexes, volumes,
+     * and columns. Called with the write lock held. If the columns hold
+     * the invoice, we take its previous version out of the volumes
+     * from there.
+     */
+    private void replace(Invoice invoice, Invoice stored) {
+        boolean removed = false;
+        if (columns != null) {
+            removed = columns.removeFrom(volumes, invoice.getNumber());
+            columns.put(invoice);
+        }
+        Invoice previous;
+        if (cache != null) {
+            if (!cache.containsKey(invoice.getNumber())) {
+                sequence.reserve(invoice.getNumber());
+            }
+            previous = cache.put(invoice.getNumber(), invoice);
+            if (previous == null) {
+                previous = stored;
+            }
+        } else {
+            previous = invoices.put(invoice.getNumber(), invoice);
+            if (previous != null) {
+                index.remove(previous);
+            }
+            index.add(invoice);
+            if (previous == null) {
+                sequence.reserve(invoice.getNumber());
+            }
+        }
+        if (previous != null && !removed) {
+            volumes.remove(previous);
+        }
+        volumes.add(invoice);
     }
 
     @Override
     public void saveInvoice(Invoice invoice) {
-        invoices.put(invoice.getNumber(), invoice);
+        Invoice stored = readStored(invoice);
+        write(() -> replace(invoice, stored));
         writeInvoice(invoice);
     }
 
+    /**
+     * Pays the invoice under the write lock, along with replacing it in
+     * the indexes, so that no reader sees it paid but still indexed as
+     * unpaid; then writes it, outside the lock, as a save does.
+     */
+    @Override
+    public boolean payInvoice(Invoice invoice, LocalDate paidDate) {
+        Invoice stored = readStored(invoice);
+        lock.writeLock().lock();
+        try {
+            if (!invoice.pay(paidDate)) {
+                return false;
+            }
+            replace(invoice, stored);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        writeInvoice(invoice);
+        return true;
+    }
+
+    @Override
+    public int nextInvoiceNumber() {
+        return sequence.next();
+    }
+
+    /**
+     * Answers from the indexes: for a customer's invoices, we start with
+     * that customer's; for a range of issue dates, or in date order, we
+     * start with the date index; otherwise, with all invoices. Then we
+     * filter by the rest of the query, and sort if need be.
+     */
+    @Override
+    public Stream<Invoice> findInvoices(InvoiceQuery query) {
+        if (cache != null) {
+            try(Stream<Invoice> invoiceStream = cache.scan()) {
+                return invoiceStream.filter(query::matches)
+                        .sorted(query.getOrder().getComparator())
+                        .toList().stream();
+            }
+        }
+        InvoiceQuery.Order order = query.getOrder();
+        Stream<Invoice> candidates;
+        if (query.getCustomer().isPresent()) {
+            candidates = getInvoicesForCustomer(query.getCustomer().get());
+            if (order != InvoiceQuery.Order.NUMBER) {
+                candidates = candidates.sorted(order.getComparator());
+            }
+        } else if (order == InvoiceQuery.Order.DATE || query.getIssuedFrom().isPresent()
+                || query.getIssuedBefore().isPresent()) {
+            candidates = read(() -> index.getInvoicesIssuedBetween
+                    (query.getIssuedFrom().orElse(null),
+                            query.getIssuedBefore().orElse(null)).toList()).stream();
+            if (order != InvoiceQuery.Order.DATE) {
+                candidates = candidates.sorted(order.getComparator());
+            }
+        } else {
+            candidates = invoices.values().stream().sorted(order.getComparator());
+        }
+        return candidates.filter(query::matches);
+    }
+
+    @Override
+    public Stream<Invoice> getInvoicesForCustomer(Customer customer) {
+        if (cache != null) {
+            return Persistence.super.getInvoicesForCustomer(customer);
+        }
+        return read(() -> index.getInvoicesForCustomer(customer).toList()).stream();
+    }
+
+    @Override
+    public Stream<Invoice> getInvoicesOrderedByDate() {
+        if (cache != null) {
+            return Persistence.super.getInvoicesOrderedByDate();
+        }
+        return read(() -> index.getInvoicesOrderedByDate().toList()).stream();
+    }
+
+    @Override
+    public Map<Customer, List<Invoice>> getInvoicesGroupedByCustomer() {
+        if (cache != null) {
+            try(Stream<Invoice> invoiceStream = cache.scan()) {
+                return invoiceStream.sorted(Billing.compareByNumber)
+                        .collect(Collectors.groupingBy(Invoice::getCustomer));
+            }
+        }
+        return read(index::getInvoicesGroupedByCustomer);
+    }
+
+    /**
+     * From the columns, if we have them, we get the overdue invoice numbers
+     * in order, and look the invoices up. With a bounded cache, we read
+     * them from the store all at once, as a scan would, rather than one
+     * lookup at a time through the cache.
+     */
+    /**
+     * Copies customers and invoices under the read lock, so that no
+     * save or payment lands partway through. In bounded mode that
+     * means a full scan of the store while holding the lock.
+     */
+    @Override
+    public Persistence snapshot() {
+        return read(() -> new PersistenceSnapshot(customers.values(), invoices.values()));
+    }
+
+    @Override
+    public Stream<Invoice> getOverdueInvoices(LocalDate asOf) {
+        if (columns != null) {
+            int[] numbers = read(() -> columns.getOverdueNumbers(asOf));
+            if (cache == null) {
+                return Arrays.stream(numbers).mapToObj(invoices::get);
+            }
+            Map<Integer, Invoice> found;
+            try(Stream<Invoice> invoiceStream = cache.scan(readInvoices(numbers))) {
+                found = invoiceStream.collect(Collectors.toMap(Invoice::getNumber,
+                        Function.identity(), (older, newer) -> newer));
+            }
+            return Arrays.stream(numbers).mapToObj(found::get).filter(Objects::nonNull);
+        }
+        if (cache != null) {
+            return Persistence.super.getOverdueInvoices(asOf);
+        }
+        return read(() -> index.getOverdueInvoices(asOf));
+    }
+
+    @Override
+    public double getVolumeForCustomer(Customer customer) {
+        return read(() -> volumes.getVolume(customer));
+    }
+
+    @Override
+    public int getInvoiceCountForCustomer(Customer customer) {
+        return read(() -> volumes.getInvoiceCount(customer));
+    }
 }
@@ -0,0 +1,271 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Customer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns each customer a dense int ID, in the order customers are
+ * {@link #register registered}, so that indexes and running totals can
+ * be arrays indexed by ID instead of maps keyed by name.
+ *
+ * We keep each customer's first and last names, interned, so that the
+ * many customers who share a first or last name share one string.
+ * Customers can be found by full name, by first and last names, or by
+ * first and last names found at ranges of a line of text, with an
+ * open-addressing table that we probe with the hash code of the full
+ * name -- either the name's own, or one computed over the two parts and
+ * the separating space. So a lookup never builds a "first last" string.
+ * Lookups by full name, or by ranges of text, find exactly the customer
+ * that a map keyed by {@link Customer#getName name} would.
+ *
+ * This class is not thread-safe; {@link CachingPersistence} guards it
+ * with its lock. Once built, it can be read from any number of threads,
+ * as the parsers do.
+ */
+public class CustomerDictionary {
+
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+    private Customer[] customers = new Customer[INITIAL_CAPACITY];
+    private String[] firstNames = new String[INITIAL_CAPACITY];
+    private String[] lastNames = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private Map<String, String> parts = new HashMap<>();
+
+    public CustomerDictionary() {
+    }
+
+    /**
+     * Registers the given customers, in order.
+     */
+    public CustomerDictionary(Collection<Customer> customers) {
+        customers.forEach(this::register);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(String text, int from, int to, int hash) {
+        for (int i = from; i < to; ++i) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the hash code of the string we'd get by joining the given
+     * ranges of the given text with a space, without joining them.
+     */
+    private static int hash(String text, int firstFrom, int firstTo,
+            int lastFrom, int lastTo) {
+        return hash(text, lastFrom, lastTo,
+                31 * hash(text, firstFrom, firstTo, 0) + ' ');
+    }
+
+    private static int hash(String firstName, String lastName) {
+        return hash(lastName, 0, lastName.length(), 31 * firstName.hashCode() + ' ');
+    }
+
+    private String intern(String part) {
+        return parts.computeIfAbsent(part, k -> k);
+    }
+
+    /**
+     * Returns the number of customers registered.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all customers.
+     */
+    public void clear() {
+        Arrays.fill(customers, 0, size, null);
+        Arrays.fill(table, 0);
+        parts.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns the customer with the given ID.
+     */
+    public Customer getCustomer(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No customer with ID " + id);
+        }
+        return customers[id];
+    }
+
+    /**
+     * Returns the interned first name of the customer with the given ID.
+     */
+    public String getFirstName(int id) {
+        return firstNames[id];
+    }
+
+    /**
+     * Returns the interned last name of the customer with the given ID.
+     */
+    public String getLastName(int id) {
+        return lastNames[id];
+    }
+
+    /**
+     * Returns the ID of the customer with the given full name, or NONE.
+     */
+    public int getId(String name) {
+        int slot = spread(name.hashCode()) & (table.length - 1);
+        for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+            int id = entry - 1;
+            int firstLength = firstNames[id].length();
+            if (name.length() == firstLength + 1 + lastNames[id].length() &&
+                    name.startsWith(firstNames[id]) &&
+                    name.charAt(firstLength) == ' ' &&
+                    name.endsWith(lastNames[id])) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the ID of the customer with the given names, or NONE.
+     */
+    public int getId(String firstName, String lastName) {
+        int hash = hash(firstName, lastName);
+        int slot = spread(hash) & (table.length - 1);
+        for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+            int id = entry - 1;
+            if (hashes[id] == hash && firstNames[id].equals(firstName) &&
+                    lastNames[id].equals(lastName)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the ID of the customer whose full name is the first name and
+     * the last name found at the given ranges of the given text, separated
+     * by a space; or NONE.
+     */
+    public int getId(String text, int firstFrom, int firstTo, int lastFrom, int lastTo) {
+        int firstLength = firstTo - firstFrom;
+        int lastLength = lastTo - lastFrom;
+        int slot = spread(hash(text, firstFrom, firstTo, lastFrom, lastTo))
+                & (table.length - 1);
+        for (int entry = table[slot]; entry != 0; entry = table[slot]) {
+            int id = entry - 1;
+            if (sameName(id, text, firstFrom, firstLength, lastFrom, lastLength)) {
+                return id;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the customer found as by the ranges of text, as above,
+     * or null.
+     */
+    public Customer findCustomer(String text, int firstFrom, int firstTo,
+            int lastFrom, int lastTo) {
+        int id = getId(text, firstFrom, firstTo, lastFrom, lastTo);
+        return id != NONE ? customers[id] : null;
+    }
+
+    /**
+     * Compares the full names of the given customer and of the given
+     * ranges of text, a character at a time, since a space in either
+     * customer's first or last name can put the break between the parts
+     * in different places.
+     */
+    private boolean sameName(int id, String text, int firstFrom, int firstLength,
+            int lastFrom, int lastLength) {
+        String firstName = firstNames[id];
+        String lastName = lastNames[id];
+        int length = firstName.length() + 1 + lastName.length();
+        if (length != firstLength + 1 + lastLength) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            char expected = i < firstName.length() ? firstName.charAt(i)
+                    : i == firstName.length() ? ' '
+                    : lastName.charAt(i - firstName.length() - 1);
+            char actual = i < firstLength ? text.charAt(firstFrom + i)
+                    : i == firstLength ? ' '
+                    : text.charAt(lastFrom + i - firstLength - 1);
+            if (expected != actual) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ID of a customer with the given customer's names, or NONE.
+     */
+    public int getId(Customer customer) {
+        return getId(customer.getFirstName(), customer.getLastName());
+    }
+
+    /**
+     * Returns the ID of the customer with the given customer's names,
+     * registering it if there's none. If there is one, the given customer
+     * takes its place, as the latest version of that customer.
+     */
+    public int register(Customer customer) {
+        int id = getId(customer);
+        if (id != NONE) {
+            customers[id] = customer;
+            return id;
+        }
+        if (size == customers.length) {
+            int capacity = size * 2;
+            customers = Arrays.copyOf(customers, capacity);
+            firstNames = Arrays.copyOf(firstNames, capacity);
+            lastNames = Arrays.copyOf(lastNames, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            table = new int[capacity * 2];
+            for (int existing = 0; existing < size; ++existing) {
+                insert(existing);
+            }
+        }
+        id = size++;
+        customers[id] = customer;
+        firstNames[id] = intern(customer.getFirstName());
+        lastNames[id] = intern(customer.getLastName());
+        hashes[id] = hash(firstNames[id], lastNames[id]);
+        insert(id);
+        return id;
+    }
+
+    /**
+     * Returns the ID of the given customer, registering it if need be,
+     * but leaving a registered customer in place.
+     */
+    public int idOf(Customer customer) {
+        int id = getId(customer);
+        return id != NONE ? id : register(customer);
+    }
+
+    private void insert(int id) {
+        int slot = spread(hashes[id]) & (table.length - 1);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = id + 1;
+    }
+}
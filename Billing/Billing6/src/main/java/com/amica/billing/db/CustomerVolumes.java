@@ -0,0 +1,109 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Running totals of the volume of business and the number of invoices
+ * for each customer, so that volume queries don't have to re-read
+ * every invoice. Totals are held in arrays indexed by the customers'
+ * IDs in a {@link CustomerDictionary}, which we share with the caller,
+ * if it gives us one.
+ *
+ * We hold nothing per invoice. The caller {@link #add adds} each new
+ * invoice, and when it replaces one, {@link #remove removes} the version
+ * it had before adding the new one. Volumes are totaled in cents, so
+ * that taking an amount out and putting it back leaves them exactly
+ * as they were.
+ */
+public class CustomerVolumes {
+
+    private CustomerDictionary dictionary;
+    private long[] cents = new long[16];
+    private int[] counts = new int[16];
+
+    public CustomerVolumes() {
+        this(new CustomerDictionary());
+    }
+
+    public CustomerVolumes(CustomerDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Clears all totals and adds each of the given invoices.
+     */
+    public void rebuild(Stream<Invoice> invoices) {
+        Arrays.fill(cents, 0);
+        Arrays.fill(counts, 0);
+        invoices.forEach(this::add);
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= cents.length) {
+            int capacity = Math.max(id + 1, cents.length * 2);
+            cents = Arrays.copyOf(cents, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+    }
+
+    /**
+     * Converts the invoice's amount to a whole number of cents.
+     */
+    static long toCents(Invoice invoice) {
+        return Math.round(invoice.getAmount() * 100);
+    }
+
+    /**
+     * Adds the given invoice to its customer's totals.
+     */
+    public void add(Invoice invoice) {
+        add(dictionary.idOf(invoice.getCustomer()), toCents(invoice));
+    }
+
+    /**
+     * Takes the given invoice out of its customer's totals.
+     */
+    public void remove(Invoice invoice) {
+        remove(dictionary.idOf(invoice.getCustomer()), toCents(invoice));
+    }
+
+    /**
+     * Adds an invoice of the given amount to the totals of the customer
+     * with the given ID in our dictionary.
+     */
+    void add(int id, long amountInCents) {
+        ensureCapacity(id);
+        counts[id]++;
+        cents[id] += amountInCents;
+    }
+
+    /**
+     * Takes an invoice of the given amount out of the totals of the
+     * customer with the given ID in our dictionary.
+     */
+    void remove(int id, long amountInCents) {
+        ensureCapacity(id);
+        counts[id]--;
+        cents[id] -= amountInCents;
+    }
+
+    /**
+     * Returns the total amount invoiced to the given customer.
+     */
+    public double getVolume(Customer customer) {
+        int id = dictionary.getId(customer);
+        return id >= 0 && id < cents.length ? cents[id] / 100.0 : 0;
+    }
+
+    /**
+     * Returns the number of invoices issued to the given customer.
+     */
+    public int getInvoiceCount(Customer customer) {
+        int id = dictionary.getId(customer);
+        return id >= 0 && id < counts.length ? counts[id] : 0;
+    }
+}
@@ -0,0 +1,310 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Invoice;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A bounded map of invoices by number, that holds only some of them in
+ * memory and reads the rest through from the backing store on demand.
+ *
+ * Cached invoices are evicted in least-recently-used order once there are
+ * more than the configured number. Invoices for pinned customers don't
+ * count toward that limit and are never evicted. We remember which invoice
+ * numbers exist, in a bit set, so that the size of the map and checks for
+ * a key don't need the backing store, and so that asking for a number
+ * that doesn't exist doesn't either.
+ *
+ * Iterating over the map, or a {@link #scan scan}, streams every invoice
+ * from the backing store, substituting the cached instance for any
+ * invoice that's in memory, so that unsaved changes show through. A scan like that doesn't add to
+ * the cache, so one report over all invoices doesn't flush out the
+ * invoices that are in regular use. Only lookups count as hits or misses.
+ *
+ * {@link #put put} returns the previous invoice only if it was cached.
+ */
+public class InvoiceCache extends AbstractMap<Integer, Invoice> {
+
+    private int capacity;
+    private IntFunction<Invoice> loader;
+    private Supplier<Stream<Invoice>> scanner;
+
+    private Set<String> pinnedCustomers = new HashSet<>();
+    private Map<Integer, Invoice> pinned = new HashMap<>();
+    private Map<Integer, Invoice> recent;
+    private BitSet known = new BitSet();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Provide the most invoices to hold, apart from those of pinned
+     * customers; a function that reads one invoice by number from the
+     * backing store, or returns null; and a source of streams of all
+     * invoices in the backing store.
+     */
+    public InvoiceCache(int capacity, IntFunction<Invoice> loader,
+            Supplier<Stream<Invoice>> scanner) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.loader = loader;
+        this.scanner = scanner;
+        recent = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Invoice> eldest) {
+                if (size() > InvoiceCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private boolean isPinned(Invoice invoice) {
+        return pinnedCustomers.contains(invoice.getCustomer().getName());
+    }
+
+    private void cache(Invoice invoice) {
+        if (isPinned(invoice)) {
+            recent.remove(invoice.getNumber());
+            pinned.put(invoice.getNumber(), invoice);
+        } else {
+            pinned.remove(invoice.getNumber());
+            recent.put(invoice.getNumber(), invoice);
+        }
+    }
+
+    /**
+     * Returns the cached instance of the given invoice, if any,
+     * without counting a hit or changing the eviction order.
+     */
+    private Invoice peek(int number) {
+        Invoice invoice = pinned.get(number);
+        return invoice != null ? invoice : recent.get(number);
+    }
+
+    /**
+     * Keeps the invoices of the named customer in memory from now on,
+     * including any that are already cached. Others are read in as needed.
+     */
+    public synchronized void pin(String customerName) {
+        pinnedCustomers.add(customerName);
+        Iterator<Invoice> iterator = recent.values().iterator();
+        while (iterator.hasNext()) {
+            Invoice invoice = iterator.next();
+            if (isPinned(invoice)) {
+                pinned.put(invoice.getNumber(), invoice);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Lets the invoices of the named customer be evicted again.
+     */
+    public synchronized void unpin(String customerName) {
+        pinnedCustomers.remove(customerName);
+        Iterator<Invoice> iterator = pinned.values().iterator();
+        while (iterator.hasNext()) {
+            Invoice invoice = iterator.next();
+            if (!isPinned(invoice)) {
+                iterator.remove();
+                recent.put(invoice.getNumber(), invoice);
+            }
+        }
+    }
+
+    /**
+     * Records an invoice read from the backing store while loading:
+     * the number is known to exist, and the invoice is cached,
+     * so we start out with the latest invoices in memory.
+     * Evictions during loading aren't counted. Returns the earlier
+     * record of the same invoice, if there was one and it's still cached.
+     */
+    synchronized Invoice loaded(Invoice invoice) {
+        known.set(invoice.getNumber());
+        Invoice earlier = peek(invoice.getNumber());
+        long evicted = evictions.get();
+        cache(invoice);
+        evictions.set(evicted);
+        return earlier;
+    }
+
+    /**
+     * Returns the highest invoice number known, or 0 if there are none.
+     */
+    public synchronized int getHighestNumber() {
+        return Math.max(0, known.length() - 1);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of invoices held in memory, pinned or not.
+     */
+    public synchronized int getCachedCount() {
+        return pinned.size() + recent.size();
+    }
+
+    @Override
+    public synchronized int size() {
+        return known.cardinality();
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return key instanceof Integer number && number >= 0 && known.get(number);
+    }
+
+    /**
+     * Returns the cached invoice, or reads it from the backing store
+     * and caches it. We read outside our lock, so that other readers and
+     * writers aren't held up by the round trip; if another thread cached
+     * the invoice in the meantime, by loading or saving it, we keep and
+     * return that one.
+     */
+    @Override
+    public Invoice get(Object key) {
+        int number;
+        synchronized(this) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            number = (Integer) key;
+            Invoice invoice = pinned.get(number);
+            if (invoice == null) {
+                invoice = recent.remove(number);
+                if (invoice != null) {
+                    recent.put(number, invoice);
+                }
+            }
+            if (invoice != null) {
+                hits.incrementAndGet();
+                return invoice;
+            }
+            misses.incrementAndGet();
+        }
+
+        Invoice loaded = loader.apply(number);
+        synchronized(this) {
+            Invoice cached = peek(number);
+            if (cached != null) {
+                return cached;
+            }
+            if (loaded != null) {
+                cache(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    public synchronized Invoice put(Integer number, Invoice invoice) {
+        known.set(number);
+        Invoice previous = peek(number);
+        recent.remove(number);
+        cache(invoice);
+        return previous;
+    }
+
+    /**
+     * Streams all invoices from the backing store, as described above.
+     * The stream holds the store's cursor or file open until it's closed,
+     * so callers should close it, with try-with-resources.
+     */
+    public Stream<Invoice> scan() {
+        return scan(scanner.get());
+    }
+
+    /**
+     * Streams the given invoices, read from the backing store, in the same
+     * way as a full {@link #scan() scan}: cached instances take the place
+     * of stored ones, and nothing is added to the cache or counted.
+     */
+    public Stream<Invoice> scan(Stream<Invoice> stored) {
+        return stored.map(invoice -> {
+            Invoice cached;
+            synchronized(this) {
+                cached = peek(invoice.getNumber());
+            }
+            return cached != null ? cached : invoice;
+        });
+    }
+
+    /**
+     * Iterates over a {@link #scan scan}, closing it as soon as it's
+     * exhausted, or fails; so a full pass over the map, such as a forEach,
+     * leaves nothing open. Callers that may stop early should use a scan.
+     */
+    @Override
+    public Set<Entry<Integer, Invoice>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Integer, Invoice>> iterator() {
+                Stream<Invoice> invoices = scan();
+                Iterator<Invoice> source = invoices.iterator();
+                return new Iterator<>() {
+                    private boolean open = true;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (open) {
+                            try {
+                                open = source.hasNext();
+                            } catch (RuntimeException ex) {
+                                open = false;
+                                invoices.close();
+                                throw ex;
+                            }
+                            if (!open) {
+                                invoices.close();
+                            }
+                        }
+                        return open;
+                    }
+
+                    @Override
+                    public Entry<Integer, Invoice> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Invoice invoice = source.next();
+                        return new SimpleImmutableEntry<>(invoice.getNumber(), invoice);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return InvoiceCache.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,180 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Invoice;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Invoices held column by column in primitive arrays, so that the overdue
+ * query runs as a tight loop without touching invoice objects, boxing,
+ * or allocating more than its result, and so that customer volumes can
+ * be totaled, or corrected when an invoice is replaced, without the
+ * invoice objects. That matters with a bounded cache, where most of
+ * those objects aren't in memory. The columns are held in addition to
+ * the invoices, not instead of them, at 32 bytes per invoice.
+ *
+ * Each row holds an invoice's number, its customer's ordinal, its amount
+ * in cents, and its issue, due, and paid dates as epoch days; an unpaid
+ * invoice has a paid day of {@link #NOT_PAID}. Customer ordinals are
+ * their IDs in a {@link CustomerDictionary}, which we share with the
+ * caller, and with its {@link CustomerVolumes}, if it gives us one.
+ * Rows are found by invoice number through a dense array, since numbers
+ * are small and mostly consecutive.
+ *
+ * {@link #put put} adds a row or overwrites the invoice's existing row.
+ * This class is not thread-safe; {@link CachingPersistence} guards it
+ * with its lock.
+ */
+public class InvoiceColumns {
+
+    public static final int NOT_PAID = Integer.MAX_VALUE;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private int[] numbers = new int[INITIAL_CAPACITY];
+    private int[] customers = new int[INITIAL_CAPACITY];
+    private long[] cents = new long[INITIAL_CAPACITY];
+    private int[] issueDays = new int[INITIAL_CAPACITY];
+    private int[] dueDays = new int[INITIAL_CAPACITY];
+    private int[] paidDays = new int[INITIAL_CAPACITY];
+    private int[] rowsByNumber = new int[INITIAL_CAPACITY];
+
+    private CustomerDictionary dictionary;
+
+    public InvoiceColumns() {
+        this(new CustomerDictionary());
+    }
+
+    public InvoiceColumns(CustomerDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Returns the number of invoices held.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity() {
+        if (size == numbers.length) {
+            int capacity = numbers.length * 2;
+            numbers = Arrays.copyOf(numbers, capacity);
+            customers = Arrays.copyOf(customers, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+            issueDays = Arrays.copyOf(issueDays, capacity);
+            dueDays = Arrays.copyOf(dueDays, capacity);
+            paidDays = Arrays.copyOf(paidDays, capacity);
+        }
+    }
+
+    /**
+     * Returns the row holding the given invoice number, or -1.
+     * The number-to-row array holds rows plus one, so that zero,
+     * its initial value, means no row.
+     */
+    private int rowOf(int number) {
+        return number >= 0 && number < rowsByNumber.length
+                ? rowsByNumber[number] - 1 : -1;
+    }
+
+    /**
+     * Writes the given invoice into its row, adding a row if it's new.
+     */
+    public void put(Invoice invoice) {
+        int number = invoice.getNumber();
+        if (number < 0) {
+            throw new IllegalArgumentException("Invoice numbers can't be negative: " + number);
+        }
+        int row = rowOf(number);
+        if (row == -1) {
+            ensureCapacity();
+            row = size++;
+            if (number >= rowsByNumber.length) {
+                rowsByNumber = Arrays.copyOf(rowsByNumber,
+                        Math.max(number + 1, rowsByNumber.length * 2));
+            }
+            rowsByNumber[number] = row + 1;
+            numbers[row] = number;
+        }
+        customers[row] = dictionary.idOf(invoice.getCustomer());
+        cents[row] = CustomerVolumes.toCents(invoice);
+        issueDays[row] = (int) invoice.getIssueDate().toEpochDay();
+        dueDays[row] = (int) invoice.getDueDate().toEpochDay();
+        paidDays[row] = invoice.getPaidDate()
+                .map(paidDate -> (int) paidDate.toEpochDay()).orElse(NOT_PAID);
+    }
+
+    /**
+     * Returns true if we hold the given invoice number.
+     */
+    public boolean contains(int number) {
+        return rowOf(number) != -1;
+    }
+
+    /**
+     * Takes the given invoice, as we last had it, out of the given volumes,
+     * which must share our dictionary. Returns false if we don't hold it.
+     */
+    public boolean removeFrom(CustomerVolumes volumes, int number) {
+        int row = rowOf(number);
+        if (row == -1) {
+            return false;
+        }
+        volumes.remove(customers[row], cents[row]);
+        return true;
+    }
+
+    /**
+     * Adds every invoice we hold to the given volumes,
+     * which must share our dictionary.
+     */
+    public void addTo(CustomerVolumes volumes) {
+        for (int row = 0; row < size; ++row) {
+            volumes.add(customers[row], cents[row]);
+        }
+    }
+
+    /**
+     * Same test as {@link Invoice#isOverdue}: paid, or still unpaid
+     * as of the given day, after the due date.
+     */
+    private boolean isOverdue(int row, int asOfDay) {
+        int endDay = paidDays[row] != NOT_PAID ? paidDays[row] : asOfDay;
+        return endDay > dueDays[row];
+    }
+
+    private int countOverdue(int asOfDay) {
+        int count = 0;
+        for (int row = 0; row < size; ++row) {
+            if (isOverdue(row, asOfDay)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the numbers of the invoices that are overdue as of the
+     * given date, in order by issue date and then by number. We sort
+     * each row's issue day and number packed into a single long.
+     */
+    public int[] getOverdueNumbers(LocalDate asOf) {
+        int asOfDay = (int) asOf.toEpochDay();
+        long[] keys = new long[countOverdue(asOfDay)];
+        int found = 0;
+        for (int row = 0; row < size; ++row) {
+            if (isOverdue(row, asOfDay)) {
+                keys[found++] = ((long) issueDays[row] << 32) | (numbers[row] & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(keys);
+        int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            result[i] = (int) keys[i];
+        }
+        return result;
+    }
+}
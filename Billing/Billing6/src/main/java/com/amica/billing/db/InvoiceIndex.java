@@ -0,0 +1,191 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Secondary indexes over a set of invoices, so that the common queries
+ * in {@link com.amica.billing.Billing} can be answered by lookups and
+ * range scans rather than by scanning and sorting every invoice.
+ * We index by customer, by issue date, and -- for unpaid invoices --
+ * by due date. Invoices that were paid after their due date are overdue
+ * no matter what the as-of date is, so we hold those in a separate index.
+ * Within each date, invoices are ordered by number. The customer index
+ * is a list indexed by the customers' IDs in a {@link CustomerDictionary},
+ * which we share with the caller, if it gives us one.
+ *
+ * Invoices are keyed by number, customer, and issue date, so callers
+ * must {@link #remove remove} an invoice before changing any of those
+ * and then {@link #add add} it again. Changing only the paid date is safe,
+ * so long as the invoice is re-added afterwards.
+ */
+public class InvoiceIndex {
+
+    private CustomerDictionary dictionary;
+    private List<NavigableMap<Integer, Invoice>> byCustomer = new ArrayList<>();
+    private NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> byIssueDate = new TreeMap<>();
+    private NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> unpaidByDueDate = new TreeMap<>();
+    private NavigableMap<Integer, Invoice> paidLate = new TreeMap<>();
+
+    public InvoiceIndex() {
+        this(new CustomerDictionary());
+    }
+
+    public InvoiceIndex(CustomerDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    private static void put(NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> index,
+            LocalDate key, Invoice invoice) {
+        index.computeIfAbsent(key, k -> new TreeMap<>()).put(invoice.getNumber(), invoice);
+    }
+
+    private static void remove(NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> index,
+            LocalDate key, Invoice invoice) {
+        NavigableMap<Integer, Invoice> invoices = index.get(key);
+        if (invoices != null) {
+            invoices.remove(invoice.getNumber());
+            if (invoices.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static Stream<Invoice> flatten(NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> index) {
+        return index.values().stream().flatMap(invoices -> invoices.values().stream());
+    }
+
+    /**
+     * Adds the given invoice to all indexes, according to its current state.
+     */
+    public void add(Invoice invoice) {
+        int id = dictionary.idOf(invoice.getCustomer());
+        while (byCustomer.size() <= id) {
+            byCustomer.add(null);
+        }
+        if (byCustomer.get(id) == null) {
+            byCustomer.set(id, new TreeMap<>());
+        }
+        byCustomer.get(id).put(invoice.getNumber(), invoice);
+        put(byIssueDate, invoice.getIssueDate(), invoice);
+
+        LocalDate dueDate = invoice.getDueDate();
+        if (invoice.getPaidDate().isPresent()) {
+            if (invoice.getPaidDate().get().isAfter(dueDate)) {
+                paidLate.put(invoice.getNumber(), invoice);
+            }
+        } else {
+            put(unpaidByDueDate, dueDate, invoice);
+        }
+    }
+
+    /**
+     * Removes the given invoice from all indexes, whatever its paid status.
+     */
+    public void remove(Invoice invoice) {
+        NavigableMap<Integer, Invoice> forCustomer =
+                forCustomer(dictionary.getId(invoice.getCustomer()));
+        if (forCustomer != null) {
+            forCustomer.remove(invoice.getNumber());
+        }
+        remove(byIssueDate, invoice.getIssueDate(), invoice);
+        remove(unpaidByDueDate, invoice.getDueDate(), invoice);
+        paidLate.remove(invoice.getNumber());
+    }
+
+    /**
+     * Clears all indexes and adds each of the given invoices.
+     */
+    public void rebuild(Stream<Invoice> invoices) {
+        byCustomer.clear();
+        byIssueDate.clear();
+        unpaidByDueDate.clear();
+        paidLate.clear();
+        invoices.forEach(this::add);
+    }
+
+    private NavigableMap<Integer, Invoice> forCustomer(int id) {
+        return id >= 0 && id < byCustomer.size() ? byCustomer.get(id) : null;
+    }
+
+    private Stream<Invoice> getInvoicesForCustomer(int id) {
+        NavigableMap<Integer, Invoice> forCustomer = forCustomer(id);
+        return forCustomer != null ? forCustomer.values().stream() : Stream.empty();
+    }
+
+    /**
+     * Returns the invoices for the named customer, ordered by number.
+     */
+    public Stream<Invoice> getInvoicesForCustomer(String customerName) {
+        return getInvoicesForCustomer(dictionary.getId(customerName));
+    }
+
+    /**
+     * Returns the invoices for the given customer, ordered by number.
+     */
+    public Stream<Invoice> getInvoicesForCustomer(Customer customer) {
+        return getInvoicesForCustomer(dictionary.getId(customer));
+    }
+
+    /**
+     * Returns all invoices, ordered by issue date and then by number.
+     */
+    public Stream<Invoice> getInvoicesOrderedByDate() {
+        return flatten(byIssueDate);
+    }
+
+    /**
+     * Returns invoices issued on or after the first date and before the
+     * second, ordered by issue date and then by number. Either date can be
+     * null, to leave that end of the range open.
+     */
+    public Stream<Invoice> getInvoicesIssuedBetween(LocalDate from, LocalDate before) {
+        NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> range = byIssueDate;
+        if (from != null) {
+            range = range.tailMap(from, true);
+        }
+        if (before != null) {
+            range = range.headMap(before, false);
+        }
+        return flatten(range);
+    }
+
+    /**
+     * Returns all invoices that are overdue as of the given date:
+     * unpaid invoices that were due before that date, and invoices
+     * that were paid late. Results are ordered by issue date and then number.
+     */
+    public Stream<Invoice> getOverdueInvoices(LocalDate asOf) {
+        NavigableMap<LocalDate, NavigableMap<Integer, Invoice>> overdue = new TreeMap<>();
+        flatten(unpaidByDueDate.headMap(asOf, false))
+                .forEach(invoice -> put(overdue, invoice.getIssueDate(), invoice));
+        paidLate.values().forEach(invoice -> put(overdue, invoice.getIssueDate(), invoice));
+        return flatten(overdue);
+    }
+
+    /**
+     * Returns a map of customers and their invoices, ordered by number.
+     * Customers with no invoices are not included; the others are in
+     * order by ID.
+     */
+    public Map<Customer, List<Invoice>> getInvoicesGroupedByCustomer() {
+        Map<Customer, List<Invoice>> result = new LinkedHashMap<>();
+        for (NavigableMap<Integer, Invoice> invoices : byCustomer) {
+            if (invoices == null || invoices.isEmpty()) {
+                continue;
+            }
+            Invoice first = invoices.firstEntry().getValue();
+            result.put(first.getCustomer(), new ArrayList<>(invoices.values()));
+        }
+        return result;
+    }
+}
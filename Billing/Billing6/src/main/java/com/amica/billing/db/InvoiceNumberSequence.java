@@ -0,0 +1,21 @@
+package com.amica.billing.db;
+
+/**
+ * Strategy for allocating new invoice numbers.
+ * Implementations must be safe to call from multiple threads,
+ * and must never hand out the same number twice.
+ */
+public interface InvoiceNumberSequence {
+
+    /**
+     * Returns a number that hasn't been used for any invoice.
+     */
+    public int next();
+
+    /**
+     * Tells the sequence that the given number is in use, for example
+     * because an invoice with that number was saved directly, so that
+     * later calls to {@link #next next} return greater numbers.
+     */
+    public void reserve(int number);
+}
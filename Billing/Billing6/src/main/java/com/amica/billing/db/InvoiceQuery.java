@@ -0,0 +1,125 @@
+package com.amica.billing.db;
+
+import com.amica.billing.Billing;
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Optional;
+
+/**
+ * Criteria for {@link Persistence#findInvoices finding invoices}: an
+ * optional customer, an optional range of issue dates, optionally only
+ * paid or only unpaid invoices, and an order. Persistence services can
+ * answer a query however suits them, such as from an index in memory or
+ * with a database query, so long as they honor {@link #matches matches}
+ * and the order.
+ *
+ * Queries are immutable: start with {@link #all all} and narrow it down,
+ * each method returning a new query.
+ */
+@Getter
+@EqualsAndHashCode
+public class InvoiceQuery {
+
+    /**
+     * The order in which to return invoices. Invoices issued on the same
+     * date are returned in order by number.
+     */
+    public enum Order {
+        NUMBER(Billing.compareByNumber),
+        DATE(Billing.compareByDate.thenComparing(Billing.compareByNumber));
+
+        private Comparator<Invoice> comparator;
+
+        private Order(Comparator<Invoice> comparator) {
+            this.comparator = comparator;
+        }
+
+        public Comparator<Invoice> getComparator() {
+            return comparator;
+        }
+    }
+
+    private static final InvoiceQuery ALL = new InvoiceQuery(null, null, null, null, Order.NUMBER);
+
+    private Customer customer;
+    private LocalDate issuedFrom;
+    private LocalDate issuedBefore;
+    private Boolean paid;
+    private Order order;
+
+    private InvoiceQuery(Customer customer, LocalDate issuedFrom,
+            LocalDate issuedBefore, Boolean paid, Order order) {
+        this.customer = customer;
+        this.issuedFrom = issuedFrom;
+        this.issuedBefore = issuedBefore;
+        this.paid = paid;
+        this.order = order;
+    }
+
+    /**
+     * Returns a query for all invoices, in order by number.
+     */
+    public static InvoiceQuery all() {
+        return ALL;
+    }
+
+    /**
+     * Only invoices for the given customer.
+     */
+    public InvoiceQuery forCustomer(Customer customer) {
+        return new InvoiceQuery(customer, issuedFrom, issuedBefore, paid, order);
+    }
+
+    /**
+     * Only invoices issued on or after the first date and before the
+     * second. Either date can be null, to leave that end of the range open.
+     */
+    public InvoiceQuery issuedBetween(LocalDate from, LocalDate before) {
+        return new InvoiceQuery(customer, from, before, paid, order);
+    }
+
+    /**
+     * Only paid invoices, or only unpaid invoices.
+     */
+    public InvoiceQuery paid(boolean paid) {
+        return new InvoiceQuery(customer, issuedFrom, issuedBefore, paid, order);
+    }
+
+    /**
+     * Return invoices in the given order.
+     */
+    public InvoiceQuery orderBy(Order order) {
+        return new InvoiceQuery(customer, issuedFrom, issuedBefore, paid, order);
+    }
+
+    public Optional<Customer> getCustomer() {
+        return Optional.ofNullable(customer);
+    }
+
+    public Optional<LocalDate> getIssuedFrom() {
+        return Optional.ofNullable(issuedFrom);
+    }
+
+    public Optional<LocalDate> getIssuedBefore() {
+        return Optional.ofNullable(issuedBefore);
+    }
+
+    public Optional<Boolean> getPaid() {
+        return Optional.ofNullable(paid);
+    }
+
+    /**
+     * Returns true if the given invoice meets all of our criteria.
+     */
+    public boolean matches(Invoice invoice) {
+        return (customer == null || customer.equals(invoice.getCustomer())) &&
+                (issuedFrom == null || !invoice.getIssueDate().isBefore(issuedFrom)) &&
+                (issuedBefore == null || invoice.getIssueDate().isBefore(issuedBefore)) &&
+                (paid == null || paid == invoice.getPaidDate().isPresent());
+    }
+}
@@ -2,13 +2,63 @@ package com.amica.billing.db;
 
 import com.amica.billing.Customer;
 import com.amica.billing.Invoice;
-import com.amica.billing.db.mongo.MongoPersistence;
 import com.amica.billing.parse.ParserPersistence;
+import lombok.extern.java.Log;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.stream.Stream;
 
+/**
+ * Copies customers and invoices from the text files to MongoDB.
+ *
+ * Records are streamed from the source, rather than loaded, and invoices
+ * are written in bulk, by several writer threads. Each invoice number
+ * always goes to the same writer, which writes its batches in order, and
+ * each batch writes only the last of its records for any one invoice, so
+ * that where the source has more than one record for an invoice, the last
+ * one wins, even though the operations in a bulk write are unordered.
+ * Invoices are upserted, so writing one twice does no harm.
+ *
+ * As batches are committed, we checkpoint the point in the source up to
+ * which everything has been written, and the last invoice number there.
+ * If the migration stops partway, a rerun resumes from the checkpoint,
+ * rather than starting over; if the invoices file has changed since,
+ * we start over anyway. The checkpoint is removed once we're done.
+ */
 @Component
+@Log
 public class Migration {
     @Autowired
     CustomerRepository customerRepository;
@@ -17,20 +67,318 @@ public class Migration {
     @Autowired
     ParserPersistence source;
     @Autowired
-    MongoPersistence target;
+    MongoOperations mongo;
+
+    @Value("${ParserPersistence.invoicesFile}")
+    String invoicesFile;
+
+    @Value("${Migration.batchSize:1000}")
+    int batchSize = 1000;
+
+    @Value("${Migration.writerThreads:4}")
+    int writerThreads = 4;
+
+    @Value("${Migration.maxAttempts:3}")
+    int maxAttempts = 3;
+
+    @Value("${Migration.checkpointFile:migration.checkpoint}")
+    String checkpointFile = "migration.checkpoint";
+
+    @Value("${Migration.progressMillis:5000}")
+    long progressMillis = 5000;
+
+    /**
+     * How far we've got: the number of source records that have been
+     * written, counting from the start, and the last invoice number among them.
+     */
+    record Checkpoint(long position, int invoiceNumber) {}
+
+    /**
+     * Source positions that have been read but not yet checkpointed,
+     * with their invoice numbers, and those among them that are written.
+     */
+    private TreeMap<Long, Integer> pending = new TreeMap<>();
+    private Set<Long> written = new HashSet<>();
+    private volatile Checkpoint checkpoint;
+
+    private AtomicLong invoicesWritten = new AtomicLong();
+    private AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private long startTime;
+    private volatile long lastProgress;
 
+    /**
+     * Returns the number of invoices written by the latest migration.
+     */
+    public long getInvoicesWritten() {
+        return invoicesWritten.get();
+    }
+
+    /**
+     * Returns the checkpoint left by an earlier, unfinished migration of the
+     * current invoices file, or null if there's none.
+     */
+    Checkpoint readCheckpoint() {
+        Path path = Paths.get(checkpointFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try ( Reader in = Files.newBufferedReader(path); ) {
+            Properties properties = new Properties();
+            properties.load(in);
+            if (!sourceStamp().equals(properties.getProperty("source"))) {
+                log.warning(() -> invoicesFile + " has changed since the " +
+                        "last migration; starting over.");
+                return null;
+            }
+            return new Checkpoint(Long.parseLong(properties.getProperty("position")),
+                    Integer.parseInt(properties.getProperty("invoiceNumber")));
+        } catch (IOException | RuntimeException ex) {
+            log.log(Level.WARNING, ex, () -> "Couldn't read " + checkpointFile +
+                    "; starting over.");
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(Checkpoint checkpoint) {
+        Path path = Paths.get(checkpointFile);
+        Path tempPath = Paths.get(checkpointFile + ".tmp");
+        Properties properties = new Properties();
+        properties.setProperty("source", sourceStamp());
+        properties.setProperty("position", Long.toString(checkpoint.position()));
+        properties.setProperty("invoiceNumber", Integer.toString(checkpoint.invoiceNumber()));
+        try {
+            try ( Writer out = Files.newBufferedWriter(tempPath); ) {
+                properties.store(out, "Migration checkpoint");
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, ex, () -> "Couldn't write " + checkpointFile);
+        }
+    }
+
+    /**
+     * Identifies the version of the invoices file, by its path, size,
+     * and modification time.
+     */
+    private String sourceStamp() {
+        Path path = Paths.get(invoicesFile);
+        try {
+            return path.toAbsolutePath() + "," + Files.size(path) + "," +
+                    Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            return path.toAbsolutePath().toString();
+        }
+    }
+
+    /**
+     * Copies all customers and invoices to the database, resuming an
+     * unfinished migration if there is one. Throws an exception if any
+     * batch of invoices can't be written after several attempts, leaving
+     * the checkpoint so that a rerun can pick up from there.
+     */
     public void migrate() {
-        invoiceRepository.deleteAll();
-        customerRepository.deleteAll();
-        source.load();
-        target.load();
-        Map<String, Customer> customers = source.getCustomers();
-        customers.values().forEach(c -> {
-            target.saveCustomer(c);
-        });
-        Map<Integer, Invoice> invoices = source.getInvoices();
-        invoices.values().forEach(i -> {
-            target.saveInvoice(i);
+        Checkpoint start = readCheckpoint();
+        boolean resuming = start != null;
+        if (!resuming) {
+            invoiceRepository.deleteAll();
+            customerRepository.deleteAll();
+            start = new Checkpoint(0, 0);
+        } else {
+            Checkpoint resumeFrom = start;
+            log.info(() -> String.format("Resuming after invoice %d, " +
+                    "record %,d of %s.", resumeFrom.invoiceNumber(),
+                    resumeFrom.position(), invoicesFile));
+        }
+
+        Map<String, Customer> customers = migrateCustomers(resuming);
+        try {
+            migrateInvoices(customers, start);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Migration interrupted; " +
+                    "run it again to resume.", ex);
+        }
+
+        try {
+            Files.deleteIfExists(Paths.get(checkpointFile));
+        } catch (IOException ex) {
+            log.log(Level.WARNING, ex, () -> "Couldn't remove " + checkpointFile);
+        }
+    }
+
+    /**
+     * Copies customers that aren't in the database yet, and returns all
+     * customers, as stored, so invoices can refer to them.
+     */
+    private Map<String, Customer> migrateCustomers(boolean resuming) {
+        Map<String, Customer> parsed = new LinkedHashMap<>();
+        try ( Stream<Customer> customerStream = source.streamCustomers(); ) {
+            customerStream.forEach(customer -> parsed.put(customer.getName(), customer));
+        }
+
+        Map<String, Customer> customers = new LinkedHashMap<>();
+        List<Customer> toSave = new ArrayList<>();
+        for (Customer customer : parsed.values()) {
+            Customer existing = resuming ? customerRepository.findByFirstNameAndLastName
+                    (customer.getFirstName(), customer.getLastName()) : null;
+            if (existing != null) {
+                customers.put(existing.getName(), existing);
+            } else {
+                toSave.add(customer);
+            }
+        }
+        customerRepository.saveAll(toSave)
+                .forEach(customer -> customers.put(customer.getName(), customer));
+        log.info(() -> String.format("Migrated %,d customers.", toSave.size()));
+        return customers;
+    }
+
+    /**
+     * Streams invoices from the source, past the given checkpoint, and deals
+     * them out to the writers, each of which writes its own batches in order.
+     * We let only so many batches be waiting or in progress at once, so that
+     * reading doesn't run too far ahead of writing.
+     */
+    private void migrateInvoices(Map<String, Customer> customers, Checkpoint start)
+            throws InterruptedException {
+        pending.clear();
+        written.clear();
+        checkpoint = start;
+        invoicesWritten.set(0);
+        failure.set(null);
+        startTime = lastProgress = System.currentTimeMillis();
+
+        int writerCount = Math.max(1, writerThreads);
+        List<ExecutorService> writers = new ArrayList<>();
+        List<Map<Long, Invoice>> batches = new ArrayList<>();
+        for (int w = 0; w < writerCount; ++w) {
+            String name = "Migration-writer-" + (w + 1);
+            writers.add(Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }));
+            batches.add(new LinkedHashMap<>());
+        }
+        Semaphore inProgress = new Semaphore(writerCount * 2);
+
+        try ( Stream<Invoice> invoiceStream = source.streamInvoices(customers); ) {
+            Iterator<Invoice> invoices = invoiceStream.skip(start.position()).iterator();
+            long position = start.position();
+            while (invoices.hasNext() && failure.get() == null) {
+                Invoice invoice = invoices.next();
+                ++position;
+                synchronized(this) {
+                    pending.put(position, invoice.getNumber());
+                }
+
+                int w = Math.floorMod(invoice.getNumber(), writerCount);
+                Map<Long, Invoice> batch = batches.get(w);
+                batch.put(position, invoice);
+                if (batch.size() == batchSize) {
+                    submit(writers.get(w), batch, inProgress);
+                    batches.set(w, new LinkedHashMap<>());
+                }
+            }
+            for (int w = 0; w < writerCount; ++w) {
+                if (!batches.get(w).isEmpty() && failure.get() == null) {
+                    submit(writers.get(w), batches.get(w), inProgress);
+                }
+            }
+        } finally {
+            for (ExecutorService writer : writers) {
+                writer.shutdown();
+            }
+            for (ExecutorService writer : writers) {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException(String.format("Migration stopped after " +
+                    "invoice %d; run it again to resume.", checkpoint.invoiceNumber()),
+                    failure.get());
+        }
+        logProgress("Migrated");
+    }
+
+    private void submit(ExecutorService writer, Map<Long, Invoice> batch,
+            Semaphore inProgress) throws InterruptedException {
+        inProgress.acquire();
+        writer.execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    writeBatch(batch);
+                }
+            } finally {
+                inProgress.release();
+            }
         });
     }
+
+    /**
+     * Writes one batch of invoices in a single bulk operation, trying again
+     * a few times if that fails, and then moves the checkpoint forward over
+     * whatever has now been written without gaps. The batch is in source
+     * order, so keying it by invoice number leaves the last record of each.
+     */
+    private void writeBatch(Map<Long, Invoice> batch) {
+        Map<Integer, Invoice> latest = new LinkedHashMap<>();
+        for (Invoice invoice : batch.values()) {
+            latest.put(invoice.getNumber(), invoice);
+        }
+        for (int attempt = 1; ; ++attempt) {
+            BulkOperations operations = mongo.bulkOps(BulkMode.UNORDERED, Invoice.class);
+            for (Invoice invoice : latest.values()) {
+                operations.replaceOne(Query.query(Criteria.where("_id").is(invoice.getNumber())),
+                        invoice, FindAndReplaceOptions.options().upsert());
+            }
+            try {
+                operations.execute();
+                break;
+            } catch (DataAccessException ex) {
+                if (attempt == maxAttempts) {
+                    if (failure.compareAndSet(null, ex)) {
+                        log.log(Level.SEVERE, ex, () -> "Couldn't write a batch of " +
+                                batch.size() + " invoices; stopping.");
+                    }
+                    return;
+                }
+                int tried = attempt;
+                log.log(Level.WARNING, ex, () -> String.format("Couldn't write " +
+                        "a batch of %d invoices, attempt %d of %d.",
+                        batch.size(), tried, maxAttempts));
+            }
+        }
+        invoicesWritten.addAndGet(latest.size());
+
+        Checkpoint advanced = null;
+        synchronized(this) {
+            written.addAll(batch.keySet());
+            while (!pending.isEmpty() && written.remove(pending.firstKey())) {
+                Map.Entry<Long, Integer> first = pending.pollFirstEntry();
+                advanced = new Checkpoint(first.getKey(), first.getValue());
+            }
+            if (advanced != null) {
+                checkpoint = advanced;
+                writeCheckpoint(advanced);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastProgress >= progressMillis) {
+            lastProgress = now;
+            logProgress("Progress:");
+        }
+    }
+
+    private void logProgress(String prefix) {
+        long count = invoicesWritten.get();
+        double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        Checkpoint current = checkpoint;
+        log.info(() -> String.format("%s %,d invoices in %.1f seconds, " +
+                "%,.0f per second; checkpoint at invoice %d.", prefix,
+                count, seconds, count / seconds, current.invoiceNumber()));
+    }
 }
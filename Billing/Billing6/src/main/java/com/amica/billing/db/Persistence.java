@@ -1,12 +1,22 @@
 package com.amica.billing.db;
 
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import com.amica.billing.Billing;
 import com.amica.billing.Customer;
 import com.amica.billing.Invoice;
 
 /**
  * Strategy for loading and saving data.
+ * The query methods have default implementations that scan and sort
+ * all invoices; implementations that keep indexes can override them.
+ * Most of them are expressed as an {@link InvoiceQuery}, so an
+ * implementation that can run those in a database need only override
+ * {@link #findInvoices findInvoices}.
  * 
  * @author Will Provost
  */
@@ -31,4 +41,121 @@ public interface Persistence {
 	 * Updates an invoice with the same number, or inserts a new invoice.
 	 */
 	public void saveInvoice(Invoice invoice);
+	
+	/**
+	 * Inserts the given customer, unless there is already a customer with
+	 * the same name, and returns true if it was inserted. By default we
+	 * check and then save; implementations that may be called from several
+	 * threads should do both atomically.
+	 */
+	public default boolean createCustomer(Customer customer) {
+		if (getCustomers().containsKey(customer.getName())) {
+			return false;
+		}
+		saveCustomer(customer);
+		return true;
+	}
+	
+	/**
+	 * Returns a number that isn't used by any invoice, for a new invoice.
+	 * By default this is one more than the highest number in use.
+	 */
+	public default int nextInvoiceNumber() {
+		return getInvoices().keySet().stream()
+				.mapToInt(Integer::intValue).max().orElse(0) + 1;
+	}
+	
+	/**
+	 * Returns the invoices that match the given query, in its order.
+	 */
+	public default Stream<Invoice> findInvoices(InvoiceQuery query) {
+		return getInvoices().values().stream()
+				.filter(query::matches)
+				.sorted(query.getOrder().getComparator());
+	}
+	
+	/**
+	 * Returns all invoices for the given customer, sorted by number.
+	 */
+	public default Stream<Invoice> getInvoicesForCustomer(Customer customer) {
+		return findInvoices(InvoiceQuery.all().forCustomer(customer));
+	}
+	
+	/**
+	 * Returns all invoices, sorted by issue date.
+	 */
+	public default Stream<Invoice> getInvoicesOrderedByDate() {
+		return findInvoices(InvoiceQuery.all().orderBy(InvoiceQuery.Order.DATE));
+	}
+	
+	/**
+	 * Returns a map of customers and their invoices, sorted by number.
+	 */
+	public default Map<Customer,List<Invoice>> getInvoicesGroupedByCustomer() {
+		return getInvoices().values().stream().sorted(Billing.compareByNumber)
+			.collect(Collectors.groupingBy(Invoice::getCustomer, 
+				Collectors.toList()));
+	}
+	
+	/**
+	 * Returns all invoices that are overdue as of the given date,
+	 * sorted by issue date.
+	 */
+	public default Stream<Invoice> getOverdueInvoices(LocalDate asOf) {
+		return getInvoicesOrderedByDate().filter(inv -> inv.isOverdue(asOf));
+	}
+	
+	/**
+	 * Returns the total amount invoiced to the given customer.
+	 */
+	public default double getVolumeForCustomer(Customer customer) {
+		return getInvoicesForCustomer(customer)
+				.mapToDouble(Invoice::getAmount)
+				.sum();
+	}
+	
+	/**
+	 * Returns the number of invoices issued to the given customer.
+	 */
+	public default int getInvoiceCountForCustomer(Customer customer) {
+		return (int) getInvoicesForCustomer(customer).count();
+	}
+	
+	/**
+	 * Sets the given paid date on the invoice, if it hasn't been paid yet,
+	 * and saves it, and returns true; or returns false, leaving the invoice
+	 * alone, if it has. By default we pay and then save; implementations
+	 * that index invoices by whether they're paid should do both under the
+	 * lock that guards their indexes, so that no reader sees a paid invoice
+	 * still indexed as unpaid.
+	 */
+	public default boolean payInvoice(Invoice invoice, LocalDate paidDate) {
+		if (!invoice.pay(paidDate)) {
+			return false;
+		}
+		saveInvoice(invoice);
+		return true;
+	}
+	
+	/**
+	 * Notification that an invoice was created or changed. {@link Billing}
+	 * calls this directly, after saving the invoice and before dispatching
+	 * the change to its invoice listeners, so anything updated here is
+	 * current by the time they hear of it. Implementations that keep
+	 * running aggregates outside of saving can update them here;
+	 * by default we do nothing.
+	 */
+	public default void onInvoiceChanged(Invoice invoice) {
+	}
+
+	/**
+	 * Returns a read-only, point-in-time copy of all customers and
+	 * invoices. By default we copy them as they stand; implementations
+	 * that guard changes with a lock should copy them under it, so that
+	 * the copy reflects one moment.
+	 */
+	public default Persistence snapshot() {
+		return new PersistenceSnapshot(getCustomers().values(),
+				getInvoices().values());
+	}
 }
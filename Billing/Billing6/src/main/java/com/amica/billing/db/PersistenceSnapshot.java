@@ -0,0 +1,74 @@
+package com.amica.billing.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * A read-only, point-in-time copy of another persistence service's
+ * customers and invoices, with the same indexes and running volumes as
+ * any {@link CachingPersistence}. Invoices are copied, so that payments
+ * made after the snapshot is taken don't show through. Use this to run
+ * several queries that need to agree with one another, while the
+ * original data carries on changing.
+ */
+public class PersistenceSnapshot extends CachingPersistence {
+
+    private List<Customer> customerCopies;
+    private List<Invoice> invoiceCopies;
+
+    /**
+     * Copies the given customers and invoices, and builds indexes.
+     */
+    public PersistenceSnapshot(Collection<Customer> customers,
+            Collection<Invoice> invoices) {
+        customerCopies = new ArrayList<>(customers);
+        invoiceCopies = new ArrayList<>(invoices.size());
+        for (Invoice invoice : invoices) {
+            invoiceCopies.add(new Invoice(invoice.getNumber(), invoice.getCustomer(),
+                    invoice.getAmount(), invoice.getIssueDate(), invoice.getPaidDate()));
+        }
+        load();
+        customerCopies = null;
+        invoiceCopies = null;
+    }
+
+    @Override
+    public void saveCustomer(Customer customer) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public boolean createCustomer(Customer customer) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    public void saveInvoice(Invoice invoice) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    protected Stream<Customer> readCustomers() {
+        return customerCopies.stream();
+    }
+
+    @Override
+    protected Stream<Invoice> readInvoices() {
+        return invoiceCopies.stream();
+    }
+
+    @Override
+    protected void writeCustomer(Customer customer) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+
+    @Override
+    protected void writeInvoice(Invoice invoice) {
+        throw new UnsupportedOperationException("Snapshots are read-only.");
+    }
+}
@@ -0,0 +1,84 @@
+package com.amica.billing.db.mongo;
+
+import com.amica.billing.db.InvoiceNumberSequence;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * An invoice number sequence that can be shared by several application
+ * instances using the same database. A counter document holds the highest
+ * number reserved by any instance; each instance atomically advances it
+ * by a block of numbers at a time, and then hands out numbers from that
+ * block without going back to the database. Numbers are unique across
+ * instances but not necessarily issued in order, and numbers left in
+ * a block when an instance shuts down are never used.
+ */
+public class HiLoInvoiceNumberSequence implements InvoiceNumberSequence {
+
+    public static final String COLLECTION_NAME = "sequences";
+    public static final String SEQUENCE_ID = "invoiceNumber";
+    public static final String VALUE_FIELD = "value";
+
+    private MongoOperations mongo;
+    private int blockSize;
+    private int next;
+    private int high;
+
+    /**
+     * Creates the sequence, and makes sure that the counter document is
+     * at least the given number, which would usually be the highest
+     * invoice number found when loading.
+     */
+    public HiLoInvoiceNumberSequence(MongoOperations mongo, int blockSize, int last) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        this.mongo = mongo;
+        this.blockSize = blockSize;
+        advanceCounterTo(last);
+    }
+
+    private Query counter() {
+        return Query.query(Criteria.where("_id").is(SEQUENCE_ID));
+    }
+
+    private void advanceCounterTo(int number) {
+        mongo.upsert(counter(), new Update().max(VALUE_FIELD, number), COLLECTION_NAME);
+    }
+
+    private void reserveBlock() {
+        Document result = mongo.findAndModify(counter(),
+                new Update().inc(VALUE_FIELD, blockSize),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class, COLLECTION_NAME);
+        high = ((Number) result.get(VALUE_FIELD)).intValue();
+        next = high - blockSize + 1;
+    }
+
+    @Override
+    public synchronized int next() {
+        if (next == 0 || next > high) {
+            reserveBlock();
+        }
+        return next++;
+    }
+
+    /**
+     * If the number is beyond our current block, advance the shared counter
+     * past it and give up the rest of the block. Numbers within our block
+     * that were used directly are skipped.
+     */
+    @Override
+    public synchronized void reserve(int number) {
+        if (number > high) {
+            advanceCounterTo(number);
+            next = 0;
+        } else if (number >= next) {
+            next = number + 1;
+        }
+    }
+}
@@ -4,28 +4,157 @@ import com.amica.billing.Customer;
 import com.amica.billing.Invoice;
 import com.amica.billing.db.CachingPersistence;
 import com.amica.billing.db.CustomerRepository;
+import com.amica.billing.db.InvoiceNumberSequence;
+import com.amica.billing.db.InvoiceQuery;
 import com.amica.billing.db.InvoiceRepository;
+import com.mongodb.DBRef;
+import com.mongodb.bulk.BulkWriteError;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.java.Log;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.stream.Stream;
 
+/**
+ * Persistence in MongoDB, with everything cached in memory.
+ *
+ * By default each saved invoice is written to the database right away.
+ * In write-behind mode, a saved invoice is only marked as dirty, and
+ * a background thread writes dirty invoices in bulk: when enough of them
+ * have built up, or when they've waited long enough. An invoice saved
+ * several times before it's written is written once, as it stands.
+ * A batch, or those invoices in a batch, that can't be written are
+ * retried with the next batch, up to a limit; everything that's dirty is
+ * written on shutdown. Customers are always written right away, since
+ * invoices refer to them by their database IDs.
+ *
+ * With a bounded invoice cache, invoices that aren't cached are looked up
+ * by number; those still waiting to be written, or being written, are
+ * found in memory.
+ *
+ * Invoices refer to their customers by database reference. Rather than
+ * let the mapping layer resolve each reference with a query of its own
+ * when we stream all invoices, by default we read the raw documents and
+ * join them to the customers we've already loaded, by ID, in memory.
+ *
+ * With a bounded invoice cache, {@link #findInvoices queries} run in the
+ * database, supported by compound indexes on customer, issue date, and
+ * paid date, that we create at startup if they aren't there.
+ */
 @Component
 @Primary
+@Log
 public class MongoPersistence extends CachingPersistence {
     CustomerRepository customerRepository;
     InvoiceRepository invoiceRepository;
+    MongoOperations mongo;
 
-    public MongoPersistence(CustomerRepository cr, InvoiceRepository ir) {
+    @Value("${MongoPersistence.invoiceNumberBlockSize:100}")
+    int invoiceNumberBlockSize = 100;
+
+    @Value("${MongoPersistence.writeBehind:false}")
+    boolean writeBehind;
+
+    @Value("${MongoPersistence.writeBatchSize:500}")
+    int writeBatchSize = 500;
+
+    @Value("${MongoPersistence.writeDelayMillis:1000}")
+    long writeDelayMillis = 1000;
+
+    @Value("${MongoPersistence.writeMaxAttempts:5}")
+    int writeMaxAttempts = 5;
+
+    @Value("${MongoPersistence.joinCustomers:true}")
+    boolean joinCustomers = true;
+
+    @Value("${MongoPersistence.createIndexes:true}")
+    boolean createIndexes = true;
+
+    private Map<Integer, Invoice> dirty = new LinkedHashMap<>();
+    private Map<Integer, Invoice> inFlight = new HashMap<>();
+    private Map<Integer, Integer> attempts = new HashMap<>();
+    private ScheduledExecutorService writer;
+
+    private AtomicLong invoicesWritten = new AtomicLong();
+    private AtomicLong batchesFailed = new AtomicLong();
+    private AtomicLong invoicesRetried = new AtomicLong();
+    private AtomicLong invoicesAbandoned = new AtomicLong();
+
+    public MongoPersistence(CustomerRepository cr, InvoiceRepository ir,
+            MongoOperations mongo) {
         customerRepository = cr;
         invoiceRepository = ir;
+        this.mongo = mongo;
     }
 
     @Override
     @PostConstruct
     public void load() {
+        if (createIndexes) {
+            createIndexes();
+        }
         super.load();
+        if (writeBehind && writer == null) {
+            writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MongoPersistence-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.scheduleWithFixedDelay(this::writeDirtyInvoices,
+                    writeDelayMillis, writeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates the indexes that support invoice queries, if they don't exist.
+     */
+    private void createIndexes() {
+        IndexOperations indexes = mongo.indexOps(Invoice.class);
+        indexes.ensureIndex(new Index().on("customer", Direction.ASC)
+                .on("issueDate", Direction.ASC).named("customer_issueDate"));
+        indexes.ensureIndex(new Index().on("issueDate", Direction.ASC)
+                .on("paidDate", Direction.ASC).named("issueDate_paidDate"));
+        indexes.ensureIndex(new Index().on("paidDate", Direction.ASC)
+                .on("issueDate", Direction.ASC).named("paidDate_issueDate"));
+    }
+
+    /**
+     * Several application instances may share the database, so we allocate
+     * invoice numbers in blocks reserved through a shared counter document.
+     */
+    @Override
+    protected InvoiceNumberSequence createSequence(int last) {
+        return new HiLoInvoiceNumberSequence(mongo, invoiceNumberBlockSize, last);
     }
 
     @Override
@@ -33,9 +162,149 @@ public class MongoPersistence extends CachingPersistence {
         return customerRepository.streamAllBy();
     }
 
+    /**
+     * Returns the invoices that aren't yet known to be in the database:
+     * those in a batch that's being written, and those waiting to be
+     * written, which are the more recent if an invoice is in both.
+     */
+    private Map<Integer, Invoice> unwritten() {
+        synchronized(dirty) {
+            Map<Integer, Invoice> unwritten = new LinkedHashMap<>(inFlight);
+            unwritten.putAll(dirty);
+            return unwritten;
+        }
+    }
+
+    /**
+     * Invoices that are waiting to be written take the place of
+     * their stored versions, and new ones are streamed after them.
+     */
     @Override
     protected Stream<Invoice> readInvoices() {
-        return invoiceRepository.streamAllBy();
+        Map<Integer, Invoice> unwritten = unwritten();
+        Stream<Invoice> stored = joinCustomers
+                ? readInvoicesJoined(new Query()) : invoiceRepository.streamAllBy();
+        if (unwritten.isEmpty()) {
+            return stored;
+        }
+        return Stream.concat(stored
+                .filter(invoice -> !unwritten.containsKey(invoice.getNumber())),
+                unwritten.values().stream());
+    }
+
+    /**
+     * Streams the invoice documents that match the given query, with their
+     * customer references removed, maps each one to an invoice, and sets
+     * its customer by looking up the reference's ID among the loaded
+     * customers. A customer we don't have, which shouldn't happen,
+     * is read from the database.
+     */
+    private Stream<Invoice> readInvoicesJoined(Query query) {
+        Map<String, Customer> customersById = new HashMap<>();
+        for (Customer customer : customers.values()) {
+            customersById.put(customer.get_id(), customer);
+        }
+        MongoConverter converter = mongo.getConverter();
+        return mongo.stream(query, Document.class,
+                mongo.getCollectionName(Invoice.class)).map(document -> {
+            Object reference = document.remove("customer");
+            Invoice invoice = converter.read(Invoice.class, document);
+            if (reference instanceof DBRef dbRef) {
+                String id = String.valueOf(dbRef.getId());
+                invoice.setCustomer(customersById.computeIfAbsent(id,
+                        key -> customerRepository.findById(key).orElse(null)));
+            }
+            return invoice;
+        });
+    }
+
+    /**
+     * Translates an invoice query to a database query. We read raw
+     * documents, so the mapping layer doesn't know that the customer
+     * is a reference; we compare it to a reference of our own.
+     */
+    Query toMongoQuery(InvoiceQuery query) {
+        Criteria criteria = new Criteria();
+        query.getCustomer().ifPresent(customer -> criteria.and("customer")
+                .is(new DBRef(mongo.getCollectionName(Customer.class),
+                        ObjectId.isValid(customer.get_id())
+                                ? new ObjectId(customer.get_id()) : customer.get_id())));
+        if (query.getIssuedFrom().isPresent() || query.getIssuedBefore().isPresent()) {
+            Criteria issued = criteria.and("issueDate");
+            query.getIssuedFrom().ifPresent(issued::gte);
+            query.getIssuedBefore().ifPresent(issued::lt);
+        }
+        query.getPaid().ifPresent(paid -> {
+            if (paid) {
+                criteria.and("paidDate").ne(null);
+            } else {
+                criteria.and("paidDate").is(null);
+            }
+        });
+        Sort sort = query.getOrder() == InvoiceQuery.Order.DATE
+                ? Sort.by("issueDate", "_id") : Sort.by("_id");
+        return new Query(criteria).with(sort);
+    }
+
+    /**
+     * With a bounded cache, we run the query in the database, and then
+     * put any invoices still waiting to be written in place of their
+     * stored versions. Otherwise we answer from memory.
+     */
+    @Override
+    public Stream<Invoice> findInvoices(InvoiceQuery query) {
+        if (cache == null) {
+            return super.findInvoices(query);
+        }
+        Map<Integer, Invoice> unwritten = unwritten();
+        Stream<Invoice> stored = readInvoicesJoined(toMongoQuery(query));
+        if (unwritten.isEmpty()) {
+            return stored;
+        }
+        return Stream.concat(stored
+                .filter(invoice -> !unwritten.containsKey(invoice.getNumber())),
+                unwritten.values().stream().filter(query::matches))
+                .sorted(query.getOrder().getComparator());
+    }
+
+    @Override
+    protected Invoice readInvoice(int number) {
+        synchronized(dirty) {
+            Invoice unwritten = dirty.get(number);
+            if (unwritten == null) {
+                unwritten = inFlight.get(number);
+            }
+            if (unwritten != null) {
+                return unwritten;
+            }
+        }
+        return invoiceRepository.findById(number).orElse(null);
+    }
+
+    /**
+     * Reads the given invoices in one query, by ID, taking those still
+     * waiting to be written from memory instead.
+     */
+    @Override
+    protected Stream<Invoice> readInvoices(int[] numbers) {
+        Map<Integer, Invoice> unwritten = unwritten();
+        List<Integer> stored = new ArrayList<>(numbers.length);
+        List<Invoice> found = new ArrayList<>();
+        for (int number : numbers) {
+            Invoice invoice = unwritten.get(number);
+            if (invoice != null) {
+                found.add(invoice);
+            } else {
+                stored.add(number);
+            }
+        }
+        if (stored.isEmpty()) {
+            return found.stream();
+        }
+        Query query = Query.query(Criteria.where("_id").in(stored));
+        Stream<Invoice> storedInvoices = joinCustomers
+                ? readInvoicesJoined(query) : mongo.find(query, Invoice.class).stream();
+        return Stream.concat(storedInvoices, found.stream());
     }
 
     @Override
@@ -45,6 +314,173 @@ public class MongoPersistence extends CachingPersistence {
 
     @Override
     protected void writeInvoice(Invoice invoice) {
-        invoiceRepository.save(invoice);
+        if (writer == null) {
+            invoiceRepository.save(invoice);
+            return;
+        }
+
+        int count;
+        synchronized(dirty) {
+            dirty.put(invoice.getNumber(), invoice);
+            count = dirty.size();
+        }
+        if (count == writeBatchSize) {
+            writer.execute(this::writeDirtyInvoices);
+        }
+    }
+
+    /**
+     * Returns the number of invoices waiting to be written.
+     */
+    public int getDirtyCount() {
+        synchronized(dirty) {
+            return dirty.size();
+        }
+    }
+
+    public long getInvoicesWritten() {
+        return invoicesWritten.get();
+    }
+
+    public long getBatchesFailed() {
+        return batchesFailed.get();
+    }
+
+    public long getInvoicesRetried() {
+        return invoicesRetried.get();
+    }
+
+    public long getInvoicesAbandoned() {
+        return invoicesAbandoned.get();
+    }
+
+    /**
+     * Takes up to a batch of dirty invoices, oldest first, and holds them
+     * as in flight, where readers can still find them, until the write
+     * is done.
+     */
+    private List<Invoice> takeBatch() {
+        List<Invoice> batch = new ArrayList<>();
+        synchronized(dirty) {
+            Iterator<Invoice> iterator = dirty.values().iterator();
+            while (iterator.hasNext() && batch.size() < writeBatchSize) {
+                Invoice invoice = iterator.next();
+                batch.add(invoice);
+                inFlight.put(invoice.getNumber(), invoice);
+                iterator.remove();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Puts invoices that we couldn't write back in the dirty set,
+     * unless they've been saved again since we took them, or have
+     * used up their attempts. Called with the batch still in flight,
+     * so that readers see each invoice in one set or the other.
+     */
+    private void retry(List<Invoice> failed) {
+        synchronized(dirty) {
+            for (Invoice invoice : failed) {
+                int number = invoice.getNumber();
+                int count = attempts.merge(number, 1, Integer::sum);
+                if (count < writeMaxAttempts) {
+                    dirty.putIfAbsent(number, invoice);
+                    invoicesRetried.incrementAndGet();
+                } else {
+                    attempts.remove(number);
+                    invoicesAbandoned.incrementAndGet();
+                    log.severe(() -> String.format("Giving up on writing invoice %d " +
+                            "after %d attempts.", number, count));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one batch of dirty invoices in a single bulk operation.
+     * Returns false if there was nothing to write, or the whole batch failed.
+     */
+    private boolean writeBatch() {
+        List<Invoice> batch = takeBatch();
+        if (batch.isEmpty()) {
+            return false;
+        }
+
+        BulkOperations operations = mongo.bulkOps(BulkMode.UNORDERED, Invoice.class);
+        for (Invoice invoice : batch) {
+            operations.replaceOne(Query.query(Criteria.where("_id").is(invoice.getNumber())),
+                    invoice, FindAndReplaceOptions.options().upsert());
+        }
+
+        List<Invoice> failed = new ArrayList<>();
+        try {
+            operations.execute();
+        } catch (BulkOperationException ex) {
+            for (BulkWriteError error : ex.getErrors()) {
+                failed.add(batch.get(error.getIndex()));
+            }
+            log.warning(() -> String.format("Couldn't write %d of %d invoices: %s",
+                    failed.size(), batch.size(), ex.getMessage()));
+        } catch (DataAccessException ex) {
+            failed.addAll(batch);
+            batchesFailed.incrementAndGet();
+            log.log(Level.WARNING, ex, () -> "Couldn't write a batch of " +
+                    batch.size() + " invoices.");
+        }
+
+        invoicesWritten.addAndGet(batch.size() - failed.size());
+        synchronized(dirty) {
+            for (Invoice invoice : batch) {
+                if (!failed.contains(invoice)) {
+                    attempts.remove(invoice.getNumber());
+                }
+            }
+            retry(failed);
+            for (Invoice invoice : batch) {
+                inFlight.remove(invoice.getNumber());
+            }
+        }
+        return failed.size() < batch.size();
+    }
+
+    /**
+     * Writes batches until nothing is dirty, or a batch fails outright,
+     * in which case we leave the rest for next time.
+     */
+    private void writeDirtyInvoices() {
+        while (writeBatch());
+    }
+
+    /**
+     * Writes all dirty invoices now, on the writer thread, and waits
+     * until that's done. Invoices that keep failing are retried until
+     * they use up their attempts.
+     */
+    public void flush() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.submit(() -> {
+                while (getDirtyCount() != 0) {
+                    writeDirtyInvoices();
+                }
+            }).get();
+        } catch (ExecutionException ex) {
+            log.log(Level.WARNING, ex.getCause(), () -> "Couldn't write invoices.");
+        }
+    }
+
+    /**
+     * Writes all dirty invoices and stops the writer thread.
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        flush();
+        if (writer != null) {
+            writer.shutdown();
+            writer = null;
+        }
     }
 }
@@ -0,0 +1,179 @@
+package com.amica.billing.parse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helpers for parsers that scan UTF-8 text directly from a {@link ByteBuffer},
+ * without decoding whole lines to strings. All positions are absolute
+ * indices into the buffer. The numeric and date helpers are those of
+ * {@link FieldValues}, reading the buffer's bytes: they only handle the
+ * simple, common forms of their values, and return a "can't tell" result 
+ * for anything else, so that callers can fall back to parsing a string 
+ * and be sure of getting the same result as they would from the line path.
+ */
+final class ByteLines {
+
+	/**
+	 * Parses one line, found between the given positions in the buffer.
+	 */
+	@FunctionalInterface
+	interface LineMapper<T> {
+		T map(ByteBuffer data, int start, int end);
+	}
+
+	private ByteLines() {
+	}
+
+	/**
+	 * Splits the buffer, from its position to its limit, into lines
+	 * the same way that {@link java.io.BufferedReader#readLine} does,
+	 * and maps each one. Null results are dropped from the stream.
+	 */
+	static <T> Stream<T> lines(ByteBuffer data, LineMapper<T> mapper) {
+		final int limit = data.limit();
+		Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>
+				(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private int position = data.position();
+
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				while (position < limit) {
+					int start = position;
+					int end = start;
+					while (end < limit && data.get(end) != '\n' && data.get(end) != '\r') {
+						++end;
+					}
+					position = end;
+					if (position < limit) {
+						if (data.get(position) == '\r' && position + 1 < limit &&
+								data.get(position + 1) == '\n') {
+							position += 2;
+						} else {
+							++position;
+						}
+					}
+
+					T result = mapper.map(data, start, end);
+					if (result != null) {
+						action.accept(result);
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	/**
+	 * Returns the position of the first occurrence of the given byte
+	 * at or after <code>from</code>, or <code>to</code> if there is none.
+	 */
+	static int indexOf(ByteBuffer data, int from, int to, byte value) {
+		for (int i = from; i < to; ++i) {
+			if (data.get(i) == value) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Returns true if there are no multi-byte characters in the given range,
+	 * so that byte offsets are also character offsets.
+	 */
+	static boolean isASCII(ByteBuffer data, int from, int to) {
+		for (int i = from; i < to; ++i) {
+			if (data.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the first position in the range that wouldn't be removed
+	 * by {@link String#trim}.
+	 */
+	static int trimStart(ByteBuffer data, int from, int to) {
+		while (from < to && (data.get(from) & 0xff) <= ' ') {
+			++from;
+		}
+		return from;
+	}
+
+	/**
+	 * Returns the position after the last character in the range that 
+	 * wouldn't be removed by {@link String#trim}.
+	 */
+	static int trimEnd(ByteBuffer data, int from, int to) {
+		while (to > from && (data.get(to - 1) & 0xff) <= ' ') {
+			--to;
+		}
+		return to;
+	}
+
+	/**
+	 * Decodes the given range as a UTF-8 string.
+	 */
+	static String decode(ByteBuffer data, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		data.get(from, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes two ranges as UTF-8 and joins them with a space, as for
+	 * a customer's first and last names, without an intermediate string.
+	 */
+	static String decodeName(ByteBuffer data, int firstFrom, int firstTo,
+			int lastFrom, int lastTo) {
+		int firstLength = firstTo - firstFrom;
+		byte[] bytes = new byte[firstLength + 1 + lastTo - lastFrom];
+		data.get(firstFrom, bytes, 0, firstLength);
+		bytes[firstLength] = ' ';
+		data.get(lastFrom, bytes, firstLength + 1, lastTo - lastFrom);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses an unsigned integer of one to nine digits, or returns -1
+	 * if the range holds anything else.
+	 */
+	static int parseDigits(ByteBuffer data, int from, int to) {
+		return FieldValues.parseDigits(data::get, from, to);
+	}
+
+	/**
+	 * Parses an unsigned decimal number with up to 15 digits and an optional
+	 * decimal point, or returns NaN if the range holds anything else.
+	 * See {@link FieldValues#parseDecimal} for why this is exact.
+	 */
+	static double parseDecimal(ByteBuffer data, int from, int to) {
+		return FieldValues.parseDecimal(data::get, from, to);
+	}
+
+	/**
+	 * Parses a date of the form yyyy-MM-dd, or returns null if the range 
+	 * holds anything else, including an invalid date.
+	 */
+	static LocalDate parseISODate(ByteBuffer data, int from, int to) {
+		return FieldValues.parseISODate(data::get, from, to);
+	}
+
+	/**
+	 * Parses a date of the form MMddyy, taken to be in this century,
+	 * or returns null if the range holds anything else, including
+	 * an invalid date.
+	 */
+	static LocalDate parseMMddyy(ByteBuffer data, int from, int to) {
+		return FieldValues.parseMMddyy(data::get, from, to);
+	}
+}
@@ -1,7 +1,13 @@
 package com.amica.billing.parse;
 
+import static com.amica.billing.parse.ByteLines.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -33,12 +39,22 @@ public class CSVParser implements Parser {
 	public static final int INVOICE_DATE_COLUMN = 4;
 	public static final int INVOICE_PAID_DATE_COLUMN = 5;
 
+	public static final DateTimeFormatter DATE_FORMATTER = 
+			DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
 	/**
 	 * Helper that can parse one line of comma-separated text in order to
 	 * produce a {@link Customer} object.
 	 */
 	private Customer parseCustomer(String line) {
-		String[] fields = line.split(",");
+		return parseCustomer(line.split(","), line);
+	}
+
+	/**
+	 * Helper that can interpret the fields of one customer record,
+	 * however they were separated. The record text is used for warnings.
+	 */
+	protected Customer parseCustomer(String[] fields, String line) {
 		if (fields.length == CUSTOMER_COLUMNS) {
 			try {
 				String firstName = fields[CUSTOMER_FIRST_NAME_COLUMN];
@@ -65,9 +81,17 @@ public class CSVParser implements Parser {
 	 * Helper that can parse one line of comma-separated text in order to
 	 * produce an {@link Invoice} object.
 	 */
-	private Invoice parseInvoice(String line, Map<String, Customer> customers) {
-		DateTimeFormatter parser = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-		String[] fields = line.split(",");
+	protected Invoice parseInvoice(String line, Map<String, Customer> customers) {
+		return parseInvoice(line.split(","), line, customers);
+	}
+
+	/**
+	 * Helper that can interpret the fields of one invoice record,
+	 * however they were separated. The record text is used for warnings.
+	 */
+	protected Invoice parseInvoice(String[] fields, String line, 
+			Map<String, Customer> customers) {
+		DateTimeFormatter parser = DATE_FORMATTER;
 		if (fields.length >= INVOICE_MIN_COLUMNS) {
 			try {
 				int number = Integer.parseInt(fields[INVOICE_NUMBER_COLUMN]);
@@ -100,6 +124,44 @@ public class CSVParser implements Parser {
 		return null;
 	}
 
+	/**
+	 * Helper that scans one line of comma-separated text directly from
+	 * a buffer in order to produce an {@link Invoice} object. If any field 
+	 * isn't in its simplest form, or anything else is wrong with the line, 
+	 * we decode the line and use {@link #parseInvoice(String, Map)}, 
+	 * so that results and warnings are the same as for the line path.
+	 */
+	private Invoice parseInvoice(ByteBuffer data, int start, int end,
+			Map<String, Customer> customers) {
+		final byte comma = ',';
+		int numberEnd = indexOf(data, start, end, comma);
+		int firstEnd = indexOf(data, numberEnd + 1, end, comma);
+		int lastEnd = indexOf(data, firstEnd + 1, end, comma);
+		int amountEnd = indexOf(data, lastEnd + 1, end, comma);
+		if (amountEnd < end) {
+			int dateEnd = indexOf(data, amountEnd + 1, end, comma);
+			int paidEnd = dateEnd < end 
+					? indexOf(data, dateEnd + 1, end, comma) : end;
+			
+			int number = parseDigits(data, start, numberEnd);
+			double amount = parseDecimal(data, lastEnd + 1, amountEnd);
+			LocalDate date = parseISODate(data, amountEnd + 1, dateEnd);
+			LocalDate paidDate = dateEnd < end 
+					? parseISODate(data, dateEnd + 1, paidEnd) : null;
+			if (number >= 0 && !Double.isNaN(amount) && date != null &&
+					(dateEnd == end || paidDate != null)) {
+				Customer customer = customers.get(decodeName(data, 
+						numberEnd + 1, firstEnd, firstEnd + 1, lastEnd));
+				if (customer != null) {
+					return new Invoice(number, customer, amount, date, 
+							Optional.ofNullable(paidDate));
+				}
+			}
+		}
+		
+		return parseInvoice(decode(data, start, end), customers);
+	}
+
 	/**
 	 * Helper to write a CSV representation of one customer.
 	 */
@@ -122,6 +184,24 @@ public class CSVParser implements Parser {
 				invoice.getPaidDate().map(pd -> "," + pd.toString()).orElse(""));
 	}
 
+	/**
+	 * Helper to write a CSV representation of one invoice directly 
+	 * to a record writer, with the same result as 
+	 * {@link #formatInvoice formatInvoice}.
+	 */
+	private void writeInvoice(RecordWriter writer, Invoice invoice) 
+			throws IOException {
+		writer.append(invoice.getNumber()).append(',')
+			.append(invoice.getCustomer().getFirstName()).append(',')
+			.append(invoice.getCustomer().getLastName()).append(',')
+			.appendAmount(invoice.getAmount()).append(',')
+			.appendISODate(invoice.getIssueDate());
+		if (invoice.getPaidDate().isPresent()) {
+			writer.append(',').appendISODate(invoice.getPaidDate().get());
+		}
+		writer.newLine();
+	}
+
 	/**
 	 * Consumes the given string streams and translates to {@link Customer}
 	 * objects.
@@ -150,6 +230,17 @@ public class CSVParser implements Parser {
 				.filter(invoice -> invoice != null);
 	}
 
+	/**
+	 * Scans the buffer for lines and fields directly, only creating strings
+	 * for customer names, or for lines that we can't parse that way. 
+	 */
+	@Override
+	public Stream<Invoice> parseInvoices(ByteBuffer invoiceData,
+			Map<String, Customer> customers) {
+		return lines(invoiceData, 
+				(data, start, end) -> parseInvoice(data, start, end, customers));
+	}
+
 	/**
 	 * Maps each customer to a string representation and writes it.
 	 */
@@ -164,4 +255,18 @@ public class CSVParser implements Parser {
 		return invoices.map(this::formatInvoice);
 		
 	}
+
+	/**
+	 * Writes each invoice straight into a reusable buffer, 
+	 * rather than formatting a string for each one.
+	 */
+	@Override
+	public void produceInvoices(Stream<Invoice> invoices, 
+			WritableByteChannel out) throws IOException {
+		RecordWriter writer = new RecordWriter(out);
+		for (Iterator<Invoice> each = invoices.iterator(); each.hasNext(); ) {
+			writeInvoice(writer, each.next());
+		}
+		writer.flush();
+	}
 }
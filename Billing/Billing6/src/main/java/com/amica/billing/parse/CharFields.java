@@ -0,0 +1,50 @@
+package com.amica.billing.parse;
+
+import java.time.LocalDate;
+
+/**
+ * Counterparts to the field helpers in {@link ByteLines}, for text that
+ * has already been decoded into strings. These scan a range of a string 
+ * without creating substrings, and, like those, decode values with
+ * {@link FieldValues}, which returns a "can't tell" result for anything
+ * but the simplest forms of their values, so that callers can fall back
+ * to the usual parsing methods for those.
+ */
+final class CharFields {
+
+	private CharFields() {
+	}
+
+	/**
+	 * Returns the position of the first occurrence of the given character
+	 * at or after <code>from</code>, or <code>to</code> if there is none.
+	 */
+	static int indexOf(String text, int from, int to, char value) {
+		int index = from < to ? text.indexOf(value, from) : -1;
+		return index != -1 && index < to ? index : to;
+	}
+
+	/**
+	 * Parses an unsigned integer of one to nine digits, or returns -1
+	 * if the range holds anything else.
+	 */
+	static int parseDigits(CharSequence text, int from, int to) {
+		return FieldValues.parseDigits(text::charAt, from, to);
+	}
+
+	/**
+	 * Parses an unsigned decimal number with up to 15 digits and an optional
+	 * decimal point, or returns NaN if the range holds anything else.
+	 */
+	static double parseDecimal(CharSequence text, int from, int to) {
+		return FieldValues.parseDecimal(text::charAt, from, to);
+	}
+
+	/**
+	 * Parses a date of the form yyyy-MM-dd, or returns null if the range 
+	 * holds anything else, including an invalid date.
+	 */
+	static LocalDate parseISODate(CharSequence text, int from, int to) {
+		return FieldValues.parseISODate(text::charAt, from, to);
+	}
+}
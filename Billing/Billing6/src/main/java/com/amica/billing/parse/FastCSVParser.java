@@ -0,0 +1,72 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.parse.CharFields.*;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.db.CustomerDictionary;
+
+/**
+ * A {@link CSVParser} with a faster path for reading invoices.
+ * We find fields in a single pass over each line, without splitting it;
+ * decode numbers and dates by hand; and find customers without building
+ * a name string. For any line that isn't in the simplest form, we fall
+ * back to the usual CSV parsing, so results and warnings are the same.
+ * Configure it for CSV files as you would any parser, for example with
+ * <code>ParserFactory.csv=com.amica.billing.parse.FastCSVParser</code>.
+ */
+public class FastCSVParser extends CSVParser {
+
+	/**
+	 * Helper that scans one line of comma-separated text in order to
+	 * produce an {@link Invoice} object, or falls back to the CSV parser.
+	 */
+	private Invoice parseInvoice(String line, CustomerDictionary lookup,
+			Map<String, Customer> customers) {
+		final int end = line.length();
+		int numberEnd = indexOf(line, 0, end, ',');
+		int firstEnd = indexOf(line, numberEnd + 1, end, ',');
+		int lastEnd = indexOf(line, firstEnd + 1, end, ',');
+		int amountEnd = indexOf(line, lastEnd + 1, end, ',');
+		if (amountEnd < end) {
+			int dateEnd = indexOf(line, amountEnd + 1, end, ',');
+			int paidEnd = dateEnd < end 
+					? indexOf(line, dateEnd + 1, end, ',') : end;
+			
+			int number = parseDigits(line, 0, numberEnd);
+			double amount = parseDecimal(line, lastEnd + 1, amountEnd);
+			LocalDate date = parseISODate(line, amountEnd + 1, dateEnd);
+			LocalDate paidDate = dateEnd < end 
+					? parseISODate(line, dateEnd + 1, paidEnd) : null;
+			if (number >= 0 && !Double.isNaN(amount) && date != null &&
+					(dateEnd == end || paidDate != null)) {
+				Customer customer = lookup.findCustomer(line, 
+						numberEnd + 1, firstEnd, firstEnd + 1, lastEnd);
+				if (customer != null) {
+					return new Invoice(number, customer, amount, date, 
+							Optional.ofNullable(paidDate));
+				}
+			}
+		}
+		
+		return parseInvoice(line, customers);
+	}
+
+	/**
+	 * Scans each line for fields directly, falling back to the 
+	 * CSV parser for any line we can't handle that way.
+	 */
+	@Override
+	public Stream<Invoice> parseInvoices(Stream<String> invoiceLines, 
+			Map<String, Customer> customers) {
+		CustomerDictionary lookup = new CustomerDictionary(customers.values());
+		return invoiceLines
+				.map(line -> parseInvoice(line, lookup, customers))
+				.filter(invoice -> invoice != null);
+	}
+}
@@ -0,0 +1,128 @@
+package com.amica.billing.parse;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+
+/**
+ * Decodes numbers and dates from a range of text, whether that's a string
+ * or UTF-8 bytes in a buffer, through a {@link Text} accessor for the
+ * character at each position: {@link ByteLines} and {@link CharFields}
+ * both delegate here. Only the simple, common forms of each value are
+ * handled; for anything else we return a "can't tell" result, so that
+ * callers can fall back to the usual parsing methods for those.
+ */
+final class FieldValues {
+
+	/**
+	 * The character at a position of some text. For text in UTF-8 bytes,
+	 * the byte will do, since we only look for ASCII digits and punctuation.
+	 */
+	@FunctionalInterface
+	interface Text {
+		int charAt(int index);
+	}
+
+	static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15
+	};
+	static final int MAX_DECIMAL_DIGITS = 15;
+	static final int MAX_INT_DIGITS = 9;
+
+	private FieldValues() {
+	}
+
+	private static int digit(Text text, int index) {
+		int digit = text.charAt(index) - '0';
+		return digit >= 0 && digit <= 9 ? digit : -1;
+	}
+
+	/**
+	 * Parses an unsigned integer of one to nine digits, or returns -1
+	 * if the range holds anything else.
+	 */
+	static int parseDigits(Text text, int from, int to) {
+		if (to <= from || to - from > MAX_INT_DIGITS) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = from; i < to; ++i) {
+			int digit = digit(text, i);
+			if (digit < 0) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses an unsigned decimal number with up to 15 digits and an optional
+	 * decimal point, or returns NaN if the range holds anything else.
+	 * Within those limits both the digits and the power of ten are exact
+	 * doubles, so a single division gives the same correctly-rounded result
+	 * as {@link Double#parseDouble}.
+	 */
+	static double parseDecimal(Text text, int from, int to) {
+		long mantissa = 0;
+		int digits = 0;
+		int point = -1;
+		for (int i = from; i < to; ++i) {
+			if (text.charAt(i) == '.' && point == -1) {
+				point = i;
+			} else {
+				int digit = digit(text, i);
+				if (digit < 0 || ++digits > MAX_DECIMAL_DIGITS) {
+					return Double.NaN;
+				}
+				mantissa = mantissa * 10 + digit;
+			}
+		}
+		if (digits == 0) {
+			return Double.NaN;
+		}
+		int scale = point == -1 ? 0 : to - point - 1;
+		return mantissa / POWERS_OF_TEN[scale];
+	}
+
+	/**
+	 * Returns the given date, or null if it's not a valid date
+	 * or would not be accepted by a year-of-era pattern.
+	 */
+	static LocalDate date(int year, int month, int day) {
+		if (year < 1 || month < 1 || month > 12 || day < 1 ||
+				day > YearMonth.of(year, month).lengthOfMonth()) {
+			return null;
+		}
+		return LocalDate.of(year, month, day);
+	}
+
+	/**
+	 * Parses a date of the form yyyy-MM-dd, or returns null if the range
+	 * holds anything else, including an invalid date.
+	 */
+	static LocalDate parseISODate(Text text, int from, int to) {
+		if (to - from != 10 || text.charAt(from + 4) != '-' || text.charAt(from + 7) != '-') {
+			return null;
+		}
+		int year = parseDigits(text, from, from + 4);
+		int month = parseDigits(text, from + 5, from + 7);
+		int day = parseDigits(text, from + 8, from + 10);
+		return year < 0 || month < 0 || day < 0 ? null : date(year, month, day);
+	}
+
+	/**
+	 * Parses a date of the form MMddyy, taken to be in this century,
+	 * or returns null if the range holds anything else, including
+	 * an invalid date.
+	 */
+	static LocalDate parseMMddyy(Text text, int from, int to) {
+		if (to - from != 6) {
+			return null;
+		}
+		int month = parseDigits(text, from, from + 2);
+		int day = parseDigits(text, from + 2, from + 4);
+		int year = parseDigits(text, from + 4, from + 6);
+		return year < 0 || month < 0 || day < 0 ? null : date(2000 + year, month, day);
+	}
+}
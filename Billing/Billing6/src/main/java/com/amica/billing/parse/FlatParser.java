@@ -1,7 +1,13 @@
 package com.amica.billing.parse;
 
+import static com.amica.billing.parse.ByteLines.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -51,6 +57,14 @@ public class FlatParser implements Parser {
 	public static final int INVOICE_LENGTH = 
 			INVOICE_PAID_DATE_OFFSET + INVOICE_PAID_DATE_LENGTH;
 
+	public static final DateTimeFormatter DATE_FORMATTER = 
+			DateTimeFormatter.ofPattern("MMddyy");
+	public static final String INVOICE_FORMAT = String.format
+			("%%%dd%%-%ds%%-%ds%%%d.2f%%%ds%%%ds", 
+				INVOICE_NUMBER_LENGTH, INVOICE_FIRST_NAME_LENGTH,
+				INVOICE_LAST_NAME_LENGTH, INVOICE_AMOUNT_LENGTH,
+				INVOICE_DATE_LENGTH, INVOICE_PAID_DATE_LENGTH);
+
 	/**
 	 * Helper that can parse one line of text in order to
 	 * produce a {@link Customer} object.
@@ -100,8 +114,7 @@ public class FlatParser implements Parser {
 				double amount = Double.parseDouble(line.substring
 					(INVOICE_AMOUNT_OFFSET, INVOICE_DATE_OFFSET).trim());
 		
-				DateTimeFormatter parser =
-						DateTimeFormatter.ofPattern("MMddyy");
+				DateTimeFormatter parser = DATE_FORMATTER;
 				LocalDate theDate = LocalDate.parse(line.substring
 					(INVOICE_DATE_OFFSET, INVOICE_PAID_DATE_OFFSET), parser);
 				String paidString = line.substring(
@@ -130,6 +143,55 @@ public class FlatParser implements Parser {
 		return null;
 	}
 
+	/**
+	 * Helper that scans one fixed-width line directly from a buffer
+	 * in order to produce an {@link Invoice} object. Field offsets are 
+	 * character offsets, so we only do this for ASCII lines. If anything 
+	 * is out of the ordinary, we decode the line and use 
+	 * {@link #parseInvoice(String, Map)}, so that results and warnings 
+	 * are the same as for the line path.
+	 */
+	private Invoice parseInvoice(ByteBuffer data, int start, int end,
+			Map<String, Customer> customers) {
+		if (end - start >= INVOICE_LENGTH && isASCII(data, start, end)) {
+			int number = parseDigits(data, 
+					trimStart(data, start, start + INVOICE_FIRST_NAME_OFFSET),
+					trimEnd(data, start, start + INVOICE_FIRST_NAME_OFFSET));
+			
+			int amountStart = start + INVOICE_AMOUNT_OFFSET;
+			int amountEnd = start + INVOICE_DATE_OFFSET;
+			double amount = parseDecimal(data, 
+					trimStart(data, amountStart, amountEnd),
+					trimEnd(data, amountStart, amountEnd));
+			
+			LocalDate date = parseMMddyy(data, start + INVOICE_DATE_OFFSET,
+					start + INVOICE_PAID_DATE_OFFSET);
+			
+			int paidStart = trimStart(data, start + INVOICE_PAID_DATE_OFFSET, 
+					start + INVOICE_LENGTH);
+			int paidEnd = trimEnd(data, paidStart, start + INVOICE_LENGTH);
+			boolean paid = paidEnd - paidStart == INVOICE_PAID_DATE_LENGTH;
+			LocalDate paidDate = paid ? parseMMddyy(data, paidStart, paidEnd) : null;
+			
+			if (number >= 0 && !Double.isNaN(amount) && date != null &&
+					(!paid || paidDate != null)) {
+				int firstStart = start + INVOICE_FIRST_NAME_OFFSET;
+				int lastStart = start + INVOICE_LAST_NAME_OFFSET;
+				int firstNameStart = trimStart(data, firstStart, lastStart);
+				int lastNameStart = trimStart(data, lastStart, amountStart);
+				Customer customer = customers.get(decodeName(data, 
+						firstNameStart, trimEnd(data, firstNameStart, lastStart),
+						lastNameStart, trimEnd(data, lastNameStart, amountStart)));
+				if (customer != null) {
+					return new Invoice(number, customer, amount, date, 
+							Optional.ofNullable(paidDate));
+				}
+			}
+		}
+		
+		return parseInvoice(decode(data, start, end), customers);
+	}
+
 	/**
 	 * Helper to write a flat representation of one customer.
 	 */
@@ -145,13 +207,8 @@ public class FlatParser implements Parser {
 	 * Helper to write a flat representation of one invoice.
 	 */
 	public String formatInvoice(Invoice invoice) {
-		final String formatString = String.format
-			("%%%dd%%-%ds%%-%ds%%%d.2f%%%ds%%%ds", 
-				INVOICE_NUMBER_LENGTH, INVOICE_FIRST_NAME_LENGTH,
-				INVOICE_LAST_NAME_LENGTH, INVOICE_AMOUNT_LENGTH,
-				INVOICE_DATE_LENGTH, INVOICE_PAID_DATE_LENGTH);
-		DateTimeFormatter formatter = 
-				DateTimeFormatter.ofPattern("MMddyy");
+		final String formatString = INVOICE_FORMAT;
+		DateTimeFormatter formatter = DATE_FORMATTER;
 
 		return String.format(formatString, 
 				invoice.getNumber(),
@@ -162,6 +219,28 @@ public class FlatParser implements Parser {
 				invoice.getPaidDate().map(formatter::format).orElse(""));
 	}
 
+	/**
+	 * Helper to write a flat representation of one invoice directly 
+	 * to a record writer, with the same result as 
+	 * {@link #formatInvoice formatInvoice}.
+	 */
+	private void writeInvoice(RecordWriter writer, Invoice invoice) 
+			throws IOException {
+		writer.appendRight(invoice.getNumber(), INVOICE_NUMBER_LENGTH)
+			.appendLeft(invoice.getCustomer().getFirstName(), 
+					INVOICE_FIRST_NAME_LENGTH)
+			.appendLeft(invoice.getCustomer().getLastName(), 
+					INVOICE_LAST_NAME_LENGTH)
+			.appendAmount(invoice.getAmount(), INVOICE_AMOUNT_LENGTH)
+			.appendMMddyy(invoice.getIssueDate());
+		if (invoice.getPaidDate().isPresent()) {
+			writer.appendMMddyy(invoice.getPaidDate().get());
+		} else {
+			writer.pad(INVOICE_PAID_DATE_LENGTH);
+		}
+		writer.newLine();
+	}
+
 	/**
 	 * Consumes the given string streams and translates to {@link Customer}
 	 * objects.
@@ -185,6 +264,17 @@ public class FlatParser implements Parser {
 				.filter(invoice -> invoice != null);
 	}
 
+	/**
+	 * Scans the buffer for lines and fields directly, only creating strings
+	 * for customer names, or for lines that we can't parse that way. 
+	 */
+	@Override
+	public Stream<Invoice> parseInvoices(ByteBuffer invoiceData,
+			Map<String, Customer> customers) {
+		return lines(invoiceData, 
+				(data, start, end) -> parseInvoice(data, start, end, customers));
+	}
+
 	/**
 	 * Maps each customer to a string representation and writes it.
 	 */
@@ -199,4 +289,18 @@ public class FlatParser implements Parser {
 		return invoices.map(this::formatInvoice);
 		
 	}
+
+	/**
+	 * Writes each invoice straight into a reusable buffer, 
+	 * rather than formatting a string for each one.
+	 */
+	@Override
+	public void produceInvoices(Stream<Invoice> invoices, 
+			WritableByteChannel out) throws IOException {
+		RecordWriter writer = new RecordWriter(out);
+		for (Iterator<Invoice> each = invoices.iterator(); each.hasNext(); ) {
+			writeInvoice(writer, each.next());
+		}
+		writer.flush();
+	}
 }
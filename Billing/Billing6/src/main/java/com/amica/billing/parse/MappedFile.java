@@ -0,0 +1,69 @@
+package com.amica.billing.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps a text file into memory, read-only, as a list of buffers.
+ * A single mapping can't be larger than 2GB, so we map large files
+ * in segments, each ending just after a line break, so that no line
+ * is split between two segments. Mappings remain valid after we
+ * close the file.
+ */
+final class MappedFile {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	private MappedFile() {
+	}
+
+	private static int lastLineBreak(ByteBuffer buffer) {
+		for (int i = buffer.limit() - 1; i >= 0; --i) {
+			if (buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Maps the file at the given path in segments of at most the given size.
+	 */
+	static List<ByteBuffer> map(Path path, int maxSegmentSize) throws IOException {
+		List<ByteBuffer> segments = new ArrayList<>();
+		try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ); ) {
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				int length = (int) Math.min(maxSegmentSize, size - position);
+				MappedByteBuffer segment = 
+						channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				if (position + length < size) {
+					int lineBreak = lastLineBreak(segment);
+					if (lineBreak == -1) {
+						throw new IOException(String.format
+							("No line break in %d bytes at offset %d of %s", 
+								length, position, path));
+					}
+					length = lineBreak + 1;
+				}
+				segments.add(segment.slice(0, length));
+				position += length;
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Maps the file at the given path in segments of the default size.
+	 */
+	static List<ByteBuffer> map(Path path) throws IOException {
+		return map(path, DEFAULT_SEGMENT_SIZE);
+	}
+}
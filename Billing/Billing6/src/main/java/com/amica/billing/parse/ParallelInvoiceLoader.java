@@ -0,0 +1,83 @@
+package com.amica.billing.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * Parses a large invoice file on several threads. We memory-map the file
+ * in line-aligned chunks, and parse the chunks in parallel on a fork/join 
+ * pool, using the given parser's buffer-based method. Results are returned
+ * in file order, so a caller that keeps the last of any duplicate invoice
+ * numbers gets the same result as for a sequential load. Parsers log bad
+ * lines as usual, from whichever thread parses them.
+ *
+ * A chunk can only end at a line break, so for a parser whose records
+ * can span lines we can't tell where it's safe to split; we parse such
+ * a file on the calling thread, as lines.
+ */
+public class ParallelInvoiceLoader {
+
+	public static final int MIN_CHUNK_SIZE = 1 << 16;
+	public static final int CHUNKS_PER_THREAD = 4;
+
+	private Parser parser;
+	private ForkJoinPool pool;
+
+	/**
+	 * Provide the parser for the file format, and the pool on which to parse.
+	 */
+	public ParallelInvoiceLoader(Parser parser, ForkJoinPool pool) {
+		this.parser = parser;
+		this.pool = pool;
+	}
+
+	/**
+	 * Provide the parser for the file format; we'll use the common pool.
+	 */
+	public ParallelInvoiceLoader(Parser parser) {
+		this(parser, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Chooses a chunk size that gives each thread in the pool several
+	 * chunks, to even out the load, within sensible limits.
+	 */
+	int getChunkSize(long fileSize) {
+		long chunkSize = fileSize / ((long) pool.getParallelism() * CHUNKS_PER_THREAD);
+		return (int) Math.max(MIN_CHUNK_SIZE, 
+				Math.min(chunkSize, MappedFile.DEFAULT_SEGMENT_SIZE));
+	}
+
+	/**
+	 * Parses the invoices in the file at the given path, looking up
+	 * customers in the given map, which must not change while we're loading.
+	 */
+	public Stream<Invoice> load(Path path, Map<String, Customer> customers) 
+			throws IOException {
+		if (parser.hasMultiLineRecords()) {
+			return parser.parseInvoices(Files.lines(path), customers);
+		}
+		List<ByteBuffer> chunks = MappedFile.map(path, getChunkSize(Files.size(path)));
+		try {
+			List<List<Invoice>> results = pool.submit(() -> chunks.parallelStream()
+					.map(chunk -> parser.parseInvoices(chunk, customers).toList())
+					.toList()).get();
+			return results.stream().flatMap(List::stream);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + path, ex);
+		} catch (ExecutionException ex) {
+			throw new IOException("Couldn't load " + path, ex.getCause());
+		}
+	}
+}
@@ -1,5 +1,10 @@
 package com.amica.billing.parse;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -20,6 +25,16 @@ public interface Parser {
 	 */
 	public Stream<Customer> parseCustomers(Stream<String> customerLines);
 
+	/**
+	 * Returns a stream of {@link Customer}s from UTF-8 text in the given
+	 * buffer, from its position to its limit. By default, we decode the
+	 * buffer and delegate to the line-based method.
+	 */
+	public default Stream<Customer> parseCustomers(ByteBuffer customerData) {
+		return parseCustomers(StandardCharsets.UTF_8.decode
+				(customerData.duplicate()).toString().lines());
+	}
+
 	/**
 	 * Returns a stream of {@link Invoice}s, one for each text representation.
 	 * The provided map of customer names to customer records is used to 
@@ -30,6 +45,38 @@ public interface Parser {
 	public Stream<Invoice> parseInvoices(Stream<String> invoiceLines, 
 			Map<String, Customer> customers);
 	
+	/**
+	 * Returns a stream of {@link Invoice}s from UTF-8 text in the given
+	 * buffer, from its position to its limit, such as a memory-mapped file.
+	 * Results must be the same as for the line-based method. By default, 
+	 * we decode the buffer and delegate to that method; implementations may
+	 * scan the buffer directly instead.
+	 */
+	public default Stream<Invoice> parseInvoices(ByteBuffer invoiceData,
+			Map<String, Customer> customers) {
+		return parseInvoices(StandardCharsets.UTF_8.decode(invoiceData.duplicate())
+				.toString().lines(), customers);
+	}
+	
+	/**
+	 * Indicates a binary format, which can only be read and written 
+	 * as whole files, through the buffer and channel methods. 
+	 * The line-based methods of a binary parser are not supported.
+	 */
+	public default boolean isBinary() {
+		return false;
+	}
+
+	/**
+	 * Indicates that a record may span several lines, as a quoted field
+	 * with a line break does. A file in such a format can't be split
+	 * into chunks at just any line break, so it should be read in order,
+	 * from the start.
+	 */
+	public default boolean hasMultiLineRecords() {
+		return false;
+	}
+	
 	/**
 	 * Writes the given stream of customers to the given writer. 
 	 */
@@ -39,4 +86,37 @@ public interface Parser {
 	 * Writes the given stream of invoices to the given writer.
 	 */
 	public Stream<String> produceInvoices(Stream<Invoice> invoices);
+
+	/**
+	 * Writes the given stream of customers to the given channel as UTF-8
+	 * text, one line each. By default, we write the lines from 
+	 * {@link #produceCustomers(Stream)}.
+	 */
+	public default void produceCustomers(Stream<Customer> customers,
+			WritableByteChannel out) throws IOException {
+		writeLines(produceCustomers(customers), out);
+	}
+
+	/**
+	 * Writes the given stream of invoices to the given channel as UTF-8
+	 * text, one line each. Output must be the same as the lines from
+	 * {@link #produceInvoices(Stream)}; by default, we write those lines,
+	 * but implementations may write fields directly to the channel instead.
+	 */
+	public default void produceInvoices(Stream<Invoice> invoices,
+			WritableByteChannel out) throws IOException {
+		writeLines(produceInvoices(invoices), out);
+	}
+
+	/**
+	 * Helper to write lines of text to a channel.
+	 */
+	private static void writeLines(Stream<String> lines, 
+			WritableByteChannel out) throws IOException {
+		RecordWriter writer = new RecordWriter(out);
+		for (Iterator<String> each = lines.iterator(); each.hasNext(); ) {
+			writer.append(each.next()).newLine();
+		}
+		writer.flush();
+	}
 }
@@ -5,6 +5,7 @@ import com.amica.billing.Invoice;
 import com.amica.billing.ParserFactory;
 import com.amica.billing.db.CachingPersistence;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Setter;
 import lombok.extern.java.Log;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,14 +15,54 @@ import org.springframework.stereotype.Component;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
+/**
+ * Persistence to a pair of text files, using a {@link Parser} chosen
+ * by {@link ParserFactory} based on the invoices file's extension.
+ *
+ * By default every save rewrites the whole file. In journal mode, each
+ * save instead appends one record to a journal file next to the data file,
+ * in the same format; {@link #load load} reads the data file and then
+ * replays the journal, so later records replace earlier ones, and then
+ * folds the journal back into the data file. Once a journal grows past
+ * the compaction threshold, a background thread does the same.
+ *
+ * Large invoice files can be memory-mapped instead of read as lines,
+ * so that the parser can scan them without decoding every line; and
+ * they can be parsed in parallel chunks, on the common fork/join pool
+ * or on a dedicated pool of the configured parallelism. Neither applies
+ * to a parser whose records can span lines, such as quoted CSV, since
+ * chunks and segments are split at line breaks; we read those as lines.
+ *
+ * For a binary format such as {@link SnapshotParser snapshots}, we read
+ * each whole file in one bulk read, or map it, and hand it to the parser;
+ * journal mode and parallel loading don't apply, and saves rewrite the file.
+ *
+ * Data files are written through a file channel, using the parser's
+ * channel-based produce methods, which can write records straight into
+ * a reusable buffer rather than formatting a string for each one.
+ */
 @Component
 @Log
 public class ParserPersistence extends CachingPersistence {
+    public static final String JOURNAL_SUFFIX = ".journal";
+
     @Value("${ParserPersistence.customersFile}")
     @Setter
     String customersFile;
@@ -30,19 +71,140 @@ public class ParserPersistence extends CachingPersistence {
     @Setter
     String invoicesFile;
 
+    @Value("${ParserPersistence.journal:false}")
+    @Setter
+    boolean journal;
+
+    @Value("${ParserPersistence.mapInvoicesFile:false}")
+    @Setter
+    boolean mapInvoicesFile;
+
+    @Value("${ParserPersistence.parallelLoad:false}")
+    @Setter
+    boolean parallelLoad;
+
+    @Value("${ParserPersistence.loadParallelism:0}")
+    @Setter
+    int loadParallelism;
+
+    @Value("${ParserPersistence.journalCompactionThreshold:1048576}")
+    @Setter
+    long journalCompactionThreshold = 1048576;
+
     Parser parser;
 
+    private ExecutorService compactor;
+    private AtomicBoolean compactionPending = new AtomicBoolean();
+
     @Override
     @PostConstruct
     public void load() {
         parser = ParserFactory.createParser(invoicesFile);
+        if (maxCachedInvoices > 0) {
+            log.warning(() -> "A bounded invoice cache isn't supported for " +
+                    "text files, since saves may rewrite the whole file; " +
+                    "loading all invoices from " + invoicesFile);
+            maxCachedInvoices = 0;
+        }
+        if (journal && parser.isBinary()) {
+            log.warning(() -> "Journal mode isn't supported for binary files; " +
+                    "every save will rewrite " + invoicesFile);
+        }
         super.load();
+        compact();
+    }
+
+    /**
+     * Compacts any journals, so the data files are complete,
+     * and stops the background compaction thread.
+     */
+    @PreDestroy
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (invoices != null) {
+            compact();
+        }
+    }
+
+    /**
+     * Streams the customers straight from the data files, followed by any
+     * journal, without caching them; for a one-pass copy such as a migration.
+     * This doesn't touch what we've loaded, so it can run alongside us.
+     */
+    public Stream<Customer> streamCustomers() {
+        return readCustomers(ParserFactory.createParser(invoicesFile));
+    }
+
+    /**
+     * Streams the invoices straight from the data files, in file order,
+     * followed by any journal, without caching or indexing them; so a later
+     * record for an invoice replaces an earlier one. Invoices are matched
+     * to the given customers by name. As with {@link #streamCustomers},
+     * what we've loaded is left alone.
+     */
+    public Stream<Invoice> streamInvoices(Map<String, Customer> customers) {
+        return readInvoices(ParserFactory.createParser(invoicesFile), customers);
+    }
+
+    private static Path journalFor(String filename) {
+        return Paths.get(filename + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Returns the lines of the given data file, followed by the lines
+     * of its journal if there is one.
+     */
+    private Stream<String> readLines(String filename) throws IOException {
+        Stream<String> lines = Files.lines(Paths.get(filename));
+        Path journalPath = journalFor(filename);
+        if (Files.exists(journalPath)) {
+            lines = Stream.concat(lines, Files.lines(journalPath));
+        }
+        return lines;
+    }
+
+    /**
+     * Reads the whole of the given file into a buffer.
+     */
+    private static ByteBuffer readFile(String filename) throws IOException {
+        try ( FileChannel in = FileChannel.open(Paths.get(filename)); ) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is too large to read at once.");
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            while (data.hasRemaining() && in.read(data) != -1);
+            return data.flip();
+        }
+    }
+
+    /**
+     * Maps the whole of the given file into memory.
+     */
+    private static ByteBuffer mapFile(String filename) throws IOException {
+        try ( FileChannel in = FileChannel.open(Paths.get(filename)); ) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
     }
 
     @Override
     protected Stream<Customer> readCustomers() {
+        return readCustomers(parser);
+    }
+
+    private Stream<Customer> readCustomers(Parser parser) {
         try {
-            Stream<String> customerLines = Files.lines(Paths.get(customersFile));
+            if (parser.isBinary()) {
+                return parser.parseCustomers(readFile(customersFile));
+            }
+            Stream<String> customerLines = readLines(customersFile);
             return parser.parseCustomers(customerLines);
         } catch(IOException ioException) {
             log.warning(ioException.getMessage());
@@ -50,10 +212,71 @@ public class ParserPersistence extends CachingPersistence {
         }
     }
 
+    /**
+     * Maps the invoices file into memory and has the parser scan it,
+     * followed by the lines of the journal if there is one.
+     */
+    private Stream<Invoice> readMappedInvoices(Parser parser,
+            Map<String, Customer> customers) throws IOException {
+        Stream<Invoice> invoices = MappedFile.map(Paths.get(invoicesFile)).stream()
+                .flatMap(segment -> parser.parseInvoices(segment, customers));
+        return withJournal(invoices, parser, customers);
+    }
+
+    /**
+     * Parses the invoices file in parallel chunks,
+     * followed by the lines of the journal if there is one.
+     */
+    private Stream<Invoice> readInvoicesInParallel(Parser parser,
+            Map<String, Customer> customers) throws IOException {
+        if (loadParallelism > 0) {
+            ForkJoinPool pool = new ForkJoinPool(loadParallelism);
+            try {
+                return withJournal(new ParallelInvoiceLoader(parser, pool)
+                        .load(Paths.get(invoicesFile), customers), parser, customers);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return withJournal(new ParallelInvoiceLoader(parser)
+                .load(Paths.get(invoicesFile), customers), parser, customers);
+    }
+
+    /**
+     * Follows the given invoices with those in the journal, if there is one.
+     */
+    private Stream<Invoice> withJournal(Stream<Invoice> invoices, Parser parser,
+            Map<String, Customer> customers) throws IOException {
+        Path journalPath = journalFor(invoicesFile);
+        if (Files.exists(journalPath)) {
+            invoices = Stream.concat(invoices,
+                    parser.parseInvoices(Files.lines(journalPath), customers));
+        }
+        return invoices;
+    }
+
     @Override
     protected Stream<Invoice> readInvoices() {
+        return readInvoices(parser, customers);
+    }
+
+    /**
+     * Parses the invoices with the given parser, matching them to the
+     * given customers, in whichever way we're configured to read them.
+     */
+    private Stream<Invoice> readInvoices(Parser parser, Map<String, Customer> customers) {
         try {
-            Stream<String> invoiceLines = Files.lines(Paths.get(invoicesFile));
+            if (parser.isBinary()) {
+                return parser.parseInvoices(mapInvoicesFile
+                        ? mapFile(invoicesFile) : readFile(invoicesFile), customers);
+            }
+            if (parallelLoad && !parser.hasMultiLineRecords()) {
+                return readInvoicesInParallel(parser, customers);
+            }
+            if (mapInvoicesFile && !parser.hasMultiLineRecords()) {
+                return readMappedInvoices(parser, customers);
+            }
+            Stream<String> invoiceLines = readLines(invoicesFile);
             return parser.parseInvoices(invoiceLines, customers);
         } catch(IOException ioException) {
             log.warning(ioException.getMessage());
@@ -61,25 +284,128 @@ public class ParserPersistence extends CachingPersistence {
         }
     }
 
-    @Override
-    protected void writeCustomer(Customer customer) {
-        try (PrintWriter out = new PrintWriter(new FileWriter(customersFile)); ) {
-            parser.produceCustomers(customers.values().stream())
-                    .forEach(out::println);
+    /**
+     * Something that writes a full data set to a channel,
+     * such as one of the parser's produce methods.
+     */
+    @FunctionalInterface
+    private interface ChannelWriter {
+        void writeTo(WritableByteChannel out) throws IOException;
+    }
+
+    /**
+     * Writes the given file from scratch, through a file channel.
+     */
+    private static void writeFile(Path path, ChannelWriter writer) throws IOException {
+        try ( FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING); ) {
+            writer.writeTo(out);
+        }
+    }
+
+    private void writeCustomersFile() {
+        try {
+            writeFile(Paths.get(customersFile),
+                    out -> parser.produceCustomers(customers.values().stream(), out));
         } catch (Exception ex) {
             log.log(Level.WARNING, ex,
                     () -> "Couldn't open " + customersFile + " in write mode.");
         }
     }
 
-    @Override
-    protected void writeInvoice(Invoice invoice) {
-        try ( PrintWriter out = new PrintWriter(new FileWriter(invoicesFile)); ) {
-            parser.produceInvoices(invoices.values().stream())
-                    .forEach(out::println);
+    private void writeInvoicesFile() {
+        try {
+            writeFile(Paths.get(invoicesFile),
+                    out -> parser.produceInvoices(invoices.values().stream(), out));
         } catch (Exception ex) {
             log.log(Level.WARNING, ex,
                     () -> "Couldn't open " + invoicesFile + " in write mode.");
         }
     }
+
+    /**
+     * Appends one record to the journal for the given data file,
+     * and schedules compaction if the journal has grown too large.
+     */
+    private synchronized void appendToJournal(String filename, Stream<String> record) {
+        Path journalPath = journalFor(filename);
+        try ( PrintWriter out = new PrintWriter(new FileWriter(journalPath.toFile(), true)); ) {
+            record.forEach(out::println);
+        } catch (Exception ex) {
+            log.log(Level.WARNING, ex,
+                    () -> "Couldn't open " + journalPath + " in append mode.");
+        }
+
+        try {
+            if (Files.size(journalPath) > journalCompactionThreshold &&
+                    compactionPending.compareAndSet(false, true)) {
+                if (compactor == null) {
+                    compactor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "ParserPersistence-compactor");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                compactor.submit(() -> {
+                    compactionPending.set(false);
+                    compact();
+                });
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, ex, () -> "Couldn't check size of " + journalPath);
+        }
+    }
+
+    /**
+     * Folds the journal for the given data file into the data file:
+     * we write the full data set to a temporary file, move it into place,
+     * and then delete the journal. If we're interrupted before deleting
+     * the journal, replaying it over the new data file does no harm.
+     */
+    private void compact(String filename, ChannelWriter records) {
+        Path journalPath = journalFor(filename);
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+
+        Path dataPath = Paths.get(filename);
+        Path tempPath = Paths.get(filename + ".tmp");
+        try {
+            writeFile(tempPath, records);
+            Files.move(tempPath, dataPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(journalPath);
+            log.info(() -> "Compacted " + journalPath + " into " + dataPath);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, ex, () -> "Couldn't compact " + journalPath);
+        }
+    }
+
+    /**
+     * Folds any journals back into their data files.
+     */
+    public synchronized void compact() {
+        compact(customersFile,
+                out -> parser.produceCustomers(customers.values().stream(), out));
+        compact(invoicesFile,
+                out -> parser.produceInvoices(invoices.values().stream(), out));
+    }
+
+    @Override
+    protected void writeCustomer(Customer customer) {
+        if (journal && !parser.isBinary()) {
+            appendToJournal(customersFile, parser.produceCustomers(Stream.of(customer)));
+        } else {
+            writeCustomersFile();
+        }
+    }
+
+    @Override
+    protected void writeInvoice(Invoice invoice) {
+        if (journal && !parser.isBinary()) {
+            appendToJournal(invoicesFile, parser.produceInvoices(Stream.of(invoice)));
+        } else {
+            writeInvoicesFile();
+        }
+    }
 }
@@ -1,101 +1,311 @@
 package com.amica.billing.parse;
 
-import static com.amica.billing.parse.CSVParser.*;
-
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.amica.billing.Customer;
 import com.amica.billing.Invoice;
 
+import lombok.extern.java.Log;
+
 /**
  * A parser that can read a CSV format with certain expected columns.
  * String values are enclosed in double quotation marks (&quot;).
  *
+ * Records follow RFC 4180: any field may be quoted, a quotation mark
+ * within a quoted field is escaped by doubling it, and quoted fields
+ * may contain commas and line breaks. We scan each record once, taking
+ * fields as substrings of the record wherever there's nothing to unescape,
+ * and then interpret the fields as the {@link CSVParser} would.
+ * As with String.split, trailing empty fields are ignored.
+ *
+ * A record that spans lines can't be split across chunks, so we report
+ * {@link #hasMultiLineRecords multi-line records}, and our files are
+ * read in order rather than in memory-mapped or parallel chunks.
+ *
  * @author Will Provost
  */
+@Log
 public class QuotedCSVParser implements Parser {
 
+	public static final char SEPARATOR = ',';
+	public static final char QUOTE = '"';
+	public static final int MAX_RECORD_LINES = 16;
+
 	private CSVParser csvParser = new CSVParser();
 
-	private void stripQuotes(String[] fields, int index) {
-		if (fields.length > index) {
-			fields[index] = fields[index].substring(1, fields[index].length() - 1);
+	/**
+	 * Splits one record into fields, in a single pass. Returns null if
+	 * the quoting is malformed: a quotation mark within an unquoted field,
+	 * anything but a separator after a closing quotation mark, or a quoted
+	 * field that isn't closed.
+	 */
+	static String[] split(String record) {
+		List<String> fields = new ArrayList<>(CSVParser.INVOICE_MIN_COLUMNS + 1);
+		int length = record.length();
+		int position = 0;
+		while (true) {
+			if (position < length && record.charAt(position) == QUOTE) {
+				int start = position + 1;
+				StringBuilder unescaped = null;
+				while (true) {
+					int close = record.indexOf(QUOTE, start);
+					if (close == -1) {
+						return null;
+					}
+					if (close + 1 < length && record.charAt(close + 1) == QUOTE) {
+						if (unescaped == null) {
+							unescaped = new StringBuilder(length);
+						}
+						unescaped.append(record, start, close + 1);
+						start = close + 2;
+					} else {
+						fields.add(unescaped == null
+								? record.substring(start, close)
+								: unescaped.append(record, start, close).toString());
+						position = close + 1;
+						break;
+					}
+				}
+				if (position < length && record.charAt(position) != SEPARATOR) {
+					return null;
+				}
+			} else {
+				int end = position;
+				char c;
+				while (end < length && (c = record.charAt(end)) != SEPARATOR) {
+					if (c == QUOTE) {
+						return null;
+					}
+					++end;
+				}
+				fields.add(record.substring(position, end));
+				position = end;
+			}
+
+			if (position == length) {
+				break;
+			}
+			++position;
 		}
+
+		int count = fields.size();
+		while (count > 0 && fields.get(count - 1).isEmpty()) {
+			--count;
+		}
+		return fields.subList(0, count).toArray(new String[count]);
 	}
 
-	private void addQuotes(String[] fields, int index) {
-		if (fields.length > index) {
-			fields[index] = "\"" + fields[index] + "\"";
+	/**
+	 * Appends the given value to the builder, in quotation marks,
+	 * doubling any quotation marks within it.
+	 */
+	static StringBuilder appendQuoted(StringBuilder builder, String value) {
+		builder.append(QUOTE);
+		int start = 0;
+		int quote;
+		while ((quote = value.indexOf(QUOTE, start)) != -1) {
+			builder.append(value, start, quote + 1).append(QUOTE);
+			start = quote + 1;
 		}
+		return builder.append(value, start, value.length()).append(QUOTE);
 	}
 
-	private String stripQuotesFromCustomer(String line) {
-		String[] fields = line.split(",");
-		stripQuotes(fields, CUSTOMER_FIRST_NAME_COLUMN);
-		stripQuotes(fields, CUSTOMER_LAST_NAME_COLUMN);
-		return Arrays.stream(fields).collect(Collectors.joining(","));
+	/**
+	 * Gathers lines into records: while a record has an odd number of
+	 * quotation marks, a quoted field is still open, and so we join
+	 * the next line to it with a line feed. A stray quotation mark would
+	 * otherwise swallow the rest of the input, so if the field isn't closed
+	 * within {@link #MAX_RECORD_LINES} lines, or by the end of the input,
+	 * we give up on it: the first line goes on alone, to be rejected as
+	 * malformed, and we carry on from the line after it.
+	 */
+	static Stream<String> records(Stream<String> lines) {
+		Iterator<String> each = lines.iterator();
+		Deque<String> readAhead = new ArrayDeque<>();
+		Spliterator<String> records = new Spliterators.AbstractSpliterator<String>
+				(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+
+			private boolean hasNext() {
+				return !readAhead.isEmpty() || each.hasNext();
+			}
+
+			private String next() {
+				return readAhead.isEmpty() ? each.next() : readAhead.poll();
+			}
+
+			@Override
+			public boolean tryAdvance(Consumer<? super String> action) {
+				if (!hasNext()) {
+					return false;
+				}
+				String record = next();
+				if (hasOpenQuote(record)) {
+					List<String> joined = new ArrayList<>();
+					boolean open = true;
+					while (open && joined.size() < MAX_RECORD_LINES - 1 && hasNext()) {
+						String line = next();
+						joined.add(line);
+						open ^= hasOpenQuote(line);
+					}
+					if (open) {
+						for (int i = joined.size() - 1; i >= 0; --i) {
+							readAhead.push(joined.get(i));
+						}
+					} else {
+						StringBuilder builder = new StringBuilder(record);
+						for (String line : joined) {
+							builder.append('\n').append(line);
+						}
+						record = builder.toString();
+					}
+				}
+				action.accept(record);
+				return true;
+			}
+		};
+		return StreamSupport.stream(records, false).onClose(lines::close);
 	}
 
-	private String stripQuotesFromInvoice(String line) {
-		String[] fields = line.split(",");
-		stripQuotes(fields, INVOICE_FIRST_NAME_COLUMN);
-		stripQuotes(fields, INVOICE_LAST_NAME_COLUMN);
-		return Arrays.stream(fields).collect(Collectors.joining(","));
+	@Override
+	public boolean hasMultiLineRecords() {
+		return true;
 	}
 
-	private String addQuotesToCustomer(String line) {
-		String[] fields = line.split(",");
-		addQuotes(fields, CUSTOMER_FIRST_NAME_COLUMN);
-		addQuotes(fields, CUSTOMER_LAST_NAME_COLUMN);
-		return Arrays.stream(fields).collect(Collectors.joining(","));
+	private static boolean hasOpenQuote(String text) {
+		boolean open = false;
+		for (int i = 0; i < text.length(); ++i) {
+			if (text.charAt(i) == QUOTE) {
+				open = !open;
+			}
+		}
+		return open;
 	}
 
-	private String addQuotesToInvoice(String line) {
-		String[] fields = line.split(",");
-		addQuotes(fields, INVOICE_FIRST_NAME_COLUMN);
-		addQuotes(fields, INVOICE_LAST_NAME_COLUMN);
-		return Arrays.stream(fields).collect(Collectors.joining(","));
+	private Customer parseCustomer(String record) {
+		String[] fields = split(record);
+		if (fields != null) {
+			return csvParser.parseCustomer(fields, record);
+		}
+
+		log.warning(() -> "Mismatched quotes, skipping customer: " + record);
+		return null;
+	}
+
+	private Invoice parseInvoice(String record, Map<String, Customer> customers) {
+		String[] fields = split(record);
+		if (fields != null) {
+			return csvParser.parseInvoice(fields, record, customers);
+		}
+
+		log.warning(() -> "Mismatched quotes, skipping invoice: " + record);
+		return null;
+	}
+
+	/**
+	 * Helper to write a quoted CSV representation of one customer.
+	 */
+	public String formatCustomer(Customer customer) {
+		StringBuilder builder = new StringBuilder();
+		appendQuoted(builder, customer.getFirstName()).append(SEPARATOR);
+		appendQuoted(builder, customer.getLastName()).append(SEPARATOR);
+		return builder.append(customer.getTerms().toString().replace("CREDIT_", ""))
+				.toString();
+	}
+
+	/**
+	 * Helper to write a quoted CSV representation of one invoice.
+	 */
+	public String formatInvoice(Invoice invoice) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(invoice.getNumber()).append(SEPARATOR);
+		appendQuoted(builder, invoice.getCustomer().getFirstName()).append(SEPARATOR);
+		appendQuoted(builder, invoice.getCustomer().getLastName()).append(SEPARATOR);
+		builder.append(String.format("%.2f", invoice.getAmount()))
+			.append(SEPARATOR).append(invoice.getIssueDate());
+		invoice.getPaidDate().ifPresent
+			(paidDate -> builder.append(SEPARATOR).append(paidDate));
+		return builder.toString();
+	}
+
+	/**
+	 * Helper to write a quoted CSV representation of one invoice directly
+	 * to a record writer, with the same result as
+	 * {@link #formatInvoice formatInvoice}.
+	 */
+	private void writeInvoice(RecordWriter writer, Invoice invoice)
+			throws IOException {
+		writer.append(invoice.getNumber()).append(SEPARATOR)
+			.appendQuoted(invoice.getCustomer().getFirstName()).append(SEPARATOR)
+			.appendQuoted(invoice.getCustomer().getLastName()).append(SEPARATOR)
+			.appendAmount(invoice.getAmount()).append(SEPARATOR)
+			.appendISODate(invoice.getIssueDate());
+		if (invoice.getPaidDate().isPresent()) {
+			writer.append(SEPARATOR).appendISODate(invoice.getPaidDate().get());
+		}
+		writer.newLine();
 	}
 
 	/**
-	 * Strip quotes from specific fields, and delegate to thge CSV parser.
+	 * Gathers lines into records, splits each record into fields,
+	 * and has the CSV parser interpret the fields.
 	 */
 	public Stream<Customer> parseCustomers(Stream<String> customerLines) {
 
-		return csvParser.parseCustomers(customerLines
-				.map(this::stripQuotesFromCustomer));
+		return records(customerLines)
+				.map(this::parseCustomer)
+				.filter(customer -> customer != null);
 
 	}
 
 	/**
-	 * Strip quotes from specific fields, and delegate to thge CSV parser.
+	 * Gathers lines into records, splits each record into fields,
+	 * and has the CSV parser interpret the fields.
 	 */
 	public Stream<Invoice> parseInvoices(Stream<String> invoiceLines,
 			Map<String, Customer> customers) {
 
-		return csvParser.parseInvoices(invoiceLines
-				.map(this::stripQuotesFromInvoice), customers);
+		return records(invoiceLines)
+				.map(record -> parseInvoice(record, customers))
+				.filter(invoice -> invoice != null);
 	}
 
 	/**
-	 * Delegate to the CSV parser, and add quotes to specific fields
-	 * in the returned strings.
+	 * Maps each customer to a string representation.
 	 */
 	public Stream<String> produceCustomers(Stream<Customer> customers) {
-		return csvParser.produceCustomers(customers)
-				.map(this::addQuotesToCustomer);
+		return customers.map(this::formatCustomer);
 	}
 
 	/**
-	 * Delegate to the CSV parser, and add quotes to specific fields
-	 * in the returned strings.
+	 * Maps each invoice to a string representation.
 	 */
 	public Stream<String> produceInvoices(Stream<Invoice> invoices) {
-		return csvParser.produceInvoices(invoices)
-				.map(this::addQuotesToInvoice);
+		return invoices.map(this::formatInvoice);
+	}
 
+	/**
+	 * Writes each invoice straight into a reusable buffer,
+	 * rather than formatting a string for each one.
+	 */
+	@Override
+	public void produceInvoices(Stream<Invoice> invoices,
+			WritableByteChannel out) throws IOException {
+		RecordWriter writer = new RecordWriter(out);
+		for (Iterator<Invoice> each = invoices.iterator(); each.hasNext(); ) {
+			writeInvoice(writer, each.next());
+		}
+		writer.flush();
 	}
 }
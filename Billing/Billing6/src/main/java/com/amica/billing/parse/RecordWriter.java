@@ -0,0 +1,292 @@
+package com.amica.billing.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * A reusable sink for text records, encoded as UTF-8 into one byte buffer
+ * and written to a channel whenever the buffer fills up. Parsers write
+ * fields one at a time -- strings, padded integers, two-place amounts and
+ * dates -- and each of these is rendered directly into the buffer, with
+ * no intermediate strings or per-record formatters. Values that fall
+ * outside the common case are rendered the same way as the parsers'
+ * String.format methods, so that output is byte-for-byte the same.
+ *
+ * The same buffering serves binary formats, through the put methods,
+ * which write big-endian values.
+ *
+ * Lines end with the platform line separator, as with a PrintWriter.
+ * Callers must {@link #flush flush} the writer when they're done;
+ * closing the channel is up to the caller.
+ */
+final class RecordWriter {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+	private static final byte[] LINE_SEPARATOR =
+			System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+	private static final int MAX_CENTS = 1_000_000_000;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final boolean plainLocale;
+
+	public RecordWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public RecordWriter(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance
+				(Locale.getDefault(Locale.Category.FORMAT));
+		plainLocale = symbols.getDecimalSeparator() == '.' &&
+				symbols.getZeroDigit() == '0';
+	}
+
+	/**
+	 * Number of decimal digits in the given non-negative value.
+	 */
+	private static int digits(long value) {
+		int count = 1;
+		while (value >= 10) {
+			value /= 10;
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Makes sure there's room for the given number of bytes,
+	 * which must be no more than the buffer size.
+	 */
+	private void reserve(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		int offset = 0;
+		while (offset < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			int count = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * Writes the given number of digits of a non-negative value,
+	 * with leading zeroes if necessary.
+	 */
+	private void putDigits(long value, int count) {
+		int end = buffer.position() + count;
+		for (int i = end - 1; i >= buffer.position(); --i) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * Writes the given text: byte by byte while it's ASCII,
+	 * and by way of the UTF-8 encoder from the first character that isn't.
+	 */
+	public RecordWriter append(String text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; ++i) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				putBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+				break;
+			}
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			buffer.put((byte) c);
+		}
+		return this;
+	}
+
+	public RecordWriter append(char c) throws IOException {
+		if (c >= 0x80) {
+			return append(String.valueOf(c));
+		}
+		reserve(1);
+		buffer.put((byte) c);
+		return this;
+	}
+
+	/**
+	 * Writes the given text in quotation marks, doubling any quotation
+	 * marks within it, as for a quoted CSV field.
+	 */
+	public RecordWriter appendQuoted(String text) throws IOException {
+		append('"');
+		int start = 0;
+		int quote;
+		while ((quote = text.indexOf('"', start)) != -1) {
+			append(text.substring(start, quote + 1)).append('"');
+			start = quote + 1;
+		}
+		return append(start == 0 ? text : text.substring(start)).append('"');
+	}
+
+	/**
+	 * Writes the given number of spaces.
+	 */
+	public RecordWriter pad(int count) throws IOException {
+		for (int i = 0; i < count; ++i) {
+			append(' ');
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the given text, padded with spaces on the right to the given
+	 * width, as would the format "%-<i>width</i>s".
+	 */
+	public RecordWriter appendLeft(String text, int width) throws IOException {
+		append(text);
+		return pad(width - text.length());
+	}
+
+	/**
+	 * Writes the given text, padded with spaces on the left to the given
+	 * width, as would the format "%<i>width</i>s".
+	 */
+	public RecordWriter appendRight(String text, int width) throws IOException {
+		pad(width - text.length());
+		return append(text);
+	}
+
+	/**
+	 * Writes the given integer, padded with spaces on the left to the given
+	 * width, as would the format "%<i>width</i>d".
+	 */
+	public RecordWriter appendRight(int value, int width) throws IOException {
+		if (value < 0) {
+			return appendRight(Integer.toString(value), width);
+		}
+		int count = digits(value);
+		pad(width - count);
+		reserve(count);
+		putDigits(value, count);
+		return this;
+	}
+
+	public RecordWriter append(int value) throws IOException {
+		return appendRight(value, 0);
+	}
+
+	/**
+	 * Writes the given amount with two decimal places, padded with spaces
+	 * on the left to the given width, as would the format
+	 * "%<i>width</i>.2f". When the amount is exactly the double that's
+	 * closest to some whole number of cents, that's all there is to it;
+	 * for anything else, or in a locale that doesn't write amounts with
+	 * plain digits and a '.', we defer to String.format, so that a file
+	 * never mixes the two forms.
+	 */
+	public RecordWriter appendAmount(double amount, int width) throws IOException {
+		long cents = Math.round(amount * 100);
+		if (plainLocale && cents >= 0 && cents < MAX_CENTS && cents / 100.0 == amount &&
+				Double.doubleToRawLongBits(amount) >= 0) {
+			int count = Math.max(digits(cents), 3) + 1;
+			pad(width - count);
+			reserve(count);
+			putDigits(cents / 100, count - 3);
+			buffer.put((byte) '.');
+			putDigits(cents % 100, 2);
+			return this;
+		}
+		return appendRight(String.format("%.2f", amount), width);
+	}
+
+	public RecordWriter appendAmount(double amount) throws IOException {
+		return appendAmount(amount, 0);
+	}
+
+	/**
+	 * Writes the given date in ISO format, as would
+	 * {@link LocalDate#toString}.
+	 */
+	public RecordWriter appendISODate(LocalDate date) throws IOException {
+		int year = date.getYear();
+		if (year < 1000 || year > 9999) {
+			return append(date.toString());
+		}
+		reserve(10);
+		putDigits(year, 4);
+		buffer.put((byte) '-');
+		putDigits(date.getMonthValue(), 2);
+		buffer.put((byte) '-');
+		putDigits(date.getDayOfMonth(), 2);
+		return this;
+	}
+
+	/**
+	 * Writes the given date in the format "MMddyy".
+	 */
+	public RecordWriter appendMMddyy(LocalDate date) throws IOException {
+		int year = date.getYear();
+		if (year < 0) {
+			return append(FlatParser.DATE_FORMATTER.format(date));
+		}
+		reserve(6);
+		putDigits(date.getMonthValue(), 2);
+		putDigits(date.getDayOfMonth(), 2);
+		putDigits(year % 100, 2);
+		return this;
+	}
+
+	public RecordWriter putInt(int value) throws IOException {
+		reserve(Integer.BYTES);
+		buffer.putInt(value);
+		return this;
+	}
+
+	public RecordWriter putLong(long value) throws IOException {
+		reserve(Long.BYTES);
+		buffer.putLong(value);
+		return this;
+	}
+
+	/**
+	 * Writes the given text as its length in bytes followed by UTF-8 bytes.
+	 */
+	public RecordWriter putString(String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		putBytes(bytes);
+		return this;
+	}
+
+	public RecordWriter newLine() throws IOException {
+		putBytes(LINE_SEPARATOR);
+		return this;
+	}
+
+	/**
+	 * Writes whatever is in the buffer to the channel.
+	 */
+	public void flush() throws IOException {
+		drain();
+	}
+}
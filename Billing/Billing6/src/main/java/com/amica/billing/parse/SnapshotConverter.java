@@ -0,0 +1,66 @@
+package com.amica.billing.parse;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+
+import com.amica.billing.Invoice;
+import com.amica.billing.ParserFactory;
+
+import lombok.extern.java.Log;
+
+/**
+ * Converts a pair of customer and invoice files from one format to another,
+ * each format being chosen by {@link ParserFactory} from the file extension.
+ * The main use is to build a {@link SnapshotParser snapshot} from existing
+ * CSV or flat files, for fast startup, but any supported format will do
+ * on either side. We load the source files, journals and all, through
+ * {@link ParserPersistence}, and write invoices in order by number.
+ *
+ * Usage: SnapshotConverter &lt;sourceCustomers&gt; &lt;sourceInvoices&gt;
+ * &lt;targetCustomers&gt; &lt;targetInvoices&gt;
+ */
+@Log
+public class SnapshotConverter {
+
+	/**
+	 * Loads the source files and writes their contents to the target files,
+	 * replacing any existing target files.
+	 */
+	public static void convert(String sourceCustomersFile, String sourceInvoicesFile,
+			String targetCustomersFile, String targetInvoicesFile) throws IOException {
+		ParserPersistence source = new ParserPersistence();
+		source.setCustomersFile(sourceCustomersFile);
+		source.setInvoicesFile(sourceInvoicesFile);
+		source.load();
+
+		Parser target = ParserFactory.createParser(targetInvoicesFile);
+		try ( FileChannel out = FileChannel.open(Paths.get(targetCustomersFile),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING); ) {
+			target.produceCustomers(source.getCustomers().values().stream(), out);
+		}
+		try ( FileChannel out = FileChannel.open(Paths.get(targetInvoicesFile),
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING); ) {
+			target.produceInvoices(source.getInvoices().values().stream()
+					.sorted(Comparator.comparingInt(Invoice::getNumber)), out);
+		}
+
+		log.info(() -> String.format("Converted %d customers and %d invoices to %s and %s",
+				source.getCustomers().size(), source.getInvoices().size(),
+				targetCustomersFile, targetInvoicesFile));
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.out.println("Usage: SnapshotConverter <sourceCustomers> " +
+					"<sourceInvoices> <targetCustomers> <targetInvoices>");
+			System.exit(-1);
+		}
+
+		convert(args[0], args[1], args[2], args[3]);
+	}
+}
@@ -0,0 +1,279 @@
+package com.amica.billing.parse;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
+import lombok.extern.java.Log;
+
+/**
+ * A parser for a compact binary snapshot format, which can be read
+ * in a few bulk operations rather than parsed line by line.
+ * Both files start with a header: a magic number, a format version,
+ * the type of record, and a record count. All values are big-endian,
+ * and strings are a length in bytes followed by UTF-8 bytes.
+ *
+ * The customers file then holds each customer's first name, last name,
+ * and payment terms in days.
+ *
+ * The invoices file is columnar. It holds a dictionary of the customer
+ * names used by the invoices, as first and last names, and then one
+ * column after another: invoice numbers, customer ordinals into that
+ * dictionary, amounts in cents, issue dates as epoch days, and paid dates
+ * as epoch days, or {@link #UNPAID} for unpaid invoices. Amounts are
+ * rounded to cents, as they are in the text formats.
+ *
+ * This is a binary format, so the line-based methods are not supported.
+ */
+@Log
+public class SnapshotParser implements Parser {
+
+	public static final int MAGIC = 0x424C5350;
+	public static final int VERSION = 1;
+	public static final int CUSTOMERS = 1;
+	public static final int INVOICES = 2;
+	public static final int HEADER_SIZE = 4 * Integer.BYTES;
+	public static final int UNPAID = Integer.MIN_VALUE;
+
+	/**
+	 * Helper to check the header of a snapshot file and return the
+	 * record count, or -1 if this isn't the expected kind of snapshot.
+	 */
+	private static int readHeader(ByteBuffer data, int type) {
+		if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+			log.warning(() -> "Not a snapshot file, skipping all records.");
+			return -1;
+		}
+		int version = data.getInt();
+		int actualType = data.getInt();
+		if (version != VERSION || actualType != type) {
+			log.warning(() -> String.format
+				("Unexpected snapshot version %d and type %d, skipping all records.",
+					version, actualType));
+			return -1;
+		}
+		return data.getInt();
+	}
+
+	private static String getString(ByteBuffer data) {
+		int length = data.getInt();
+		String result = StandardCharsets.UTF_8.decode
+				(data.slice(data.position(), length)).toString();
+		data.position(data.position() + length);
+		return result;
+	}
+
+	/**
+	 * Reads a column of integers in one bulk operation.
+	 */
+	private static int[] getInts(ByteBuffer data, int count) {
+		int[] column = new int[count];
+		data.asIntBuffer().get(column);
+		data.position(data.position() + count * Integer.BYTES);
+		return column;
+	}
+
+	/**
+	 * Reads a column of long integers in one bulk operation.
+	 */
+	private static long[] getLongs(ByteBuffer data, int count) {
+		long[] column = new long[count];
+		data.asLongBuffer().get(column);
+		data.position(data.position() + count * Long.BYTES);
+		return column;
+	}
+
+	private static ByteBuffer bigEndian(ByteBuffer data) {
+		return data.duplicate().order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private static void putHeader(RecordWriter writer, int type, int count)
+			throws IOException {
+		writer.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(count);
+	}
+
+	private static void putInts(RecordWriter writer, List<Invoice> invoices,
+			ToIntFunction<Invoice> column) throws IOException {
+		for (Invoice invoice : invoices) {
+			writer.putInt(column.applyAsInt(invoice));
+		}
+	}
+
+	private static void putLongs(RecordWriter writer, List<Invoice> invoices,
+			ToLongFunction<Invoice> column) throws IOException {
+		for (Invoice invoice : invoices) {
+			writer.putLong(column.applyAsLong(invoice));
+		}
+	}
+
+	@Override
+	public boolean isBinary() {
+		return true;
+	}
+
+	/**
+	 * Reads all customers from the snapshot in the given buffer.
+	 */
+	@Override
+	public Stream<Customer> parseCustomers(ByteBuffer customerData) {
+		ByteBuffer data = bigEndian(customerData);
+		int count = readHeader(data, CUSTOMERS);
+		List<Customer> customers = new ArrayList<>(Math.max(count, 0));
+		try {
+			for (int i = 0; i < count; ++i) {
+				String firstName = getString(data);
+				String lastName = getString(data);
+				int days = data.getInt();
+				Terms terms = Terms.fromDays(days);
+				if (terms != null) {
+					customers.add(new Customer(firstName, lastName, terms));
+				} else {
+					log.warning(() -> String.format
+						("Unknown terms %d, skipping customer: %s %s",
+							days, firstName, lastName));
+				}
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+			log.warning(() -> "Truncated snapshot, skipping remaining customers.");
+		}
+		return customers.stream();
+	}
+
+	/**
+	 * Reads the dictionary, resolving each name to a customer just once,
+	 * then reads each column in bulk and assembles the invoices.
+	 */
+	@Override
+	public Stream<Invoice> parseInvoices(ByteBuffer invoiceData,
+			Map<String, Customer> customers) {
+		ByteBuffer data = bigEndian(invoiceData);
+		int count = readHeader(data, INVOICES);
+		if (count < 0) {
+			return Stream.empty();
+		}
+
+		Customer[] dictionary;
+		int[] numbers;
+		int[] ordinals;
+		long[] cents;
+		int[] issueDates;
+		int[] paidDates;
+		try {
+			dictionary = new Customer[data.getInt()];
+			for (int i = 0; i < dictionary.length; ++i) {
+				String name = getString(data) + " " + getString(data);
+				dictionary[i] = customers.get(name);
+				if (dictionary[i] == null) {
+					log.warning(() ->
+						"Unknown customer, skipping invoices for: " + name);
+				}
+			}
+
+			numbers = getInts(data, count);
+			ordinals = getInts(data, count);
+			cents = getLongs(data, count);
+			issueDates = getInts(data, count);
+			paidDates = getInts(data, count);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException ex) {
+			log.warning(() -> "Truncated snapshot, skipping all invoices.");
+			return Stream.empty();
+		}
+
+		return IntStream.range(0, count)
+				.filter(i -> dictionary[ordinals[i]] != null)
+				.mapToObj(i -> new Invoice(numbers[i], dictionary[ordinals[i]],
+						cents[i] / 100.0, LocalDate.ofEpochDay(issueDates[i]),
+						paidDates[i] == UNPAID
+							? null : LocalDate.ofEpochDay(paidDates[i])));
+	}
+
+	/**
+	 * Writes the header and then each customer in turn.
+	 */
+	@Override
+	public void produceCustomers(Stream<Customer> customers,
+			WritableByteChannel out) throws IOException {
+		List<Customer> all = customers.toList();
+		RecordWriter writer = new RecordWriter(out);
+		putHeader(writer, CUSTOMERS, all.size());
+		for (Customer customer : all) {
+			writer.putString(customer.getFirstName())
+				.putString(customer.getLastName())
+				.putInt(customer.getTerms().getDays());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Gathers the invoices, builds the customer dictionary,
+	 * and writes each column in turn.
+	 */
+	@Override
+	public void produceInvoices(Stream<Invoice> invoices,
+			WritableByteChannel out) throws IOException {
+		List<Invoice> all = invoices.toList();
+		Map<String, Integer> ordinals = new LinkedHashMap<>();
+		List<Customer> dictionary = new ArrayList<>();
+		for (Invoice invoice : all) {
+			Customer customer = invoice.getCustomer();
+			if (ordinals.putIfAbsent(customer.getName(), dictionary.size()) == null) {
+				dictionary.add(customer);
+			}
+		}
+
+		RecordWriter writer = new RecordWriter(out);
+		putHeader(writer, INVOICES, all.size());
+		writer.putInt(dictionary.size());
+		for (Customer customer : dictionary) {
+			writer.putString(customer.getFirstName())
+				.putString(customer.getLastName());
+		}
+		putInts(writer, all, Invoice::getNumber);
+		putInts(writer, all, invoice ->
+				ordinals.get(invoice.getCustomer().getName()));
+		putLongs(writer, all, invoice -> Math.round(invoice.getAmount() * 100));
+		putInts(writer, all, invoice ->
+				Math.toIntExact(invoice.getIssueDate().toEpochDay()));
+		putInts(writer, all, invoice -> invoice.getPaidDate()
+				.map(date -> Math.toIntExact(date.toEpochDay())).orElse(UNPAID));
+		writer.flush();
+	}
+
+	private static UnsupportedOperationException lineBased() {
+		return new UnsupportedOperationException
+				("Snapshots are binary; use the buffer and channel methods.");
+	}
+
+	public Stream<Customer> parseCustomers(Stream<String> customerLines) {
+		throw lineBased();
+	}
+
+	public Stream<Invoice> parseInvoices(Stream<String> invoiceLines,
+			Map<String, Customer> customers) {
+		throw lineBased();
+	}
+
+	public Stream<String> produceCustomers(Stream<Customer> customers) {
+		throw lineBased();
+	}
+
+	public Stream<String> produceInvoices(Stream<Invoice> invoices) {
+		throw lineBased();
+	}
+}
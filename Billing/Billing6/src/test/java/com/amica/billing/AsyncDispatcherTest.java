@@ -0,0 +1,180 @@
+package com.amica.billing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.AsyncDispatcher.Overflow;
+
+/**
+ * Unit test for the {@link AsyncDispatcher}. We dispatch numbers to
+ * listeners that record the batches they receive, some of which are
+ * held up by a latch, and check ordering, batching, and overflow.
+ */
+public class AsyncDispatcherTest {
+
+	public static final int EVENTS = 1000;
+
+	private AsyncDispatcher dispatcher;
+	private CountDownLatch gate = new CountDownLatch(1);
+
+	/**
+	 * A listener that waits for the gate to open on its first batch,
+	 * and then records every batch it receives.
+	 */
+	private static class Recorder implements Consumer<List<Integer>> {
+		private List<List<Integer>> batches =
+				Collections.synchronizedList(new ArrayList<>());
+		private CountDownLatch gate;
+
+		public Recorder(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		public void accept(List<Integer> batch) {
+			try {
+				gate.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			batches.add(batch);
+		}
+
+		public List<Integer> events() {
+			return batches.stream().flatMap(List::stream).toList();
+		}
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		gate.countDown();
+		dispatcher.close();
+	}
+
+	private void dispatchAll(List<Consumer<List<Integer>>> listeners, int count) {
+		for (int i = 0; i < count; ++i) {
+			dispatcher.dispatch(listeners, i);
+		}
+	}
+
+	@Test
+	public void testDelivery_InOrderAndBatched() throws Exception {
+		dispatcher = new AsyncDispatcher(EVENTS, 100, Overflow.BLOCK);
+		Recorder recorder = new Recorder(gate);
+		dispatchAll(List.of(recorder), EVENTS);
+		gate.countDown();
+		dispatcher.flush();
+
+		assertThat(recorder.events()).containsExactlyElementsOf
+				(IntStream.range(0, EVENTS).boxed().toList());
+		assertThat(recorder.batches).hasSizeLessThan(EVENTS)
+			.allMatch(batch -> batch.size() <= 100);
+	}
+
+	@Test
+	public void testSlowListener_DoesNotHoldUpOthers() throws Exception {
+		dispatcher = new AsyncDispatcher(EVENTS, 100, Overflow.BLOCK);
+		Recorder slow = new Recorder(gate);
+		Recorder fast = new Recorder(new CountDownLatch(0));
+		dispatchAll(List.of(slow, fast), 10);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (fast.events().size() < 10 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(fast.events()).hasSize(10);
+		assertThat(slow.events()).isEmpty();
+	}
+
+	/**
+	 * With batches of one, the listener holds at most one event while
+	 * blocked, and its queue holds ten more.
+	 */
+	@Test
+	public void testOverflow_DropNewest() throws Exception {
+		dispatcher = new AsyncDispatcher(10, 1, Overflow.DROP_NEWEST);
+		Recorder recorder = new Recorder(gate);
+		dispatchAll(List.of(recorder), EVENTS);
+		gate.countDown();
+		dispatcher.flush();
+
+		assertThat(recorder.events()).hasSizeBetween(10, 11)
+			.startsWith(IntStream.range(0, 10).boxed().toArray(Integer[]::new));
+		assertThat(dispatcher.getDropped()).isEqualTo(EVENTS - recorder.events().size());
+	}
+
+	@Test
+	public void testOverflow_DropOldest() throws Exception {
+		dispatcher = new AsyncDispatcher(10, 1, Overflow.DROP_OLDEST);
+		Recorder recorder = new Recorder(gate);
+		dispatchAll(List.of(recorder), EVENTS);
+		gate.countDown();
+		dispatcher.flush();
+
+		assertThat(recorder.events()).hasSizeBetween(10, 11)
+			.endsWith(IntStream.range(EVENTS - 10, EVENTS).boxed().toArray(Integer[]::new));
+		assertThat(dispatcher.getDropped()).isEqualTo(EVENTS - recorder.events().size());
+	}
+
+	@Test
+	public void testClose_DeliversAndRefuses() throws Exception {
+		dispatcher = new AsyncDispatcher(EVENTS, 100, Overflow.BLOCK);
+		Recorder recorder = new Recorder(gate);
+		dispatchAll(List.of(recorder), 10);
+		gate.countDown();
+		dispatcher.close();
+
+		assertThat(recorder.events()).hasSize(10);
+		assertThatThrownBy(() -> dispatchAll(List.of(recorder), 1))
+			.isInstanceOf(IllegalStateException.class);
+	}
+
+	/**
+	 * The listener holds one event and its queue one more, so a third
+	 * firing waits for room. Removing the listener should deliver what's
+	 * queued, let the waiting thread go, and take no more events.
+	 */
+	@Test
+	public void testRemoved_DeliversQueuedAndReleasesWaiting() throws Exception {
+		dispatcher = new AsyncDispatcher(1, 1, Overflow.BLOCK);
+		Recorder recorder = new Recorder(gate);
+		List<Consumer<List<Integer>>> listeners =
+				new CopyOnWriteArrayList<>(List.of(recorder));
+		dispatchAll(listeners, 2);
+		Thread waiting = new Thread(() -> dispatcher.dispatch(listeners, 2));
+		waiting.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (waiting.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+
+		listeners.remove(recorder);
+		dispatcher.removed(recorder);
+		gate.countDown();
+		waiting.join(5000);
+		assertThat(waiting.isAlive()).isFalse();
+
+		deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (recorder.events().size() + dispatcher.getDropped() < 3 &&
+				System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(recorder.events()).startsWith(0, 1);
+		assertThat(recorder.events().size() + dispatcher.getDropped()).isEqualTo(3);
+
+		dispatchAll(listeners, 1);
+		dispatcher.flush();
+		assertThat(recorder.events().size() + dispatcher.getDropped()).isEqualTo(3);
+	}
+}
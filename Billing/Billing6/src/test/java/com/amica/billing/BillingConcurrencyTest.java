@@ -0,0 +1,206 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.db.MemoryPersistence;
+
+/**
+ * Stress test for {@link Billing} and a caching persistence service
+ * under concurrent use. Several threads are released at once to make
+ * the same changes, or different changes, and we check that each change
+ * happened exactly once and that the maps, indexes, and volumes agree.
+ * Invoices start out as copies of the {@link TestUtility} invoices.
+ */
+public class BillingConcurrencyTest {
+
+	public static final int THREADS = 8;
+	public static final int CHANGES = 500;
+
+	private MemoryPersistence persistence;
+	private Billing billing;
+	private ExecutorService pool;
+	private AtomicInteger customerEvents = new AtomicInteger();
+	private AtomicInteger invoiceEvents = new AtomicInteger();
+
+	@BeforeEach
+	public void setUp() {
+		List<Invoice> invoices = GOOD_INVOICES.stream()
+				.map(invoice -> new Invoice(invoice.getNumber(), invoice.getCustomer(),
+					invoice.getAmount(), invoice.getIssueDate(), invoice.getPaidDate()))
+				.toList();
+		persistence = new MemoryPersistence(GOOD_CUSTOMERS, invoices);
+		billing = new Billing(persistence);
+		billing.addCustomerListener(customer -> customerEvents.incrementAndGet());
+		billing.addInvoiceListener(invoice -> invoiceEvents.incrementAndGet());
+		pool = Executors.newFixedThreadPool(THREADS + 1);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Runs the given task on each of our threads, all starting at once,
+	 * and returns the total of the counts they return.
+	 */
+	private int runConcurrently(IntTask task) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<>();
+		for (int t = 0; t < THREADS; ++t) {
+			int thread = t;
+			results.add(pool.submit(() -> {
+				start.await();
+				return task.run(thread);
+			}));
+		}
+		start.countDown();
+		int total = 0;
+		for (Future<Integer> result : results) {
+			total += result.get(30, TimeUnit.SECONDS);
+		}
+		return total;
+	}
+
+	@FunctionalInterface
+	private interface IntTask {
+		int run(int thread) throws Exception;
+	}
+
+	@Test
+	public void testCreateCustomer_OnlyOneWins() throws Exception {
+		int created = runConcurrently(thread -> {
+			int count = 0;
+			for (int i = 0; i < CHANGES; ++i) {
+				try {
+					billing.createCustomer("Customer", "Number" + i, Terms.CASH);
+					++count;
+				} catch (IllegalArgumentException ex) {
+					// someone else got there first
+				}
+			}
+			return count;
+		});
+
+		assertThat(created).isEqualTo(CHANGES);
+		assertThat(billing.getCustomers()).hasSize(GOOD_CUSTOMERS.size() + CHANGES);
+		assertThat(persistence.getCustomersWritten()).isEqualTo(CHANGES);
+		assertThat(customerEvents.get()).isEqualTo(CHANGES);
+	}
+
+	@Test
+	public void testCreateInvoice_UniqueNumbers() throws Exception {
+		Set<Integer> numbers = ConcurrentHashMap.newKeySet();
+		runConcurrently(thread -> {
+			for (int i = 0; i < CHANGES; ++i) {
+				Customer customer = GOOD_CUSTOMERS.get(i % GOOD_CUSTOMERS.size());
+				numbers.add(billing.createInvoice(customer.getName(), 1).getNumber());
+			}
+			return 0;
+		});
+
+		int created = THREADS * CHANGES;
+		assertThat(numbers).hasSize(created);
+		assertThat(billing.getInvoices()).hasSize(GOOD_INVOICES.size() + created);
+		assertThat(billing.getInvoicesOrderedByDate()).hasSize(GOOD_INVOICES.size() + created);
+		assertThat(invoiceEvents.get()).isEqualTo(created);
+		for (Customer customer : GOOD_CUSTOMERS) {
+			assertThat(billing.getInvoiceCountForCustomer(customer))
+				.isEqualTo(billing.getInvoicesForCustomer(customer).count());
+			assertThat(billing.getVolumeForCustomer(customer))
+				.isEqualTo(billing.getInvoicesForCustomer(customer)
+					.mapToDouble(Invoice::getAmount).sum());
+		}
+	}
+
+	@Test
+	public void testPayInvoice_OnlyOneWins() throws Exception {
+		List<Integer> unpaid = IntStream.range(0, CHANGES)
+				.mapToObj(i -> billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 1)
+					.getNumber())
+				.toList();
+		invoiceEvents.set(0);
+		int paid = runConcurrently(thread -> {
+			int count = 0;
+			for (int number : unpaid) {
+				try {
+					billing.payInvoice(number);
+					++count;
+				} catch (IllegalStateException ex) {
+					// someone else got there first
+				}
+			}
+			return count;
+		});
+
+		assertThat(paid).isEqualTo(CHANGES);
+		assertThat(invoiceEvents.get()).isEqualTo(CHANGES);
+		assertThat(unpaid).allMatch(number ->
+			billing.getInvoices().get(number).getPaidDate().isPresent());
+		LocalDate farFuture = LocalDate.now().plusYears(1);
+		assertThat(billing.getOverdueInvoices(farFuture))
+			.noneMatch(invoice -> unpaid.contains(invoice.getNumber()));
+	}
+
+	/**
+	 * While writers create and pay invoices, a reader keeps running
+	 * queries; none of them should fail, and the results should be
+	 * in order.
+	 */
+	@Test
+	public void testQueries_DuringChanges() throws Exception {
+		AtomicBoolean writing = new AtomicBoolean(true);
+		Future<Integer> reader = pool.submit(() -> {
+			int queries = 0;
+			while (writing.get()) {
+				List<Invoice> byDate = billing.getInvoicesOrderedByDate().toList();
+				for (int i = 1; i < byDate.size(); ++i) {
+					assertThat(Billing.compareByDate.compare(byDate.get(i - 1), byDate.get(i)))
+						.isNotPositive();
+				}
+				billing.getOverdueInvoices(LocalDate.now()).count();
+				Map<Customer,List<Invoice>> grouped = billing.getInvoicesGroupedByCustomer();
+				grouped.values().forEach(List::size);
+				billing.getInvoicesOrderedByNumber().count();
+				++queries;
+			}
+			return queries;
+		});
+
+		runConcurrently(thread -> {
+			for (int i = 0; i < CHANGES; ++i) {
+				Invoice invoice = billing.createInvoice
+					(GOOD_CUSTOMERS.get(thread % GOOD_CUSTOMERS.size()).getName(), i);
+				if (i % 2 == 0) {
+					billing.payInvoice(invoice.getNumber());
+				}
+			}
+			return 0;
+		});
+		writing.set(false);
+
+		assertThat(reader.get(30, TimeUnit.SECONDS)).isPositive();
+		assertThat(billing.getInvoicesOrderedByDate())
+			.hasSize(GOOD_INVOICES.size() + THREADS * CHANGES);
+	}
+}
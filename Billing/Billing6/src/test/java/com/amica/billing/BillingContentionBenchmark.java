@@ -0,0 +1,88 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+import com.amica.billing.db.MemoryPersistence;
+
+/**
+ * JMH benchmark of {@link Billing} under contention, over an in-memory
+ * caching persistence service: many threads creating invoices at once,
+ * and a mix of threads creating and paying invoices while others run
+ * overdue queries. We start each iteration from the {@link TestUtility}
+ * data set, so the invoice set doesn't grow without limit. Run from the
+ * test classpath, for example with this class's main method; use
+ * <code>-t</code> on the JMH command line to vary the thread count
+ * for the non-grouped benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BillingContentionBenchmark {
+
+	private Billing billing;
+	private LocalDate asOf = LocalDate.now().plusDays(60);
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		List<Invoice> invoices = GOOD_INVOICES.stream()
+				.map(invoice -> new Invoice(invoice.getNumber(), invoice.getCustomer(),
+					invoice.getAmount(), invoice.getIssueDate(), invoice.getPaidDate()))
+				.toList();
+		billing = new Billing(new MemoryPersistence(GOOD_CUSTOMERS, invoices));
+	}
+
+	private Invoice createInvoice() {
+		int which = (int) (Thread.currentThread().getId() % GOOD_CUSTOMERS.size());
+		return billing.createInvoice(GOOD_CUSTOMERS.get(which).getName(), 100);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public Invoice createInvoices() {
+		return createInvoice();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(6)
+	public Invoice createAndPay() {
+		Invoice invoice = createInvoice();
+		billing.payInvoice(invoice.getNumber());
+		return invoice;
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public long queryOverdue() {
+		return billing.getOverdueInvoices(asOf).count();
+	}
+
+	public static void main(String[] args) throws RunnerException,
+			java.io.IOException {
+		org.openjdk.jmh.Main.main(new String[] { BillingContentionBenchmark.class.getSimpleName() });
+	}
+}
@@ -150,6 +150,30 @@ public class BillingIntegrationTest {
 		}
 	}
 
+	/**
+	 * After adding an invoice, assure that the customer's volume and
+	 * invoice count reflect the new invoice.
+	 */
+	@Test
+	public void testCreateInvoice_Volume() {
+		Customer customer = billing.getCustomers().get
+			(NEW_INVOICE_CUSTOMER_FIRST_NAME + " " + NEW_INVOICE_CUSTOMER_LAST_NAME);
+		double volume = billing.getVolumeForCustomer(customer);
+		int count = billing.getInvoiceCountForCustomer(customer);
+		
+		billing.createInvoice(customer.getName(), NEW_INVOICE_AMOUNT);
+		assertThat(billing.getVolumeForCustomer(customer))
+				.isCloseTo(volume + NEW_INVOICE_AMOUNT, within(.0001));
+		assertThat(billing.getInvoiceCountForCustomer(customer))
+				.isEqualTo(count + 1);
+		
+		billing.payInvoice(NEW_INVOICE_NUMBER);
+		assertThat(billing.getVolumeForCustomer(customer))
+				.isCloseTo(volume + NEW_INVOICE_AMOUNT, within(.0001));
+		assertThat(billing.getInvoiceCountForCustomer(customer))
+				.isEqualTo(count + 1);
+	}
+	
 	/**
 	 * After paying an invoice, assure that the line for that invoice in the
 	 * data file now bears the correct paid date.
@@ -164,4 +188,23 @@ public class BillingIntegrationTest {
 					s.endsWith(LocalDate.now().toString()));
 		}
 	}
+	
+	/**
+	 * Take a snapshot, then change the data, and assure that the snapshot
+	 * still shows the data as it was, and can't itself be changed.
+	 */
+	@Test
+	public void testSnapshot() {
+		Billing snapshot = billing.snapshot();
+		billing.payInvoice(PAY_INVOICE_NUMBER);
+		billing.createInvoice(NEW_INVOICE_CUSTOMER_FIRST_NAME + " " + 
+				NEW_INVOICE_CUSTOMER_LAST_NAME, NEW_INVOICE_AMOUNT);
+		
+		assertThat(snapshot.getInvoices()).hasSize(billing.getInvoices().size() - 1);
+		assertThat(snapshot.getInvoices().get(PAY_INVOICE_NUMBER).getPaidDate()).isEmpty();
+		assertThat(snapshot.getOverdueInvoices(AS_OF_DATE).map(Invoice::getNumber))
+			.contains(PAY_INVOICE_NUMBER);
+		assertThatThrownBy(() -> snapshot.payInvoice(PAY_INVOICE_NUMBER))
+			.isInstanceOf(UnsupportedOperationException.class);
+	}
 }
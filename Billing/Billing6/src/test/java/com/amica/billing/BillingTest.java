@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -41,7 +42,7 @@ public class BillingTest {
 	@BeforeEach
 	@SuppressWarnings("unchecked")
 	public void setUp() {
-		mockPersistence = mock(Persistence.class);
+		mockPersistence = mock(Persistence.class, CALLS_REAL_METHODS);
 		when(mockPersistence.getCustomers()).thenReturn(GOOD_CUSTOMERS_MAP);
 		when(mockPersistence.getInvoices()).thenReturn(GOOD_INVOICES_MAP);
 		
@@ -188,10 +189,39 @@ public class BillingTest {
 		
 		ArgumentMatcher<Invoice> isPaidInvoice =
 			i -> i.getNumber() == 1 && i.getPaidDate().isPresent();
+		verify(mockPersistence).payInvoice(argThat(isPaidInvoice), any(LocalDate.class));
 		verify(mockPersistence).saveInvoice(argThat(isPaidInvoice));
 		verify(invoiceListener).accept(argThat(isPaidInvoice));
 	}
 	
+	@Test
+	public void testRemoveInvoiceListener() {
+		billing.removeInvoiceListener(invoiceListener);
+		billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 999.0);
+		verify(invoiceListener, never()).accept(any());
+	}
+	
+	/**
+	 * With asynchronous delivery, the persistence service still hears
+	 * about the change right away, and listeners hear about it by the 
+	 * time we've flushed.
+	 */
+	@Test
+	public void testCreateInvoice_AsyncListeners() throws Exception {
+		billing.setDispatcher(new AsyncDispatcher
+				(10, 10, AsyncDispatcher.Overflow.BLOCK));
+		try {
+			Invoice invoice = billing.createInvoice
+					(GOOD_CUSTOMERS.get(0).getName(), 999.0);
+			verify(mockPersistence).onInvoiceChanged(invoice);
+			
+			billing.flushListeners();
+			verify(invoiceListener).accept(invoice);
+		} finally {
+			billing.close();
+		}
+	}
+	
 	@Test
 	public void testPayInvoice_NoSuchInvoice() {
 		assertThrows(IllegalArgumentException.class, () -> billing.payInvoice(11));
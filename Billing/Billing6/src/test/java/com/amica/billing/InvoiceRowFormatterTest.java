@@ -0,0 +1,49 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for the {@link InvoiceRowFormatter}. We check that each row
+ * is exactly what the string-formatting methods on the {@link Reporter}
+ * produce, for the test data set and a few edge cases.
+ */
+public class InvoiceRowFormatterTest {
+
+	public static final Customer LONG_NAME = new Customer
+			("Bartholomew", "Featherstonehaugh-Cholmondeley", Terms.CASH);
+
+	public static final List<Invoice> EDGE_CASES = List.of(
+		new Invoice(1, GOOD_CUSTOMERS.get(0), 0, LocalDate.of(2022, 1, 1)),
+		new Invoice(12345, GOOD_CUSTOMERS.get(1), 1234567.89, LocalDate.of(999, 12, 31)),
+		new Invoice(-1, GOOD_CUSTOMERS.get(2), -10.5, LocalDate.of(2022, 1, 1),
+				LocalDate.of(2022, 1, 2)),
+		new Invoice(2, LONG_NAME, 0.005, LocalDate.of(2022, 1, 1)),
+		new Invoice(3, LONG_NAME, 123456789012.34, LocalDate.of(10000, 1, 1)),
+		new Invoice(4, GOOD_CUSTOMERS.get(0), 1.0 / 3, LocalDate.of(2022, 1, 1)),
+		new Invoice(5, GOOD_CUSTOMERS.get(0), 999.995, LocalDate.of(2022, 1, 1)),
+		new Invoice(6, GOOD_CUSTOMERS.get(0), 100000, LocalDate.of(2022, 1, 1))
+	);
+
+	private InvoiceRowFormatter formatter = new InvoiceRowFormatter();
+
+	@Test
+	public void testFormat() {
+		Stream.concat(GOOD_INVOICES.stream(), EDGE_CASES.stream())
+			.forEach(invoice -> assertThat(formatter.format(invoice).toString())
+				.isEqualTo(Reporter.formatInvoice(invoice)));
+	}
+
+	@Test
+	public void testFormatOverdue() {
+		Stream.concat(GOOD_INVOICES.stream(), EDGE_CASES.stream())
+			.forEach(invoice -> assertThat(formatter.formatOverdue(invoice).toString())
+				.isEqualTo(Reporter.formatOverdueInvoice(invoice)));
+	}
+}
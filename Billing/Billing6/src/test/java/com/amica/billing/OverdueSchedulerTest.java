@@ -0,0 +1,146 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.db.MemoryPersistence;
+
+/**
+ * Unit test for {@link OverdueScheduler}. We run it on a clock that we
+ * move by hand, and tick it ourselves, over copies of the
+ * {@link TestUtility} invoices -- all of which are overdue already --
+ * plus invoices we create today.
+ */
+public class OverdueSchedulerTest {
+
+	/**
+	 * A clock that stands still until we move it.
+	 */
+	private static class TestClock extends Clock {
+		private Instant now;
+		private ZoneId zone = ZoneId.systemDefault();
+
+		public TestClock(Instant now) {
+			this.now = now;
+		}
+
+		public void advance(Duration duration) {
+			now = now.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return zone;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return now;
+		}
+	}
+
+	private Billing billing;
+	private OverdueScheduler scheduler;
+	private TestClock clock;
+	private List<Invoice> overdue;
+
+	private static List<Invoice> copies() {
+		return GOOD_INVOICES.stream()
+				.map(invoice -> new Invoice(invoice.getNumber(), invoice.getCustomer(),
+					invoice.getAmount(), invoice.getIssueDate(), invoice.getPaidDate()))
+				.toList();
+	}
+
+	@BeforeEach
+	public void setUp() {
+		billing = new Billing(new MemoryPersistence(GOOD_CUSTOMERS, copies()));
+		overdue = new ArrayList<>();
+		billing.addOverdueListener(overdue::add);
+
+		clock = new TestClock(LocalDate.now().atStartOfDay(ZoneId.systemDefault())
+				.plusHours(12).toInstant());
+		scheduler = new OverdueScheduler(billing);
+		scheduler.setClock(clock);
+		scheduler.setTickMillis(60000);
+		scheduler.start();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		scheduler.close();
+	}
+
+	private void advance(Duration duration) {
+		clock.advance(duration);
+		scheduler.tick();
+	}
+
+	@Test
+	public void testStart_AlreadyOverdueNotScheduled() {
+		assertThat(scheduler.getPendingCount()).isZero();
+		advance(Duration.ofDays(365));
+		assertThat(overdue).isEmpty();
+	}
+
+	@Test
+	public void testCreated_FiresWhenDueDatePasses() {
+		Invoice invoice = billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 100);
+		assertThat(scheduler.getPendingCount()).isEqualTo(1);
+
+		advance(Duration.ofHours(11).plusMinutes(59));
+		assertThat(overdue).isEmpty();
+		advance(Duration.ofMinutes(1));
+		assertThat(overdue).extracting(Invoice::getNumber)
+			.containsExactly(invoice.getNumber());
+		assertThat(scheduler.getPendingCount()).isZero();
+
+		advance(Duration.ofDays(1));
+		assertThat(overdue).hasSize(1);
+	}
+
+	@Test
+	public void testCreated_CreditTerms() {
+		Invoice invoice = billing.createInvoice(GOOD_CUSTOMERS.get(2).getName(), 100);
+		advance(Duration.ofDays(30));
+		assertThat(overdue).isEmpty();
+		advance(Duration.ofDays(1));
+		assertThat(overdue).extracting(Invoice::getNumber)
+			.containsExactly(invoice.getNumber());
+	}
+
+	@Test
+	public void testPaid_Cancelled() {
+		Invoice paid = billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 100);
+		Invoice unpaid = billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 200);
+		billing.payInvoice(paid.getNumber());
+		assertThat(scheduler.getPendingCount()).isEqualTo(1);
+
+		advance(Duration.ofDays(2));
+		assertThat(overdue).extracting(Invoice::getNumber)
+			.containsExactly(unpaid.getNumber());
+	}
+
+	@Test
+	public void testClose_StopsListening() {
+		scheduler.close();
+		billing.createInvoice(GOOD_CUSTOMERS.get(0).getName(), 100);
+		assertThat(scheduler.getPendingCount()).isZero();
+	}
+}
@@ -13,6 +13,8 @@ import org.junit.jupiter.api.Test;
 import com.amica.billing.parse.CSVParser;
 import com.amica.billing.parse.FlatParser;
 import com.amica.billing.parse.Parser;
+import com.amica.billing.parse.QuotedCSVParser;
+import com.amica.billing.parse.SnapshotParser;
 
 /**
  * Unit test for the {@link ParserFactory}
@@ -44,6 +46,16 @@ public class ParserFactoryTest {
 		assertThat(createParser("any.flat")).isInstanceOf(FlatParser.class);
 	}
 	
+	@Test
+	public void testCreateParser_QuotedCSVFilename () {
+		assertThat(createParser("any.qcsv")).isInstanceOf(QuotedCSVParser.class);
+	}
+	
+	@Test
+	public void testCreateParser_SnapshotFilename () {
+		assertThat(createParser("any.snap")).isInstanceOf(SnapshotParser.class);
+	}
+	
 	@Test
 	public void testCreateParser_FlatFilename_UpperCase() {
 		assertThat(createParser("any.FLAT")).isInstanceOf(FlatParser.class);
@@ -0,0 +1,136 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.ReceivablesAging.Bucket;
+import com.amica.billing.ReceivablesAging.CustomerAging;
+import com.amica.billing.db.MemoryPersistence;
+
+/**
+ * Unit test for {@link ReceivablesAging}. We age the
+ * {@link TestUtility} invoices, make changes, move the as-of date,
+ * and check the results against an aging built from scratch.
+ */
+public class ReceivablesAgingTest {
+
+	private ReceivablesAging aging;
+
+	@BeforeEach
+	public void setUp() {
+		aging = new ReceivablesAging(copies(), AS_OF_DATE);
+	}
+
+	/**
+	 * Our own instances of the test invoices, which other tests
+	 * in the same JVM, such as one that pays invoice 1, can't touch.
+	 */
+	private static List<Invoice> copies() {
+		return goodInvoices();
+	}
+
+	private static void assertSameAging(ReceivablesAging actual, ReceivablesAging expected) {
+		List<CustomerAging> actualRows = actual.getAging();
+		List<CustomerAging> expectedRows = expected.getAging();
+		assertThat(actualRows).extracting(CustomerAging::getCustomer)
+			.containsExactlyElementsOf(expectedRows.stream()
+				.map(CustomerAging::getCustomer).toList());
+		for (int i = 0; i < actualRows.size(); ++i) {
+			assertThat(actualRows.get(i).getAmounts())
+				.containsExactly(expectedRows.get(i).getAmounts());
+		}
+		for (Bucket bucket : Bucket.values()) {
+			assertThat(actual.getTotal(bucket)).isEqualTo(expected.getTotal(bucket));
+		}
+	}
+
+	@Test
+	public void testBucket_ForDaysPastDue() {
+		assertThat(Bucket.forDaysPastDue(-10)).isEqualTo(Bucket.CURRENT);
+		assertThat(Bucket.forDaysPastDue(0)).isEqualTo(Bucket.CURRENT);
+		assertThat(Bucket.forDaysPastDue(1)).isEqualTo(Bucket.PAST_DUE_1_30);
+		assertThat(Bucket.forDaysPastDue(31)).isEqualTo(Bucket.PAST_DUE_31_60);
+		assertThat(Bucket.forDaysPastDue(90)).isEqualTo(Bucket.PAST_DUE_61_90);
+		assertThat(Bucket.forDaysPastDue(91)).isEqualTo(Bucket.PAST_DUE_OVER_90);
+	}
+
+	@Test
+	public void testInitial() {
+		assertThat(aging.getAging()).extracting(CustomerAging::getCustomer)
+			.containsExactly(GOOD_CUSTOMERS.get(0), GOOD_CUSTOMERS.get(2), GOOD_CUSTOMERS.get(1));
+		assertThat(aging.getAging(GOOD_CUSTOMERS.get(1)).getAmounts())
+			.containsExactly(300, 400, 0, 0, 0);
+		assertThat(aging.getAging(GOOD_CUSTOMERS.get(1)).getTotal()).isEqualTo(700);
+		assertThat(aging.getAging(GOOD_CUSTOMERS.get(0)).getAmount(Bucket.PAST_DUE_1_30))
+			.isEqualTo(100);
+		assertThat(aging.getTotal(Bucket.CURRENT)).isEqualTo(300);
+		assertThat(aging.getTotal(Bucket.PAST_DUE_1_30)).isEqualTo(1100);
+	}
+
+	@Test
+	public void testPaid_Removed() {
+		Invoice paid = new Invoice(1, GOOD_CUSTOMERS.get(0), 100,
+				LocalDate.of(2022, 1, 4), AS_OF_DATE);
+		aging.accept(paid);
+		assertThat(aging.getAging(GOOD_CUSTOMERS.get(0))).isNull();
+		assertThat(aging.getTotal(Bucket.PAST_DUE_1_30)).isEqualTo(1000);
+	}
+
+	@Test
+	public void testCreated_Added() {
+		Invoice created = new Invoice(7, GOOD_CUSTOMERS.get(0), 700, AS_OF_DATE);
+		aging.accept(created);
+		aging.accept(created);
+		assertThat(aging.getAging(GOOD_CUSTOMERS.get(0)).getAmounts())
+			.containsExactly(700, 100, 0, 0, 0);
+	}
+
+	@Test
+	public void testSetAsOf_Forward() {
+		for (LocalDate asOf = AS_OF_DATE; asOf.isBefore(AS_OF_DATE.plusDays(150));
+				asOf = asOf.plusDays(7)) {
+			aging.setAsOf(asOf);
+			assertSameAging(aging, new ReceivablesAging(copies(), asOf));
+		}
+		assertThat(aging.getTotal(Bucket.PAST_DUE_OVER_90)).isEqualTo(1400);
+	}
+
+	@Test
+	public void testSetAsOf_Jump() {
+		LocalDate later = AS_OF_DATE.plusDays(75);
+		aging.setAsOf(later);
+		assertSameAging(aging, new ReceivablesAging(copies(), later));
+	}
+
+	@Test
+	public void testSetAsOf_Back() {
+		aging.setAsOf(AS_OF_DATE.plusDays(100));
+		LocalDate earlier = AS_OF_DATE.minusDays(30);
+		aging.setAsOf(earlier);
+		assertSameAging(aging, new ReceivablesAging(copies(), earlier));
+		assertThat(aging.getAsOf()).isEqualTo(earlier);
+	}
+
+	@Test
+	public void testAttachTo_FollowsBilling() {
+		List<Invoice> invoices = copies();
+		Billing billing = new Billing(new MemoryPersistence(GOOD_CUSTOMERS, invoices));
+		ReceivablesAging attached = ReceivablesAging.attachTo(billing, AS_OF_DATE);
+
+		Stream.of(1, 3, 6).forEach(billing::payInvoice);
+		billing.createInvoice(GOOD_CUSTOMERS.get(2).getName(), 250);
+		attached.setAsOf(AS_OF_DATE.plusDays(45));
+
+		assertSameAging(attached, new ReceivablesAging
+			(billing.getInvoices().values(), AS_OF_DATE.plusDays(45)));
+		assertThat(attached.getAging(GOOD_CUSTOMERS.get(0))).isNull();
+		assertThat(attached.getAging(GOOD_CUSTOMERS.get(2)).getTotal()).isEqualTo(250);
+	}
+}
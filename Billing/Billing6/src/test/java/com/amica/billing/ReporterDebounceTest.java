@@ -0,0 +1,144 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test for the debounced regeneration mode of the {@link Reporter}.
+ * We fire bursts of change events at a reporter over a mock {@link Billing}
+ * object, and check how many times each report is generated, and that
+ * after a flush the files are the same as those generated synchronously.
+ */
+public class ReporterDebounceTest {
+
+	public static final long DEBOUNCE_MILLIS = 200;
+	public static final int EVENTS = 1000;
+
+	private Billing mockBilling;
+	private Reporter reporter;
+	private Consumer<Customer> customerListener;
+	private Consumer<Invoice> invoiceListener;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked") // argument captors
+	public void setUp() throws IOException {
+		Files.createDirectories(Paths.get(OUTPUT_FOLDER));
+
+		mockBilling = mock(Billing.class);
+		when(mockBilling.getInvoicesOrderedByNumber())
+				.thenAnswer(invocation -> GOOD_INVOICES.stream());
+		when(mockBilling.getInvoicesGroupedByCustomer()).thenReturn(
+				GOOD_INVOICES.stream().collect(Collectors.groupingBy(Invoice::getCustomer)));
+		when(mockBilling.getInvoicesForCustomer(any())).thenAnswer(invocation ->
+				GOOD_INVOICES.stream().filter(invoice -> invoice.getCustomer()
+						.equals(invocation.getArgument(0))));
+		when(mockBilling.getOverdueInvoices(AS_OF_DATE))
+				.thenAnswer(invocation -> GOOD_INVOICES.stream().limit(2));
+		when(mockBilling.getCustomersAndVolumeStream())
+				.thenAnswer(invocation -> Stream.empty());
+
+		reporter = new Reporter(mockBilling);
+		reporter.setOutputFolder(Paths.get(OUTPUT_FOLDER));
+		reporter.setAsOf(AS_OF_DATE);
+		reporter.setDebounceMillis(DEBOUNCE_MILLIS);
+
+		ArgumentCaptor<Consumer<Customer>> customerCaptor =
+				ArgumentCaptor.forClass(Consumer.class);
+		ArgumentCaptor<Consumer<Invoice>> invoiceCaptor =
+				ArgumentCaptor.forClass(Consumer.class);
+		verify(mockBilling).addCustomerListener(customerCaptor.capture());
+		verify(mockBilling).addInvoiceListener(invoiceCaptor.capture());
+		customerListener = customerCaptor.getValue();
+		invoiceListener = invoiceCaptor.getValue();
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		reporter.close();
+	}
+
+	private static List<String> readReport(String filename) throws IOException {
+		return Files.readAllLines(Paths.get(OUTPUT_FOLDER, filename));
+	}
+
+	@Test
+	public void testEvents_Coalesced() throws Exception {
+		for (int i = 0; i < EVENTS; ++i) {
+			invoiceListener.accept(GOOD_INVOICES.get(i % GOOD_INVOICES.size()));
+		}
+		verify(mockBilling, never()).getInvoicesOrderedByNumber();
+
+		reporter.flush();
+		verify(mockBilling, atLeastOnce()).getInvoicesOrderedByNumber();
+		verify(mockBilling, atMost(2)).getInvoicesOrderedByNumber();
+		verify(mockBilling, atMost(2)).getCustomersAndVolumeStream();
+	}
+
+	@Test
+	public void testCustomerEvents_OnlyVolumeReport() throws Exception {
+		for (int i = 0; i < EVENTS; ++i) {
+			customerListener.accept(GOOD_CUSTOMERS.get(0));
+		}
+		reporter.flush();
+		verify(mockBilling, never()).getInvoicesOrderedByNumber();
+		verify(mockBilling, times(1)).getCustomersAndVolumeStream();
+	}
+
+	@Test
+	public void testEvents_RegeneratedInBackground() throws Exception {
+		invoiceListener.accept(GOOD_INVOICES.get(0));
+		Thread.sleep(DEBOUNCE_MILLIS * 5);
+		verify(mockBilling, times(1)).getInvoicesOrderedByNumber();
+	}
+
+	@Test
+	public void testFlush_SameAsSynchronous() throws Exception {
+		String[] filenames = { Reporter.FILENAME_INVOICES_BY_NUMBER,
+			Reporter.FILENAME_INVOICES_BY_CUSTOMER,
+			Reporter.FILENAME_OVERDUE_INVOICES,
+			Reporter.FILENAME_CUSTOMERS_AND_VOLUME };
+
+		reporter.setDebounceMillis(0);
+		invoiceListener.accept(GOOD_INVOICES.get(0));
+		List<List<String>> expected = new ArrayList<>();
+		for (String filename : filenames) {
+			expected.add(readReport(filename));
+			Files.delete(Paths.get(OUTPUT_FOLDER, filename));
+		}
+
+		reporter.setDebounceMillis(DEBOUNCE_MILLIS * 50);
+		invoiceListener.accept(GOOD_INVOICES.get(0));
+		for (String filename : filenames) {
+			assertThat(Paths.get(OUTPUT_FOLDER, filename)).doesNotExist();
+		}
+		reporter.flush();
+		for (int i = 0; i < filenames.length; ++i) {
+			Path path = Paths.get(OUTPUT_FOLDER, filenames[i]);
+			assertThat(readReport(filenames[i])).as(path.toString())
+					.isEqualTo(expected.get(i));
+		}
+	}
+}
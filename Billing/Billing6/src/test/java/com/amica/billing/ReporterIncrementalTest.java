@@ -0,0 +1,158 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Correctness harness for incremental report updates. We attach two
+ * reporters to one {@link Billing} object, one incremental and one that
+ * regenerates every report on every event, put the billing object through
+ * a random series of changes, and check that the two sets of report files
+ * are identical after each change.
+ */
+public class ReporterIncrementalTest {
+
+	public static final String INCREMENTAL_FOLDER = OUTPUT_FOLDER + "/incremental";
+	public static final String FULL_FOLDER = OUTPUT_FOLDER + "/full";
+	public static final long SEED = 20221;
+	public static final int CHANGES = 200;
+
+	public static final String[] FILENAMES = {
+		Reporter.FILENAME_INVOICES_BY_NUMBER,
+		Reporter.FILENAME_INVOICES_BY_CUSTOMER,
+		Reporter.FILENAME_OVERDUE_INVOICES,
+		Reporter.FILENAME_CUSTOMERS_AND_VOLUME,
+		Reporter.FILENAME_RECEIVABLES_AGING
+	};
+
+	private Billing billing;
+	private Reporter incremental;
+	private Reporter full;
+	private Random random = new Random(SEED);
+
+	private static Reporter createReporter
+			(Billing billing, String folder, boolean incremental)
+			throws IOException {
+		Files.createDirectories(Paths.get(folder));
+		Reporter reporter = new Reporter(billing);
+		reporter.setOutputFolder(Paths.get(folder));
+		reporter.setIncremental(incremental);
+		return reporter;
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		BillingIntegrationTest.setUpFiles();
+		billing = spy(BillingIntegrationTest.createBilling());
+		incremental = createReporter(billing, INCREMENTAL_FOLDER, true);
+		full = createReporter(billing, FULL_FOLDER, false);
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		incremental.close();
+		full.close();
+	}
+
+	private void assertSameReports(String step) throws IOException {
+		for (String filename : FILENAMES) {
+			List<String> expected = Files.readAllLines(Paths.get(FULL_FOLDER, filename));
+			Path actual = Paths.get(INCREMENTAL_FOLDER, filename);
+			assertThat(Files.readAllLines(actual))
+				.as(step + ": " + actual).isEqualTo(expected);
+		}
+	}
+
+	private String randomCustomerName() {
+		List<String> names = List.copyOf(billing.getCustomers().keySet());
+		return names.get(random.nextInt(names.size()));
+	}
+
+	/**
+	 * Makes one random change: usually a new invoice or a payment,
+	 * and now and then a new customer. Returns a description of it.
+	 */
+	private String randomChange(int index) {
+		int choice = random.nextInt(10);
+		if (choice == 0) {
+			String lastName = "Customer" + index;
+			billing.createCustomer("New", lastName, Terms.values()
+					[random.nextInt(Terms.values().length)]);
+			return "create customer " + lastName;
+		}
+
+		List<Integer> unpaid = billing.getInvoices().values().stream()
+				.filter(invoice -> invoice.getPaidDate().isEmpty())
+				.map(Invoice::getNumber).sorted().toList();
+		if (choice < 5 && !unpaid.isEmpty()) {
+			int number = unpaid.get(random.nextInt(unpaid.size()));
+			billing.payInvoice(number);
+			return "pay invoice " + number;
+		}
+
+		String name = randomCustomerName();
+		Invoice invoice = billing.createInvoice(name, random.nextInt(100000) / 100.0);
+		return "create invoice " + invoice.getNumber() + " for " + name;
+	}
+
+	@Test
+	public void testRandomChanges_SameAsFull() throws IOException {
+		for (int i = 0; i < CHANGES; ++i) {
+			String step = randomChange(i);
+			assertSameReports(step);
+		}
+	}
+
+	@Test
+	public void testRandomChanges_Debounced() throws Exception {
+		incremental.setDebounceMillis(50);
+		for (int i = 0; i < CHANGES; ++i) {
+			String step = randomChange(i);
+			if (i % 10 == 9) {
+				incremental.flush();
+				assertSameReports(step);
+			}
+		}
+		incremental.flush();
+		assertSameReports("final");
+	}
+
+	/**
+	 * Only the full reporter should query for these reports.
+	 */
+	@Test
+	public void testNewInvoice_Appended() throws IOException {
+		billing.createInvoice(randomCustomerName(), 100);
+		clearInvocations(billing);
+
+		billing.createInvoice(randomCustomerName(), 200);
+		assertSameReports("second invoice");
+		verify(billing, times(1)).getInvoicesOrderedByNumber();
+		verify(billing, times(1)).getInvoicesGroupedByCustomer();
+	}
+
+	@Test
+	public void testPayment_NotOverdue_OverdueReportUntouched() throws IOException {
+		int number = billing.createInvoice(randomCustomerName(), 100).getNumber();
+		Path overdue = Paths.get(INCREMENTAL_FOLDER, Reporter.FILENAME_OVERDUE_INVOICES);
+		Files.delete(overdue);
+
+		billing.payInvoice(number);
+		assertThat(overdue).doesNotExist();
+	}
+}
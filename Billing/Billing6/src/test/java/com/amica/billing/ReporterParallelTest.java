@@ -0,0 +1,118 @@
+package com.amica.billing;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Reporter.Report;
+
+/**
+ * Test for parallel generation of all reports. We generate them in
+ * parallel into one folder and one after another into another, from the
+ * "country singers" data, and check that the files are the same.
+ */
+public class ReporterParallelTest {
+
+	public static final String PARALLEL_FOLDER = OUTPUT_FOLDER + "/parallel";
+	public static final String SEQUENTIAL_FOLDER = OUTPUT_FOLDER + "/sequential";
+
+	private Billing billing;
+	private Reporter reporter;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		BillingIntegrationTest.setUpFiles();
+		Files.createDirectories(Paths.get(PARALLEL_FOLDER));
+		Files.createDirectories(Paths.get(SEQUENTIAL_FOLDER));
+		billing = BillingIntegrationTest.createBilling();
+
+		reporter = new Reporter(billing);
+		reporter.setOutputFolder(Paths.get(SEQUENTIAL_FOLDER));
+		for (Report report : Report.values()) {
+			report.generate(reporter);
+		}
+		reporter.setOutputFolder(Paths.get(PARALLEL_FOLDER));
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		reporter.close();
+	}
+
+	private void assertSameReports() throws IOException {
+		for (String filename : ReporterIncrementalTest.FILENAMES) {
+			assertThat(Files.readAllLines(Paths.get(PARALLEL_FOLDER, filename)))
+				.as(filename).isEqualTo
+					(Files.readAllLines(Paths.get(SEQUENTIAL_FOLDER, filename)));
+		}
+	}
+
+	@Test
+	public void testGenerateAllReports() throws IOException {
+		Map<Report,CompletableFuture<Duration>> results = reporter.generateAllReports();
+		assertThat(results).containsOnlyKeys(Report.values());
+		CompletableFuture.allOf(results.values().toArray(CompletableFuture[]::new)).join();
+
+		assertSameReports();
+		assertThat(reporter.getTimings()).containsOnlyKeys(Report.values());
+		for (Report report : Report.values()) {
+			assertThat(reporter.getTimings().get(report))
+				.isEqualTo(results.get(report).join());
+		}
+	}
+
+	@Test
+	public void testGenerateAllReports_GivenExecutor() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			reporter.setReportExecutor(executor);
+			CompletableFuture.allOf(reporter.generateAllReports().values()
+					.toArray(CompletableFuture[]::new)).join();
+			assertSameReports();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testGenerateAllReports_Sequential() throws IOException {
+		reporter.setParallelism(0);
+		Map<Report,CompletableFuture<Duration>> results = reporter.generateAllReports();
+		assertThat(results.values()).allMatch(CompletableFuture::isDone);
+		assertSameReports();
+	}
+
+	/**
+	 * Changes after the snapshot is taken don't show up in the reports.
+	 */
+	@Test
+	public void testGenerateAllReports_Snapshot() throws IOException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			CompletableFuture<Void> gate = new CompletableFuture<>();
+			executor.execute(gate::join);
+			reporter.setReportExecutor(executor);
+
+			Map<Report,CompletableFuture<Duration>> results = reporter.generateAllReports();
+			billing.payInvoice(BillingIntegrationTest.PAY_INVOICE_NUMBER);
+			gate.complete(null);
+			CompletableFuture.allOf(results.values()
+					.toArray(CompletableFuture[]::new)).join();
+			assertSameReports();
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
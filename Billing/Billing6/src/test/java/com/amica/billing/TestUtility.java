@@ -3,7 +3,11 @@ package com.amica.billing;
 import static org.assertj.core.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
@@ -14,6 +18,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import com.amica.billing.parse.Parser;
 
 /**
  * This class gathers various constants, data sets, and utility methods 
@@ -41,13 +46,22 @@ public class TestUtility {
 
 	public static final List<Customer> BAD_CUSTOMERS = GOOD_CUSTOMERS.subList(2, 3);
 
-	public static final List<Invoice> GOOD_INVOICES = Stream.of
-		(new Invoice(1, GOOD_CUSTOMERS.get(0), 100, LocalDate.of(2022,  1,  4)),
-		 new Invoice(2, GOOD_CUSTOMERS.get(1), 200, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 5)),
-		 new Invoice(3, GOOD_CUSTOMERS.get(1), 300, LocalDate.of(2022,  1,  6)),
-		 new Invoice(4, GOOD_CUSTOMERS.get(1), 400, LocalDate.of(2021, 11, 11)),
-		 new Invoice(5, GOOD_CUSTOMERS.get(2), 500, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 8)),
-		 new Invoice(6, GOOD_CUSTOMERS.get(2), 600, LocalDate.of(2021, 12,  4))).toList();
+	/**
+	 * Creates new instances of the good invoices, for tests that change
+	 * them, or that mustn't see changes that other tests have made to
+	 * the shared {@link #GOOD_INVOICES}.
+	 */
+	public static List<Invoice> goodInvoices() {
+		return Stream.of
+			(new Invoice(1, GOOD_CUSTOMERS.get(0), 100, LocalDate.of(2022,  1,  4)),
+			 new Invoice(2, GOOD_CUSTOMERS.get(1), 200, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 5)),
+			 new Invoice(3, GOOD_CUSTOMERS.get(1), 300, LocalDate.of(2022,  1,  6)),
+			 new Invoice(4, GOOD_CUSTOMERS.get(1), 400, LocalDate.of(2021, 11, 11)),
+			 new Invoice(5, GOOD_CUSTOMERS.get(2), 500, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 8)),
+			 new Invoice(6, GOOD_CUSTOMERS.get(2), 600, LocalDate.of(2021, 12,  4))).toList();
+	}
+
+	public static final List<Invoice> GOOD_INVOICES = goodInvoices();
 	
 	public static final Map<Integer,Invoice> GOOD_INVOICES_MAP =
 			GOOD_INVOICES.stream().collect(Collectors.toMap
@@ -56,6 +70,28 @@ public class TestUtility {
 	public static final List<Invoice> BAD_INVOICES = IntStream.of(0, 1, 5)
 			.mapToObj(GOOD_INVOICES::get).toList();
 	
+	/**
+	 * Encodes the given lines as UTF-8 text in a buffer, 
+	 * separated by the given line break.
+	 */
+	public static ByteBuffer toBuffer(List<String> lines, String lineBreak) {
+		return ByteBuffer.wrap(String.join(lineBreak, lines)
+				.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Has the given parser write the given invoices to an in-memory channel,
+	 * and returns the lines that it wrote.
+	 */
+	public static List<String> produceInvoicesToChannel
+			(Parser parser, Stream<Invoice> invoices) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		parser.produceInvoices(invoices, Channels.newChannel(out));
+		String text = out.toString(StandardCharsets.UTF_8);
+		assertThat(text).endsWith(System.lineSeparator());
+		return text.lines().toList();
+	}
+	
 	/**
 	 * Loads the contents of files at the two given paths,
 	 * and asserts that they are the same, first subjecting the content of
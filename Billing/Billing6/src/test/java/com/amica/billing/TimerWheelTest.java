@@ -0,0 +1,120 @@
+package com.amica.billing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit test for {@link TimerWheel}. We use a small wheel -- four slots on
+ * each of three levels -- so that deadlines quickly reach the higher
+ * levels and beyond.
+ */
+public class TimerWheelTest {
+
+	private TimerWheel<Integer> wheel;
+	private List<Integer> expired;
+
+	@BeforeEach
+	public void setUp() {
+		wheel = new TimerWheel<>(4, 3, 100);
+		expired = new ArrayList<>();
+	}
+
+	private void advanceTo(long tick) {
+		wheel.advanceTo(tick, expired::add);
+	}
+
+	@Test
+	public void testConstructor_BadSize() {
+		assertThatThrownBy(() -> new TimerWheel<>(5, 2, 0))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void testExpiresOnDeadline() {
+		wheel.schedule(1, 103);
+		advanceTo(102);
+		assertThat(expired).isEmpty();
+		advanceTo(103);
+		assertThat(expired).containsExactly(1);
+		assertThat(wheel.size()).isZero();
+	}
+
+	@Test
+	public void testExpiresInOrder() {
+		wheel.schedule(3, 140);
+		wheel.schedule(1, 101);
+		wheel.schedule(2, 117);
+		advanceTo(200);
+		assertThat(expired).containsExactly(1, 2, 3);
+	}
+
+	@Test
+	public void testPastDeadline_ExpiresOnNextAdvance() {
+		wheel.schedule(1, 90);
+		wheel.schedule(2, 100);
+		advanceTo(100);
+		assertThat(expired).containsExactlyInAnyOrder(1, 2);
+	}
+
+	@Test
+	public void testCancel() {
+		TimerWheel.Timeout<Integer> timeout = wheel.schedule(1, 120);
+		wheel.schedule(2, 120);
+		assertThat(wheel.cancel(timeout)).isTrue();
+		assertThat(timeout.isPending()).isFalse();
+		assertThat(wheel.cancel(timeout)).isFalse();
+		advanceTo(130);
+		assertThat(expired).containsExactly(2);
+	}
+
+	@Test
+	public void testCancel_AfterExpiry() {
+		TimerWheel.Timeout<Integer> timeout = wheel.schedule(1, 101);
+		advanceTo(101);
+		assertThat(wheel.cancel(timeout)).isFalse();
+		assertThat(wheel.size()).isZero();
+	}
+
+	@Test
+	public void testBeyondTopLevel() {
+		wheel.schedule(1, 100 + 64 * 3 + 5);
+		advanceTo(100 + 64 * 3 + 4);
+		assertThat(expired).isEmpty();
+		advanceTo(100 + 64 * 3 + 5);
+		assertThat(expired).containsExactly(1);
+	}
+
+	@Test
+	public void testJumpsWhenEmpty() {
+		advanceTo(1_000_000_000L);
+		assertThat(wheel.getCurrentTick()).isEqualTo(1_000_000_000L);
+		wheel.schedule(1, 1_000_000_010L);
+		advanceTo(1_000_000_010L);
+		assertThat(expired).containsExactly(1);
+	}
+
+	@Test
+	public void testRandom_EachOnItsTick() {
+		Random random = new Random(42);
+		long[] deadlines = new long[500];
+		for (int i = 0; i < deadlines.length; ++i) {
+			deadlines[i] = 101 + random.nextInt(300);
+			wheel.schedule(i, deadlines[i]);
+		}
+		for (long tick = 101; tick <= 401; ++tick) {
+			expired.clear();
+			advanceTo(tick);
+			for (int item : expired) {
+				assertThat(deadlines[item]).isEqualTo(tick);
+			}
+		}
+		assertThat(wheel.size()).isZero();
+	}
+}
@@ -0,0 +1,106 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
+/**
+ * Unit test for the {@link CustomerDictionary}, and for the indexes and
+ * volumes that share one, using the {@link com.amica.billing.TestUtility}
+ * customers.
+ */
+public class CustomerDictionaryTest {
+
+	private CustomerDictionary dictionary;
+
+	@BeforeEach
+	public void setUp() {
+		dictionary = new CustomerDictionary();
+		GOOD_CUSTOMERS.forEach(dictionary::register);
+	}
+
+	@Test
+	public void testRegister_DenseIDs() {
+		assertThat(dictionary.size()).isEqualTo(3);
+		for (int id = 0; id < GOOD_CUSTOMERS.size(); ++id) {
+			assertThat(dictionary.getCustomer(id)).isSameAs(GOOD_CUSTOMERS.get(id));
+			assertThat(dictionary.getId(GOOD_CUSTOMERS.get(id))).isEqualTo(id);
+		}
+	}
+
+	@Test
+	public void testRegister_Replaces() {
+		Customer newer = new Customer("Customer", "Two", Terms.CREDIT_90);
+		assertThat(dictionary.register(newer)).isEqualTo(1);
+		assertThat(dictionary.getCustomer(1)).isSameAs(newer);
+		assertThat(dictionary.size()).isEqualTo(3);
+
+		Customer other = new Customer("Customer", "Two", Terms.CASH);
+		assertThat(dictionary.idOf(other)).isEqualTo(1);
+		assertThat(dictionary.getCustomer(1)).isSameAs(newer);
+	}
+
+	@Test
+	public void testGetId_ByName() {
+		assertThat(dictionary.getId("Customer Three")).isEqualTo(2);
+		assertThat(dictionary.getId("Customer", "Three")).isEqualTo(2);
+		assertThat(dictionary.getId("Customer Four")).isEqualTo(CustomerDictionary.NONE);
+		assertThat(dictionary.getId("CustomerThree")).isEqualTo(CustomerDictionary.NONE);
+		assertThat(dictionary.getId("Customer", "Four")).isEqualTo(CustomerDictionary.NONE);
+	}
+
+	@Test
+	public void testNamePartsInterned() {
+		Customer customer = new Customer(new String("Customer"), "Four", Terms.CASH);
+		int id = dictionary.register(customer);
+		assertThat(dictionary.getFirstName(id)).isSameAs(dictionary.getFirstName(0));
+		assertThat(dictionary.getLastName(id)).isEqualTo("Four");
+	}
+
+	@Test
+	public void testGrows() {
+		for (int i = 0; i < 1000; ++i) {
+			dictionary.register(new Customer("First" + i % 7, "Last" + i, Terms.CASH));
+		}
+		assertThat(dictionary.size()).isEqualTo(1003);
+		for (int i = 0; i < 1000; ++i) {
+			assertThat(dictionary.getId("First" + i % 7 + " Last" + i)).isEqualTo(i + 3);
+		}
+		assertThat(dictionary.getId("Customer One")).isZero();
+	}
+
+	@Test
+	public void testClear() {
+		dictionary.clear();
+		assertThat(dictionary.size()).isZero();
+		assertThat(dictionary.getId(GOOD_CUSTOMERS.get(0))).isEqualTo(CustomerDictionary.NONE);
+		assertThat(dictionary.register(GOOD_CUSTOMERS.get(2))).isZero();
+	}
+
+	@Test
+	public void testSharedByIndexAndVolumes() {
+		InvoiceIndex index = new InvoiceIndex(dictionary);
+		CustomerVolumes volumes = new CustomerVolumes(dictionary);
+		index.rebuild(GOOD_INVOICES.stream());
+		volumes.rebuild(GOOD_INVOICES.stream());
+
+		Customer four = new Customer("Customer", "Four", Terms.CASH);
+		Invoice invoice = new Invoice(7, four, 700, AS_OF_DATE);
+		index.add(invoice);
+		volumes.add(invoice);
+		assertThat(dictionary.getId(four)).isEqualTo(3);
+		assertThat(index.getInvoicesForCustomer("Customer Four")).containsExactly(invoice);
+		assertThat(volumes.getVolume(four)).isEqualTo(700);
+		assertThat(index.getInvoicesGroupedByCustomer().keySet())
+			.containsExactlyElementsOf(List.of(GOOD_CUSTOMERS.get(0),
+				GOOD_CUSTOMERS.get(1), GOOD_CUSTOMERS.get(2), four));
+	}
+}
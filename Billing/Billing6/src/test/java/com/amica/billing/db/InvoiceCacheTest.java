@@ -0,0 +1,289 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * Unit test for the {@link InvoiceCache}, and for a
+ * {@link CachingPersistence} in bounded mode. The backing store is
+ * a map of the {@link com.amica.billing.TestUtility} invoices, and we
+ * record each invoice that's read from it by number.
+ */
+public class InvoiceCacheTest {
+
+	public static final int CAPACITY = 2;
+
+	private Map<Integer,Invoice> store;
+	private List<Integer> reads = new ArrayList<>();
+	private InvoiceCache cache;
+
+	private Invoice read(int number) {
+		reads.add(number);
+		return store.get(number);
+	}
+
+	private void load(InvoiceCache cache) {
+		store.values().forEach(cache::loaded);
+	}
+
+	@BeforeEach
+	public void setUp() {
+		store = GOOD_INVOICES.stream().collect(Collectors.toMap
+				(Invoice::getNumber, Function.identity(), (a, b) -> b,
+					TreeMap::new));
+		cache = new InvoiceCache(CAPACITY, this::read, () -> store.values().stream());
+		load(cache);
+	}
+
+	@Test
+	public void testLoad_KeepsLatest() {
+		assertThat(cache).hasSize(6);
+		assertThat(cache.getCachedCount()).isEqualTo(CAPACITY);
+		assertThat(cache.getEvictions()).isZero();
+		assertThat(cache.getHighestNumber()).isEqualTo(6);
+
+		assertThat(cache.get(6)).isSameAs(store.get(6));
+		assertThat(cache.getHits()).isEqualTo(1);
+		assertThat(reads).isEmpty();
+	}
+
+	@Test
+	public void testGet_ReadsThroughAndEvicts() {
+		assertThat(cache.get(1)).isSameAs(store.get(1));
+		assertThat(reads).containsExactly(1);
+		assertThat(cache.getMisses()).isEqualTo(1);
+		assertThat(cache.getEvictions()).isEqualTo(1);
+
+		cache.get(1);
+		assertThat(reads).containsExactly(1);
+		assertThat(cache.getHits()).isEqualTo(1);
+	}
+
+	@Test
+	public void testGet_LeastRecentlyUsedIsEvicted() {
+		cache.get(5);
+		cache.get(1);
+		cache.get(5);
+		cache.get(6);
+		assertThat(reads).containsExactly(1, 6);
+	}
+
+	@Test
+	public void testGet_Unknown() {
+		assertThat(cache.get(99)).isNull();
+		assertThat(cache.containsKey(99)).isFalse();
+		assertThat(reads).isEmpty();
+		assertThat(cache.getMisses()).isZero();
+	}
+
+	@Test
+	public void testGet_ReadsOutsideLock() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		InvoiceCache slow = new InvoiceCache(CAPACITY, number -> {
+			reading.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return store.get(number);
+		}, () -> store.values().stream());
+		load(slow);
+
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Future<Invoice> miss = pool.submit(() -> slow.get(1));
+			reading.await();
+			Invoice saved = new Invoice(1, GOOD_CUSTOMERS.get(0), 150,
+					LocalDate.of(2022, 1, 4));
+			assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+				assertThat(slow.get(6)).isSameAs(store.get(6));
+				slow.put(1, saved);
+			});
+			release.countDown();
+			assertThat(miss.get(5, TimeUnit.SECONDS)).isSameAs(saved);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testScan_ClosesSource() {
+		AtomicInteger closed = new AtomicInteger();
+		InvoiceCache counting = new InvoiceCache(CAPACITY, this::read,
+				() -> store.values().stream().onClose(closed::incrementAndGet));
+		load(counting);
+
+		List<Invoice> all = new ArrayList<>();
+		counting.values().forEach(all::add);
+		assertThat(all).hasSize(6);
+		assertThat(closed).hasValue(1);
+		try (Stream<Invoice> scan = counting.scan()) {
+			assertThat(scan.findFirst()).isPresent();
+		}
+		assertThat(closed).hasValue(2);
+	}
+
+	@Test
+	public void testPin() {
+		cache = new InvoiceCache(CAPACITY, this::read, () -> store.values().stream());
+		cache.pin(GOOD_CUSTOMERS.get(1).getName());
+		load(cache);
+		assertThat(cache.getCachedCount()).isEqualTo(3 + CAPACITY);
+
+		cache.get(1);
+		cache.get(2);
+		cache.get(3);
+		cache.get(4);
+		assertThat(reads).containsExactly(1);
+	}
+
+	@Test
+	public void testUnpin() {
+		cache.pin(GOOD_CUSTOMERS.get(2).getName());
+		cache.unpin(GOOD_CUSTOMERS.get(2).getName());
+		assertThat(cache.getCachedCount()).isEqualTo(CAPACITY);
+	}
+
+	@Test
+	public void testPut_ChangesShowInScan() {
+		Invoice paid = new Invoice(6, GOOD_CUSTOMERS.get(2), 600,
+				LocalDate.of(2021, 12, 4), LocalDate.of(2022, 1, 1));
+		assertThat(cache.put(6, paid)).isSameAs(store.get(6));
+		Invoice stored = store.get(6);
+		assertThat(cache.values()).hasSize(6)
+			.anyMatch(invoice -> invoice == paid)
+			.noneMatch(invoice -> invoice == stored);
+
+		Invoice added = new Invoice(7, GOOD_CUSTOMERS.get(0), 700, AS_OF_DATE);
+		assertThat(cache.put(7, added)).isNull();
+		assertThat(cache).hasSize(7);
+		assertThat(cache.getHits()).isZero();
+	}
+
+	/**
+	 * A caching persistence service over the store, in bounded mode.
+	 */
+	private class StorePersistence extends CachingPersistence {
+		@Override
+		protected Stream<Customer> readCustomers() {
+			return GOOD_CUSTOMERS.stream();
+		}
+
+		@Override
+		protected Stream<Invoice> readInvoices() {
+			return store.values().stream();
+		}
+
+		@Override
+		protected Invoice readInvoice(int number) {
+			return read(number);
+		}
+
+		@Override
+		protected void writeCustomer(Customer customer) {
+		}
+
+		@Override
+		protected void writeInvoice(Invoice invoice) {
+			store.put(invoice.getNumber(), invoice);
+		}
+	}
+
+	@Test
+	public void testCachingPersistence_Bounded() {
+		CachingPersistence persistence = new StorePersistence();
+		persistence.setMaxCachedInvoices(CAPACITY);
+		persistence.setPinnedCustomers(List.of(GOOD_CUSTOMERS.get(0).getName()));
+		persistence.load();
+
+		assertThat(persistence.getInvoiceCache()).isNotNull();
+		assertThat(persistence.getInvoices()).hasSize(6);
+		assertThat(persistence.getVolumeForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(900);
+		assertThat(persistence.getInvoicesForCustomer(GOOD_CUSTOMERS.get(1)))
+			.extracting(Invoice::getNumber).containsExactly(2, 3, 4);
+		assertThat(persistence.getOverdueInvoices(AS_OF_DATE))
+			.extracting(Invoice::getNumber).containsExactly(4, 6, 1);
+
+		assertThat(persistence.getInvoices().get(1)).isSameAs(store.get(1));
+		assertThat(reads).isEmpty();
+		assertThat(persistence.nextInvoiceNumber()).isEqualTo(7);
+	}
+
+	@Test
+	public void testCachingPersistence_Bounded_SaveUncached() {
+		CachingPersistence persistence = new StorePersistence();
+		persistence.setMaxCachedInvoices(CAPACITY);
+		persistence.load();
+
+		persistence.saveInvoice(new Invoice(3, GOOD_CUSTOMERS.get(1), 350,
+				LocalDate.of(2022, 1, 6)));
+		assertThat(reads).containsExactly(3);
+		assertThat(persistence.getVolumeForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(950);
+		assertThat(persistence.getInvoiceCountForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(3);
+	}
+
+	/**
+	 * With columns, the volumes come from the rows, so replacing
+	 * an uncached invoice doesn't read its stored version.
+	 */
+	@Test
+	public void testCachingPersistence_Bounded_SaveUncachedWithColumns() {
+		CachingPersistence persistence = new StorePersistence();
+		persistence.setMaxCachedInvoices(CAPACITY);
+		persistence.setColumnar(true);
+		persistence.load();
+		assertThat(persistence.getVolumeForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(900);
+
+		persistence.saveInvoice(new Invoice(3, GOOD_CUSTOMERS.get(1), 350,
+				LocalDate.of(2022, 1, 6)));
+		assertThat(reads).isEmpty();
+		assertThat(persistence.getVolumeForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(950);
+		assertThat(persistence.getInvoiceCountForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(3);
+	}
+
+	/**
+	 * Overdue invoices named by the columns are read in one pass,
+	 * not looked up one at a time, and don't change the cache.
+	 */
+	@Test
+	public void testCachingPersistence_Bounded_OverdueFromColumns() {
+		CachingPersistence persistence = new StorePersistence();
+		persistence.setMaxCachedInvoices(CAPACITY);
+		persistence.setColumnar(true);
+		persistence.load();
+		InvoiceCache cache = persistence.getInvoiceCache();
+		int cached = cache.getCachedCount();
+
+		assertThat(persistence.getOverdueInvoices(AS_OF_DATE))
+			.extracting(Invoice::getNumber).containsExactly(4, 6, 1);
+		assertThat(reads).isEmpty();
+		assertThat(cache.getHits()).isZero();
+		assertThat(cache.getMisses()).isZero();
+		assertThat(cache.getCachedCount()).isEqualTo(cached);
+	}
+}
@@ -0,0 +1,82 @@
+package com.amica.billing.db;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
+/**
+ * JMH benchmark of the overdue query over {@link InvoiceColumns},
+ * compared with the same query over a list of invoice objects.
+ * Run from the test classpath, for example with this class's main method;
+ * add <code>-prof gc</code> on the JMH command line to see allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InvoiceColumnsBenchmark {
+
+	public static final int CUSTOMERS = 100;
+	public static final LocalDate AS_OF = LocalDate.of(2023, 1, 1);
+
+	@Param({ "10000", "100000", "1000000" })
+	public int invoices;
+
+	private List<Customer> customers = new ArrayList<>();
+	private List<Invoice> objects = new ArrayList<>();
+	private InvoiceColumns columns = new InvoiceColumns();
+
+	@Setup
+	public void setUp() {
+		Terms[] terms = Terms.values();
+		for (int c = 0; c < CUSTOMERS; ++c) {
+			customers.add(new Customer("Customer", "Number" + c, terms[c % terms.length]));
+		}
+		LocalDate issueDate = LocalDate.of(2022, 1, 1);
+		for (int i = 1; i <= invoices; ++i) {
+			LocalDate issued = issueDate.plusDays(i % 365);
+			Invoice invoice = i % 3 == 0
+				? new Invoice(i, customers.get(i % CUSTOMERS), i % 1000, issued, issued.plusDays(20))
+				: new Invoice(i, customers.get(i % CUSTOMERS), i % 1000, issued);
+			objects.add(invoice);
+			columns.put(invoice);
+		}
+	}
+
+	@Benchmark
+	public int[] overdueFromObjects() {
+		return objects.stream().filter(invoice -> invoice.isOverdue(AS_OF))
+				.sorted(InvoiceQuery.Order.DATE.getComparator())
+				.mapToInt(Invoice::getNumber).toArray();
+	}
+
+	@Benchmark
+	public int[] overdueFromColumns() {
+		return columns.getOverdueNumbers(AS_OF);
+	}
+
+	public static void main(String[] args) throws RunnerException,
+			java.io.IOException {
+		org.openjdk.jmh.Main.main(new String[] { InvoiceColumnsBenchmark.class.getSimpleName() });
+	}
+}
@@ -0,0 +1,103 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Invoice;
+
+/**
+ * Unit test for {@link InvoiceColumns}, and for a
+ * {@link CachingPersistence} that answers queries from them.
+ * We check the columns' answers against the invoice objects,
+ * using the {@link com.amica.billing.TestUtility} invoices.
+ */
+public class InvoiceColumnsTest {
+
+	private InvoiceColumns columns;
+
+	@BeforeEach
+	public void setUp() {
+		columns = new InvoiceColumns();
+		GOOD_INVOICES.forEach(columns::put);
+	}
+
+	@Test
+	public void testPut() {
+		assertThat(columns.size()).isEqualTo(6);
+		assertThat(columns.contains(6)).isTrue();
+		assertThat(columns.contains(7)).isFalse();
+	}
+
+	@Test
+	public void testPut_Overwrites() {
+		columns.put(new Invoice(1, GOOD_CUSTOMERS.get(0), 100,
+				LocalDate.of(2022, 1, 4), LocalDate.of(2022, 1, 4)));
+		assertThat(columns.size()).isEqualTo(6);
+		assertThat(columns.getOverdueNumbers(AS_OF_DATE)).containsExactly(4, 6);
+	}
+
+	@Test
+	public void testPut_Grows() {
+		for (int number = 7; number < 5000; number += 2) {
+			columns.put(new Invoice(number, GOOD_CUSTOMERS.get(0), 1, LocalDate.of(2022, 1, 1)));
+		}
+		assertThat(columns.size()).isEqualTo(6 + 2497);
+		assertThat(columns.getOverdueNumbers(AS_OF_DATE)).hasSize(3 + 2497);
+		assertThat(columns.contains(4999)).isTrue();
+		assertThat(columns.contains(4998)).isFalse();
+	}
+
+	@Test
+	public void testVolumes() {
+		CustomerDictionary dictionary = new CustomerDictionary();
+		InvoiceColumns shared = new InvoiceColumns(dictionary);
+		GOOD_INVOICES.forEach(shared::put);
+		CustomerVolumes volumes = new CustomerVolumes(dictionary);
+		shared.addTo(volumes);
+		assertThat(volumes.getVolume(GOOD_CUSTOMERS.get(1))).isEqualTo(900);
+		assertThat(volumes.getInvoiceCount(GOOD_CUSTOMERS.get(1))).isEqualTo(3);
+
+		assertThat(shared.removeFrom(volumes, 3)).isTrue();
+		assertThat(shared.removeFrom(volumes, 7)).isFalse();
+		assertThat(volumes.getVolume(GOOD_CUSTOMERS.get(1))).isEqualTo(600);
+		assertThat(volumes.getInvoiceCount(GOOD_CUSTOMERS.get(1))).isEqualTo(2);
+	}
+
+	@Test
+	public void testOverdue() {
+		List<Integer> expected = GOOD_INVOICES.stream()
+				.filter(invoice -> invoice.isOverdue(AS_OF_DATE))
+				.sorted(InvoiceQuery.Order.DATE.getComparator())
+				.map(Invoice::getNumber).toList();
+		assertThat(columns.getOverdueNumbers(AS_OF_DATE)).containsExactly(4, 6, 1);
+		assertThat(Arrays.stream(columns.getOverdueNumbers(AS_OF_DATE)).boxed().toList()).isEqualTo(expected);
+		assertThat(columns.getOverdueNumbers(LocalDate.of(2021, 1, 1))).isEmpty();
+	}
+
+	@Test
+	public void testCachingPersistence_Columnar() {
+		MemoryPersistence persistence = new MemoryPersistence(GOOD_CUSTOMERS, GOOD_INVOICES);
+		persistence.setColumnar(true);
+		persistence.load();
+		assertThat(persistence.getColumns().size()).isEqualTo(6);
+		assertThat(persistence.getVolumeForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(900);
+		assertThat(persistence.getInvoiceCountForCustomer(GOOD_CUSTOMERS.get(1))).isEqualTo(3);
+		assertThat(persistence.getOverdueInvoices(AS_OF_DATE))
+			.extracting(Invoice::getNumber).containsExactly(4, 6, 1);
+
+		Invoice paid = new Invoice(1, GOOD_CUSTOMERS.get(0), 100,
+				LocalDate.of(2022, 1, 4), LocalDate.of(2022, 1, 4));
+		persistence.saveInvoice(paid);
+		assertThat(persistence.getOverdueInvoices(AS_OF_DATE))
+			.extracting(Invoice::getNumber).containsExactly(4, 6);
+		assertThat(persistence.getOverdueInvoices(AS_OF_DATE))
+			.element(0).isSameAs(persistence.getInvoices().get(4));
+	}
+}
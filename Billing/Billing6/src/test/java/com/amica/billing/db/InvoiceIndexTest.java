@@ -0,0 +1,113 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Billing;
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * Unit test for the {@link InvoiceIndex}. We build our own copy of the
+ * invoices in the {@link com.amica.billing.TestUtility} data set,
+ * since some test cases change paid dates.
+ */
+public class InvoiceIndexTest {
+
+	private List<Invoice> invoices;
+	private InvoiceIndex index;
+
+	@BeforeEach
+	public void setUp() {
+		invoices = Stream.of
+			(new Invoice(1, GOOD_CUSTOMERS.get(0), 100, LocalDate.of(2022,  1,  4)),
+			 new Invoice(2, GOOD_CUSTOMERS.get(1), 200, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 5)),
+			 new Invoice(3, GOOD_CUSTOMERS.get(1), 300, LocalDate.of(2022,  1,  6)),
+			 new Invoice(4, GOOD_CUSTOMERS.get(1), 400, LocalDate.of(2021, 11, 11)),
+			 new Invoice(5, GOOD_CUSTOMERS.get(2), 500, LocalDate.of(2022,  1,  4), LocalDate.of(2022, 1, 8)),
+			 new Invoice(6, GOOD_CUSTOMERS.get(2), 600, LocalDate.of(2021, 12,  4))).toList();
+		index = new InvoiceIndex();
+		index.rebuild(invoices.stream());
+	}
+
+	@Test
+	public void testGetInvoicesForCustomer() {
+		assertThat(index.getInvoicesForCustomer(GOOD_CUSTOMERS.get(1).getName()))
+				.extracting(Invoice::getNumber)
+				.containsExactly(2, 3, 4);
+	}
+
+	@Test
+	public void testGetInvoicesForCustomer_None() {
+		assertThat(index.getInvoicesForCustomer("Customer Four")).isEmpty();
+	}
+
+	@Test
+	public void testGetInvoicesOrderedByDate() {
+		assertThat(index.getInvoicesOrderedByDate())
+				.extracting(Invoice::getNumber)
+				.containsExactly(4, 6, 1, 2, 5, 3);
+	}
+
+	@Test
+	public void testGetInvoicesGroupedByCustomer() {
+		Map<Customer,List<Invoice>> map = index.getInvoicesGroupedByCustomer();
+		assertThat(map.get(GOOD_CUSTOMERS.get(0)))
+				.extracting(Invoice::getNumber).containsExactly(1);
+		assertThat(map.get(GOOD_CUSTOMERS.get(1)))
+				.extracting(Invoice::getNumber).containsExactly(2, 3, 4);
+		assertThat(map.get(GOOD_CUSTOMERS.get(2)))
+				.extracting(Invoice::getNumber).containsExactly(5, 6);
+	}
+
+	@Test
+	public void testGetOverdueInvoices() {
+		assertThat(index.getOverdueInvoices(AS_OF_DATE))
+				.extracting(Invoice::getNumber)
+				.containsExactly(4, 6, 1);
+	}
+
+	@Test
+	public void testGetOverdueInvoices_MatchesScan() {
+		for (LocalDate asOf = LocalDate.of(2021, 11, 1); 
+				asOf.isBefore(LocalDate.of(2022, 3, 1)); asOf = asOf.plusDays(1)) {
+			final LocalDate date = asOf;
+			assertThat(index.getOverdueInvoices(asOf))
+					.containsExactlyElementsOf(invoices.stream()
+						.filter(inv -> inv.isOverdue(date))
+						.sorted(Billing.compareByDate.thenComparing(Billing.compareByNumber))
+						.toList());
+		}
+	}
+
+	@Test
+	public void testPayInvoice_NoLongerOverdue() {
+		Invoice invoice = invoices.get(0);
+		index.remove(invoice);
+		invoice.setPaidDate(Optional.of(LocalDate.of(2022, 1, 4)));
+		index.add(invoice);
+		assertThat(index.getOverdueInvoices(AS_OF_DATE))
+				.extracting(Invoice::getNumber)
+				.containsExactly(4, 6);
+	}
+
+	@Test
+	public void testPayInvoice_Late() {
+		Invoice invoice = invoices.get(3);
+		index.remove(invoice);
+		invoice.setPaidDate(Optional.of(LocalDate.of(2022, 1, 7)));
+		index.add(invoice);
+		assertThat(index.getOverdueInvoices(LocalDate.of(2021, 12, 1)))
+				.extracting(Invoice::getNumber)
+				.containsExactly(4);
+	}
+}
@@ -0,0 +1,95 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Invoice;
+import com.amica.billing.db.InvoiceQuery.Order;
+
+/**
+ * Unit test for {@link InvoiceQuery} and for the way a
+ * {@link CachingPersistence} answers queries from its maps and indexes.
+ * We check each answer against a plain scan of the
+ * {@link com.amica.billing.TestUtility} invoices.
+ */
+public class InvoiceQueryTest {
+
+	private CachingPersistence persistence;
+
+	@BeforeEach
+	public void setUp() {
+		persistence = new MemoryPersistence(GOOD_CUSTOMERS, GOOD_INVOICES);
+	}
+
+	private static List<Integer> scan(InvoiceQuery query) {
+		return GOOD_INVOICES.stream().filter(query::matches)
+				.sorted(query.getOrder().getComparator())
+				.map(Invoice::getNumber).toList();
+	}
+
+	private List<Integer> find(InvoiceQuery query) {
+		return persistence.findInvoices(query).map(Invoice::getNumber).toList();
+	}
+
+	@Test
+	public void testAll() {
+		assertThat(find(InvoiceQuery.all())).containsExactly(1, 2, 3, 4, 5, 6);
+		assertThat(find(InvoiceQuery.all().orderBy(Order.DATE)))
+			.containsExactly(4, 6, 1, 2, 5, 3);
+	}
+
+	@Test
+	public void testForCustomer() {
+		InvoiceQuery query = InvoiceQuery.all().forCustomer(GOOD_CUSTOMERS.get(1));
+		assertThat(find(query)).containsExactly(2, 3, 4);
+		assertThat(find(query.orderBy(Order.DATE))).containsExactly(4, 2, 3);
+		assertThat(find(query.paid(false))).containsExactly(3, 4);
+	}
+
+	@Test
+	public void testIssuedBetween() {
+		InvoiceQuery query = InvoiceQuery.all()
+				.issuedBetween(LocalDate.of(2021, 12, 4), LocalDate.of(2022, 1, 6));
+		assertThat(find(query)).containsExactly(1, 2, 5, 6);
+		assertThat(find(query.orderBy(Order.DATE))).containsExactly(6, 1, 2, 5);
+		assertThat(find(query.paid(true))).containsExactly(2, 5);
+		assertThat(find(InvoiceQuery.all().issuedBetween(null, LocalDate.of(2022, 1, 1))))
+			.containsExactly(4, 6);
+		assertThat(find(InvoiceQuery.all().issuedBetween(LocalDate.of(2022, 1, 5), null)))
+			.containsExactly(3);
+	}
+
+	@Test
+	public void testPaid() {
+		assertThat(find(InvoiceQuery.all().paid(true))).containsExactly(2, 5);
+		assertThat(find(InvoiceQuery.all().paid(false).orderBy(Order.DATE)))
+			.containsExactly(4, 6, 1, 3);
+	}
+
+	@Test
+	public void testMatchesScan() {
+		Stream.of(InvoiceQuery.all(), InvoiceQuery.all().paid(false))
+			.flatMap(query -> GOOD_CUSTOMERS.stream().map(query::forCustomer))
+			.flatMap(query -> Stream.of(query,
+				query.issuedBetween(LocalDate.of(2022, 1, 1), null),
+				query.issuedBetween(null, LocalDate.of(2022, 1, 5))))
+			.flatMap(query -> Stream.of(query, query.orderBy(Order.DATE)))
+			.forEach(query -> assertThat(find(query)).isEqualTo(scan(query)));
+	}
+
+	@Test
+	public void testQueriesAreValues() {
+		InvoiceQuery query = InvoiceQuery.all().paid(false);
+		assertThat(query).isEqualTo(InvoiceQuery.all().paid(false))
+			.isNotEqualTo(InvoiceQuery.all());
+		assertThat(InvoiceQuery.all().getPaid()).isEmpty();
+		assertThat(InvoiceQuery.all().getOrder()).isEqualTo(Order.NUMBER);
+	}
+}
@@ -0,0 +1,58 @@
+package com.amica.billing.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * A {@link CachingPersistence} with no backing store, for tests and
+ * benchmarks that exercise the in-memory maps and indexes. It starts
+ * with the given customers and invoices, and counts the writes it's asked
+ * to make, so tests can tell how many changes got through.
+ */
+public class MemoryPersistence extends CachingPersistence {
+
+	private List<Customer> initialCustomers;
+	private List<Invoice> initialInvoices;
+	private AtomicInteger customersWritten = new AtomicInteger();
+	private AtomicInteger invoicesWritten = new AtomicInteger();
+
+	public MemoryPersistence(Collection<Customer> customers, Collection<Invoice> invoices) {
+		initialCustomers = new ArrayList<>(customers);
+		initialInvoices = new ArrayList<>(invoices);
+		load();
+	}
+
+	public int getCustomersWritten() {
+		return customersWritten.get();
+	}
+
+	public int getInvoicesWritten() {
+		return invoicesWritten.get();
+	}
+
+	@Override
+	protected Stream<Customer> readCustomers() {
+		return initialCustomers.stream();
+	}
+
+	@Override
+	protected Stream<Invoice> readInvoices() {
+		return initialInvoices.stream();
+	}
+
+	@Override
+	protected void writeCustomer(Customer customer) {
+		customersWritten.incrementAndGet();
+	}
+
+	@Override
+	protected void writeInvoice(Invoice invoice) {
+		invoicesWritten.incrementAndGet();
+	}
+}
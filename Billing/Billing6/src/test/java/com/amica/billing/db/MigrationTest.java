@@ -0,0 +1,175 @@
+package com.amica.billing.db;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.amica.billing.BillingIntegrationTest;
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.parse.ParserPersistence;
+
+/**
+ * Unit test for the {@link Migration}. We migrate the "country singers"
+ * data files to mock repositories and Mongo operations, recording the
+ * invoices written in each bulk operation, and can make bulk operations
+ * fail after a given number have succeeded.
+ */
+public class MigrationTest {
+
+	public static final Path CUSTOMERS_PATH = Paths.get(TEMP_FOLDER, CUSTOMERS_FILENAME);
+	public static final Path INVOICES_PATH = Paths.get(TEMP_FOLDER, INVOICES_FILENAME);
+	public static final Path CHECKPOINT_PATH = Paths.get(TEMP_FOLDER, "migration.checkpoint");
+
+	private CustomerRepository customerRepository;
+	private InvoiceRepository invoiceRepository;
+	private Migration migration;
+	private List<Invoice> written = new ArrayList<>();
+	private int successesBeforeFailure = Integer.MAX_VALUE;
+
+	private static ParserPersistence createSource() {
+		ParserPersistence source = new ParserPersistence();
+		source.setCustomersFile(CUSTOMERS_PATH.toString());
+		source.setInvoicesFile(INVOICES_PATH.toString());
+		return source;
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		BillingIntegrationTest.setUpFiles();
+		Files.deleteIfExists(CHECKPOINT_PATH);
+
+		customerRepository = mock(CustomerRepository.class);
+		when(customerRepository.saveAll(any())).thenAnswer(inv -> inv.getArgument(0));
+		invoiceRepository = mock(InvoiceRepository.class);
+
+		MongoOperations mongo = mock(MongoOperations.class);
+		when(mongo.bulkOps(any(BulkMode.class), eq(Invoice.class))).thenAnswer(inv -> {
+			List<Invoice> batch = new ArrayList<>();
+			BulkOperations operations = mock(BulkOperations.class);
+			when(operations.replaceOne(any(Query.class), any(), any(FindAndReplaceOptions.class)))
+				.thenAnswer(replace -> {
+					batch.add(replace.getArgument(1));
+					return operations;
+				});
+			when(operations.execute()).thenAnswer(execute -> {
+				synchronized(written) {
+					if (successesBeforeFailure-- <= 0) {
+						throw new DataAccessResourceFailureException("Simulated failure");
+					}
+					written.addAll(batch);
+				}
+				return null;
+			});
+			return operations;
+		});
+
+		migration = new Migration();
+		migration.customerRepository = customerRepository;
+		migration.invoiceRepository = invoiceRepository;
+		migration.source = createSource();
+		migration.mongo = mongo;
+		migration.invoicesFile = INVOICES_PATH.toString();
+		migration.checkpointFile = CHECKPOINT_PATH.toString();
+		migration.batchSize = 2;
+	}
+
+	private static List<Integer> sourceInvoiceNumbers() {
+		ParserPersistence source = createSource();
+		source.load();
+		return new ArrayList<>(source.getInvoices().keySet());
+	}
+
+	private static int sourceCustomerCount() {
+		ParserPersistence source = createSource();
+		source.load();
+		return source.getCustomers().size();
+	}
+
+	@Test
+	public void testMigrate() throws Exception {
+		migration.migrate();
+
+		verify(invoiceRepository).deleteAll();
+		verify(customerRepository).deleteAll();
+		verify(customerRepository).saveAll(argThat(customers ->
+				((List<Customer>) customers).size() == sourceCustomerCount()));
+		assertThat(written).extracting(Invoice::getNumber)
+			.containsExactlyInAnyOrderElementsOf(sourceInvoiceNumbers());
+		assertThat(migration.getInvoicesWritten()).isEqualTo(written.size());
+		assertThat(CHECKPOINT_PATH).doesNotExist();
+	}
+
+	@Test
+	public void testMigrate_LastRecordWins() throws Exception {
+		Files.writeString(INVOICES_PATH, "101,John,Hiatt,1000.00,2021-07-10,2021-07-20\n",
+				StandardOpenOption.APPEND);
+		migration.writerThreads = 1;
+		migration.batchSize = 1000;
+		migration.migrate();
+
+		assertThat(written).filteredOn(invoice -> invoice.getNumber() == 101)
+			.singleElement().extracting(invoice -> invoice.getPaidDate().get())
+			.isEqualTo(LocalDate.of(2021, 7, 20));
+		assertThat(written).extracting(Invoice::getNumber)
+			.containsExactlyInAnyOrderElementsOf(sourceInvoiceNumbers());
+	}
+
+	@Test
+	public void testMigrate_Resumes() throws Exception {
+		migration.writerThreads = 1;
+		migration.maxAttempts = 1;
+		successesBeforeFailure = 1;
+		assertThatThrownBy(migration::migrate).isInstanceOf(IllegalStateException.class);
+		assertThat(CHECKPOINT_PATH).exists();
+		Migration.Checkpoint checkpoint = migration.readCheckpoint();
+		assertThat(checkpoint.position()).isEqualTo(2);
+		assertThat(written).hasSize(2).last().extracting(Invoice::getNumber)
+			.isEqualTo(checkpoint.invoiceNumber());
+
+		successesBeforeFailure = Integer.MAX_VALUE;
+		when(customerRepository.findByFirstNameAndLastName(any(), any()))
+			.thenAnswer(inv -> new Customer(inv.getArgument(0), inv.getArgument(1), null));
+		migration.migrate();
+
+		verify(invoiceRepository, times(1)).deleteAll();
+		verify(customerRepository).saveAll(argThat(customers ->
+				!((List<Customer>) customers).isEmpty()));
+		verify(customerRepository).saveAll(argThat(customers ->
+				((List<Customer>) customers).isEmpty()));
+		assertThat(written).extracting(Invoice::getNumber)
+			.containsExactlyInAnyOrderElementsOf(sourceInvoiceNumbers());
+		assertThat(CHECKPOINT_PATH).doesNotExist();
+	}
+
+	@Test
+	public void testMigrate_StartsOverIfSourceChanged() throws Exception {
+		migration.maxAttempts = 1;
+		successesBeforeFailure = 1;
+		assertThatThrownBy(migration::migrate).isInstanceOf(IllegalStateException.class);
+
+		Files.writeString(INVOICES_PATH, Files.readString(INVOICES_PATH) + System.lineSeparator());
+		assertThat(migration.readCheckpoint()).isNull();
+	}
+}
@@ -0,0 +1,91 @@
+package com.amica.billing.db.mongo;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Unit test for the {@link HiLoInvoiceNumberSequence}. We mock the
+ * Mongo operations, simulating a counter that another instance may
+ * also be advancing.
+ */
+public class HiLoInvoiceNumberSequenceTest {
+
+	public static final int BLOCK_SIZE = 10;
+
+	private MongoOperations mongo;
+	private int counter;
+
+	@BeforeEach
+	public void setUp() {
+		mongo = mock(MongoOperations.class);
+		when(mongo.findAndModify(any(Query.class), any(Update.class), 
+				any(FindAndModifyOptions.class), eq(Document.class), anyString()))
+			.thenAnswer(inv -> {
+				counter += BLOCK_SIZE;
+				return new Document(HiLoInvoiceNumberSequence.VALUE_FIELD, counter);
+			});
+	}
+
+	@Test
+	public void testNext() {
+		counter = 124;
+		HiLoInvoiceNumberSequence sequence = 
+				new HiLoInvoiceNumberSequence(mongo, BLOCK_SIZE, 124);
+		assertThat(IntStream.range(0, 25).map(i -> sequence.next()))
+				.containsExactlyElementsOf(IntStream.rangeClosed(125, 149).boxed().toList());
+		verify(mongo, times(3)).findAndModify(any(Query.class), any(Update.class), 
+				any(FindAndModifyOptions.class), eq(Document.class), anyString());
+	}
+
+	@Test
+	public void testNext_SharedCounter() {
+		HiLoInvoiceNumberSequence first = 
+				new HiLoInvoiceNumberSequence(mongo, BLOCK_SIZE, 0);
+		HiLoInvoiceNumberSequence second = 
+				new HiLoInvoiceNumberSequence(mongo, BLOCK_SIZE, 0);
+		assertThat(first.next()).isEqualTo(1);
+		assertThat(second.next()).isEqualTo(11);
+		assertThat(first.next()).isEqualTo(2);
+	}
+
+	@Test
+	public void testReserve_WithinBlock() {
+		HiLoInvoiceNumberSequence sequence = 
+				new HiLoInvoiceNumberSequence(mongo, BLOCK_SIZE, 0);
+		assertThat(sequence.next()).isEqualTo(1);
+		sequence.reserve(5);
+		assertThat(sequence.next()).isEqualTo(6);
+	}
+
+	@Test
+	public void testReserve_BeyondBlock() {
+		HiLoInvoiceNumberSequence sequence = 
+				new HiLoInvoiceNumberSequence(mongo, BLOCK_SIZE, 0);
+		assertThat(sequence.next()).isEqualTo(1);
+		sequence.reserve(50);
+		counter = 50;
+		assertThat(sequence.next()).isEqualTo(51);
+		verify(mongo, times(2)).upsert(any(Query.class), any(Update.class), 
+				eq(HiLoInvoiceNumberSequence.COLLECTION_NAME));
+	}
+
+	@Test
+	public void testBadBlockSize() {
+		assertThrows(IllegalArgumentException.class, 
+				() -> new HiLoInvoiceNumberSequence(mongo, 0, 0));
+	}
+}
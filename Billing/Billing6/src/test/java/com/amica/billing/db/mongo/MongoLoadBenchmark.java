@@ -0,0 +1,116 @@
+package com.amica.billing.db.mongo;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+import com.amica.billing.db.CustomerRepository;
+import com.amica.billing.db.InvoiceRepository;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**
+ * JMH benchmark of {@link MongoPersistence#load loading} from MongoDB,
+ * comparing the mapping layer's resolution of each invoice's customer
+ * reference with our in-memory join, as the number of invoice documents
+ * grows. This needs a MongoDB server at localhost:27017; it fills and
+ * then drops its own database. Run from the test classpath, for example
+ * with this class's main method; use <code>-p invoices=...</code> on the
+ * JMH command line to choose document counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MongoLoadBenchmark {
+
+	public static final String URI = "mongodb://localhost:27017";
+	public static final String DATABASE = "BillingBenchmark";
+	public static final int CUSTOMERS = 100;
+
+	@Param({ "1000", "10000", "100000" })
+	public int invoices;
+
+	private MongoClient client;
+	private MongoTemplate mongo;
+	private CustomerRepository customerRepository;
+	private InvoiceRepository invoiceRepository;
+
+	@Setup
+	public void setUp() {
+		client = MongoClients.create(URI);
+		mongo = new MongoTemplate(client, DATABASE);
+		mongo.getDb().drop();
+		MongoRepositoryFactory factory = new MongoRepositoryFactory(mongo);
+		customerRepository = factory.getRepository(CustomerRepository.class);
+		invoiceRepository = factory.getRepository(InvoiceRepository.class);
+
+		List<Customer> customers = new ArrayList<>();
+		for (int c = 0; c < CUSTOMERS; ++c) {
+			customers.add(new Customer("Customer", "Number" + c, Terms.CREDIT_30));
+		}
+		customerRepository.saveAll(customers);
+
+		List<Invoice> batch = new ArrayList<>();
+		LocalDate issueDate = LocalDate.of(2022, 1, 1);
+		for (int i = 1; i <= invoices; ++i) {
+			batch.add(new Invoice(i, customers.get(i % CUSTOMERS), i % 1000,
+					issueDate.plusDays(i % 365)));
+			if (batch.size() == 1000 || i == invoices) {
+				mongo.insert(batch, Invoice.class);
+				batch.clear();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		mongo.getDb().drop();
+		client.close();
+	}
+
+	private int load(boolean joinCustomers) {
+		MongoPersistence persistence =
+				new MongoPersistence(customerRepository, invoiceRepository, mongo);
+		persistence.joinCustomers = joinCustomers;
+		persistence.load();
+		return persistence.getInvoices().size();
+	}
+
+	@Benchmark
+	public int resolveEachReference() {
+		return load(false);
+	}
+
+	@Benchmark
+	public int joinInMemory() {
+		return load(true);
+	}
+
+	public static void main(String[] args) throws RunnerException,
+			java.io.IOException {
+		org.openjdk.jmh.Main.main(new String[] { MongoLoadBenchmark.class.getSimpleName() });
+	}
+}
@@ -0,0 +1,370 @@
+package com.amica.billing.db.mongo;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.mockito.ArgumentCaptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.mongodb.DBRef;
+import com.amica.billing.db.CustomerRepository;
+import com.amica.billing.db.InvoiceQuery;
+import com.amica.billing.db.InvoiceRepository;
+
+/**
+ * Unit test for the write-behind mode of the {@link MongoPersistence},
+ * for its in-memory join of invoices to customers, and for the queries
+ * and indexes it asks the database for.
+ * We stand in for the database with mock repositories and Mongo operations,
+ * record each bulk operation and the invoices written in it, and can make
+ * bulk operations fail.
+ */
+public class MongoPersistenceTest {
+
+	private CustomerRepository customerRepository;
+	private InvoiceRepository invoiceRepository;
+	private MongoOperations mongo;
+	private IndexOperations indexes;
+	private MongoPersistence persistence;
+	private List<List<Invoice>> batches = new ArrayList<>();
+	private int failures;
+	private CountDownLatch executing;
+	private CountDownLatch release;
+
+	@BeforeEach
+	public void setUp() {
+		customerRepository = mock(CustomerRepository.class);
+		when(customerRepository.streamAllBy()).thenAnswer(inv -> Stream.empty());
+		invoiceRepository = mock(InvoiceRepository.class);
+		when(invoiceRepository.streamAllBy()).thenAnswer(inv -> Stream.empty());
+
+		mongo = mock(MongoOperations.class);
+		indexes = mock(IndexOperations.class);
+		when(mongo.indexOps(Invoice.class)).thenReturn(indexes);
+		when(mongo.stream(any(Query.class), eq(Document.class), any())).thenAnswer(inv -> Stream.empty());
+		when(mongo.bulkOps(any(BulkMode.class), eq(Invoice.class))).thenAnswer(inv -> {
+			List<Invoice> batch = new ArrayList<>();
+			BulkOperations operations = mock(BulkOperations.class);
+			when(operations.replaceOne(any(Query.class), any(), any(FindAndReplaceOptions.class)))
+				.thenAnswer(replace -> {
+					batch.add(replace.getArgument(1));
+					return operations;
+				});
+			when(operations.execute()).thenAnswer(execute -> {
+				if (release != null) {
+					executing.countDown();
+					release.await();
+				}
+				synchronized(batches) {
+					if (failures > 0) {
+						--failures;
+						throw new DataAccessResourceFailureException("Simulated failure");
+					}
+					batches.add(batch);
+				}
+				return null;
+			});
+			return operations;
+		});
+
+		persistence = new MongoPersistence(customerRepository, invoiceRepository, mongo);
+		persistence.writeBehind = true;
+		persistence.writeDelayMillis = 60000;
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		persistence.close();
+	}
+
+	private static Invoice invoice(int number) {
+		return new Invoice(number, GOOD_CUSTOMERS.get(0), 100, AS_OF_DATE);
+	}
+
+	private List<Invoice> written() {
+		synchronized(batches) {
+			return batches.stream().flatMap(List::stream).toList();
+		}
+	}
+
+	@Test
+	public void testWriteThrough() {
+		persistence.writeBehind = false;
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		verify(invoiceRepository).save(invoice(1));
+		verify(mongo, never()).bulkOps(any(BulkMode.class), eq(Invoice.class));
+	}
+
+	@Test
+	public void testWriteBehind_Coalesced() throws Exception {
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		persistence.saveInvoice(invoice(2));
+		persistence.saveInvoice(invoice(1));
+		assertThat(persistence.getInvoices()).containsOnlyKeys(1, 2);
+		assertThat(persistence.getDirtyCount()).isEqualTo(2);
+		verify(invoiceRepository, never()).save(any());
+
+		persistence.flush();
+		assertThat(batches).hasSize(1);
+		assertThat(written()).extracting(Invoice::getNumber).containsExactly(1, 2);
+		assertThat(persistence.getInvoicesWritten()).isEqualTo(2);
+		assertThat(persistence.getDirtyCount()).isZero();
+	}
+
+	@Test
+	public void testWriteBehind_SizeTrigger() throws Exception {
+		persistence.writeBatchSize = 5;
+		persistence.load();
+		for (int i = 1; i <= 12; ++i) {
+			persistence.saveInvoice(invoice(i));
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (written().size() < 10 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(written()).hasSizeGreaterThanOrEqualTo(10);
+		synchronized(batches) {
+			assertThat(batches).allMatch(batch -> batch.size() <= 5);
+		}
+	}
+
+	@Test
+	public void testWriteBehind_TimeTrigger() {
+		persistence.writeDelayMillis = 50;
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		verify(mongo, timeout(5000)).bulkOps(any(BulkMode.class), eq(Invoice.class));
+	}
+
+	@Test
+	public void testWriteBehind_Retried() throws Exception {
+		persistence.load();
+		failures = 1;
+		persistence.saveInvoice(invoice(1));
+		persistence.saveInvoice(invoice(2));
+		persistence.flush();
+
+		assertThat(written()).extracting(Invoice::getNumber).containsExactly(1, 2);
+		assertThat(persistence.getBatchesFailed()).isEqualTo(1);
+		assertThat(persistence.getInvoicesRetried()).isEqualTo(2);
+		assertThat(persistence.getInvoicesAbandoned()).isZero();
+	}
+
+	@Test
+	public void testWriteBehind_Abandoned() throws Exception {
+		persistence.writeMaxAttempts = 3;
+		persistence.load();
+		failures = Integer.MAX_VALUE;
+		persistence.saveInvoice(invoice(1));
+		persistence.flush();
+
+		assertThat(written()).isEmpty();
+		assertThat(persistence.getBatchesFailed()).isEqualTo(3);
+		assertThat(persistence.getInvoicesRetried()).isEqualTo(2);
+		assertThat(persistence.getInvoicesAbandoned()).isEqualTo(1);
+		assertThat(persistence.getDirtyCount()).isZero();
+	}
+
+	@Test
+	public void testBoundedCache_ReadsThrough() throws Exception {
+		when(invoiceRepository.streamAllBy()).thenAnswer(inv ->
+			Stream.of(invoice(1), invoice(2), invoice(3)));
+		when(invoiceRepository.findById(1)).thenReturn(Optional.of(invoice(1)));
+		persistence.joinCustomers = false;
+		persistence.setMaxCachedInvoices(2);
+		persistence.load();
+
+		assertThat(persistence.getInvoices()).hasSize(3);
+		assertThat(persistence.getInvoices().get(1)).isEqualTo(invoice(1));
+		verify(invoiceRepository).findById(1);
+		assertThat(persistence.getInvoiceCache().getMisses()).isEqualTo(1);
+		assertThat(persistence.getInvoiceCache().getEvictions()).isEqualTo(1);
+	}
+
+	@Test
+	public void testBoundedCache_FindsUnwritten() throws Exception {
+		persistence.setMaxCachedInvoices(1);
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		persistence.saveInvoice(invoice(2));
+
+		assertThat(persistence.getInvoices().get(1)).isEqualTo(invoice(1));
+		verify(invoiceRepository, never()).findById(any());
+	}
+
+	/**
+	 * While a batch is being written, its invoices are neither dirty nor
+	 * known to be in the database; we should still find them in memory.
+	 */
+	@Test
+	public void testBoundedCache_FindsInFlight() throws Exception {
+		executing = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		persistence.writeDelayMillis = 50;
+		persistence.setMaxCachedInvoices(1);
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		persistence.saveInvoice(invoice(2));
+		try {
+			assertThat(executing.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(persistence.getDirtyCount()).isZero();
+			assertThat(persistence.getInvoices().get(1)).isEqualTo(invoice(1));
+			assertThat(persistence.findInvoices(InvoiceQuery.all()))
+				.extracting(Invoice::getNumber).containsExactly(1, 2);
+			verify(invoiceRepository, never()).findById(any());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	private static Customer customer(String id, String lastName) {
+		Customer customer = new Customer("Customer", lastName, GOOD_CUSTOMERS.get(0).getTerms());
+		ReflectionTestUtils.setField(customer, "_id", id);
+		return customer;
+	}
+
+	private static Document document(int number, String customerID) {
+		return new Document("_id", number).append("amount", 100.0)
+			.append("customer", new DBRef("customer", customerID));
+	}
+
+	@Test
+	public void testLoad_JoinsCustomers() {
+		Customer one = customer("c1", "One");
+		Customer two = customer("c2", "Two");
+		when(customerRepository.streamAllBy()).thenAnswer(inv -> Stream.of(one, two));
+		when(mongo.getCollectionName(Invoice.class)).thenReturn("invoice");
+		when(mongo.stream(any(Query.class), eq(Document.class), eq("invoice")))
+			.thenAnswer(inv -> Stream.of(document(1, "c1"), document(2, "c2"), document(3, "c1")));
+		MongoConverter converter = mock(MongoConverter.class);
+		when(mongo.getConverter()).thenReturn(converter);
+		when(converter.read(eq(Invoice.class), any(Document.class))).thenAnswer(inv -> {
+			Document document = inv.getArgument(1);
+			assertThat(document).doesNotContainKey("customer");
+			return new Invoice(document.getInteger("_id"), null,
+				document.getDouble("amount"), AS_OF_DATE);
+		});
+		persistence.load();
+
+		assertThat(persistence.getInvoices().get(1).getCustomer()).isSameAs(one);
+		assertThat(persistence.getInvoices().get(2).getCustomer()).isSameAs(two);
+		assertThat(persistence.getInvoicesForCustomer(one))
+			.extracting(Invoice::getNumber).containsExactly(1, 3);
+		verify(invoiceRepository, never()).streamAllBy();
+		verify(customerRepository, never()).findById(any());
+	}
+
+	@Test
+	public void testLoad_CreatesIndexes() {
+		persistence.load();
+		ArgumentCaptor<IndexDefinition> captor = ArgumentCaptor.forClass(IndexDefinition.class);
+		verify(indexes, times(3)).ensureIndex(captor.capture());
+		assertThat(captor.getAllValues()).extracting(index -> List.copyOf(index.getIndexKeys().keySet()))
+			.containsExactly(List.of("customer", "issueDate"),
+				List.of("issueDate", "paidDate"), List.of("paidDate", "issueDate"));
+	}
+
+	@Test
+	public void testLoad_SkipsIndexes() {
+		persistence.createIndexes = false;
+		persistence.load();
+		verify(mongo, never()).indexOps(Invoice.class);
+	}
+
+	@Test
+	public void testToMongoQuery() {
+		when(mongo.getCollectionName(Customer.class)).thenReturn("customer");
+		Customer customer = customer("c1", "One");
+		Query query = persistence.toMongoQuery(InvoiceQuery.all().forCustomer(customer)
+			.issuedBetween(LocalDate.of(2022, 1, 1), LocalDate.of(2022, 2, 1))
+			.paid(false).orderBy(InvoiceQuery.Order.DATE));
+
+		Document criteria = query.getQueryObject();
+		assertThat(criteria.get("customer")).isEqualTo(new DBRef("customer", "c1"));
+		assertThat(criteria.get("issueDate", Document.class))
+			.containsEntry("$gte", LocalDate.of(2022, 1, 1))
+			.containsEntry("$lt", LocalDate.of(2022, 2, 1));
+		assertThat(criteria).containsEntry("paidDate", null);
+		assertThat(query.getSortObject().keySet()).containsExactly("issueDate", "_id");
+
+		query = persistence.toMongoQuery(InvoiceQuery.all().paid(true));
+		assertThat(query.getQueryObject().get("paidDate", Document.class))
+			.containsEntry("$ne", null);
+		assertThat(query.getSortObject().keySet()).containsExactly("_id");
+	}
+
+	@Test
+	public void testFindInvoices_PushedDown() throws Exception {
+		when(mongo.getCollectionName(Invoice.class)).thenReturn("invoice");
+		when(mongo.stream(any(Query.class), eq(Document.class), eq("invoice")))
+			.thenAnswer(inv -> Stream.empty());
+		persistence.setMaxCachedInvoices(1);
+		persistence.load();
+
+		MongoConverter converter = mock(MongoConverter.class);
+		when(mongo.getConverter()).thenReturn(converter);
+		when(converter.read(eq(Invoice.class), any(Document.class))).thenAnswer(inv -> {
+			Document document = inv.getArgument(1);
+			return new Invoice(document.getInteger("_id"), null,
+				document.getDouble("amount"), AS_OF_DATE);
+		});
+		when(mongo.stream(any(Query.class), eq(Document.class), eq("invoice")))
+			.thenAnswer(inv -> inv.<Query>getArgument(0).getQueryObject().get("paidDate") == null
+				? Stream.of(document(1, "c1"), document(3, "c1")) : Stream.empty());
+		persistence.saveInvoice(invoice(2));
+		persistence.saveInvoice(invoice(3));
+
+		InvoiceQuery query = InvoiceQuery.all().paid(false);
+		assertThat(persistence.findInvoices(query))
+			.extracting(Invoice::getNumber).containsExactly(1, 2, 3);
+		assertThat(persistence.findInvoices(query.paid(true))).isEmpty();
+		ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+		verify(mongo, atLeastOnce()).stream(captor.capture(), eq(Document.class), eq("invoice"));
+		assertThat(captor.getValue().getQueryObject()).containsKey("paidDate");
+	}
+
+	@Test
+	public void testFindInvoices_FromMemory() {
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		assertThat(persistence.findInvoices(InvoiceQuery.all().paid(false)))
+			.extracting(Invoice::getNumber).containsExactly(1);
+		verify(mongo, times(1)).stream(any(Query.class), eq(Document.class), any());
+	}
+
+	@Test
+	public void testClose_WritesDirtyInvoices() throws Exception {
+		persistence.load();
+		persistence.saveInvoice(invoice(1));
+		persistence.close();
+		assertThat(written()).extracting(Invoice::getNumber).containsExactly(1);
+	}
+}
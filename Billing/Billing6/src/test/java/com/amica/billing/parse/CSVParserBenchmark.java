@@ -0,0 +1,74 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.TestUtility.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+/**
+ * JMH benchmark comparing the {@link CSVParser} and {@link FastCSVParser}
+ * on a stream of invoice lines. We cycle through a block of distinct lines,
+ * so as not to hold ten million strings in memory. Run from the test 
+ * classpath, for example with this class's main method; use 
+ * <code>-p lines=...</code> on the JMH command line for shorter runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSVParserBenchmark {
+
+	public static final int DISTINCT_LINES = 10000;
+
+	@Param("10000000")
+	public int lines;
+
+	private String[] data;
+	private Parser csvParser = new CSVParser();
+	private Parser fastCSVParser = new FastCSVParser();
+
+	@Setup
+	public void setUp() {
+		List<String> good = CSVParserTest.GOOD_INVOICE_DATA;
+		data = IntStream.range(0, DISTINCT_LINES)
+				.mapToObj(i -> good.get(i % good.size())
+						.replaceFirst("^\\d+", Integer.toString(i + 1)))
+				.toArray(String[]::new);
+	}
+
+	private Stream<String> lines() {
+		return IntStream.range(0, lines).mapToObj(i -> data[i % DISTINCT_LINES]);
+	}
+
+	@Benchmark
+	public long csvParser() {
+		return csvParser.parseInvoices(lines(), GOOD_CUSTOMERS_MAP).count();
+	}
+
+	@Benchmark
+	public long fastCSVParser() {
+		return fastCSVParser.parseInvoices(lines(), GOOD_CUSTOMERS_MAP).count();
+	}
+
+	public static void main(String[] args) throws RunnerException, 
+			java.io.IOException {
+		org.openjdk.jmh.Main.main(new String[] { CSVParserBenchmark.class.getSimpleName() });
+	}
+}
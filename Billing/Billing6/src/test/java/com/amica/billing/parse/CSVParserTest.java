@@ -3,12 +3,17 @@ package com.amica.billing.parse;
 import static com.amica.billing.TestUtility.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
 /**
  * Unit test for the {@link CSVParser}. Relies on data sets in the 
  * {@link TestUtility} and its own CSV representations of those data sets,
@@ -45,6 +50,22 @@ public class CSVParserTest {
 			 "5,Customer,Three,500,2022-01-04,20220108",
 			 "6,Customer,Three,600,2021-12-04").toList();
 	
+	public static final Customer UNUSUAL_CUSTOMER = 
+			new Customer("Zoë", "Ångström", Terms.CREDIT_90);
+	
+	public static final List<Invoice> UNUSUAL_INVOICES = Stream.of
+		(new Invoice(1, UNUSUAL_CUSTOMER, 1.005, LocalDate.of(1999, 12, 31)),
+		 new Invoice(22, UNUSUAL_CUSTOMER, 0.125, LocalDate.of(2000, 1, 1)),
+		 new Invoice(333, UNUSUAL_CUSTOMER, 0.1 + 0.2, LocalDate.of(2022, 2, 28)),
+		 new Invoice(4444, UNUSUAL_CUSTOMER, 1234567.891, LocalDate.of(2022, 3, 1)),
+		 new Invoice(55555, UNUSUAL_CUSTOMER, -5.5, LocalDate.of(2022, 3, 1)),
+		 new Invoice(6, UNUSUAL_CUSTOMER, -0.0, LocalDate.of(2022, 3, 1)),
+		 new Invoice(7, UNUSUAL_CUSTOMER, 0.07, LocalDate.of(2022, 3, 1), 
+				 LocalDate.of(2022, 4, 1)),
+		 new Invoice(8, UNUSUAL_CUSTOMER, 1e12, LocalDate.of(999, 3, 1)),
+		 new Invoice(9, UNUSUAL_CUSTOMER, 9999999.99, LocalDate.of(10000, 3, 1),
+				 LocalDate.of(10000, 3, 2))).toList();
+	
 	protected Parser parser;
 	
 	@BeforeEach
@@ -78,6 +99,24 @@ public class CSVParserTest {
 				.isEqualTo(BAD_INVOICES);
 	}
 	
+	@Test
+	public void testParseInvoices_Buffer() {
+		assertThat(parser.parseInvoices
+			(toBuffer(GOOD_INVOICE_DATA, "\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(GOOD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
+	@Test
+	public void testParseInvoices_BufferBad() {
+		assertThat(parser.parseInvoices
+			(toBuffer(BAD_INVOICE_DATA, "\r\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(BAD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
 	@Test
 	public void testProduceCustomers() {
 		assertThat(parser.produceCustomers(GOOD_CUSTOMERS.stream()))
@@ -90,4 +129,16 @@ public class CSVParserTest {
 				.map(s -> s.replace(".00", ""))
 				.isEqualTo(GOOD_INVOICE_DATA);
 	}
+	
+	@Test
+	public void testProduceInvoices_Channel() throws Exception {
+		assertThat(produceInvoicesToChannel(parser, GOOD_INVOICES.stream()))
+				.isEqualTo(parser.produceInvoices(GOOD_INVOICES.stream()).toList());
+	}
+	
+	@Test
+	public void testProduceInvoices_ChannelUnusual() throws Exception {
+		assertThat(produceInvoicesToChannel(parser, UNUSUAL_INVOICES.stream()))
+				.isEqualTo(parser.produceInvoices(UNUSUAL_INVOICES.stream()).toList());
+	}
 }
@@ -0,0 +1,67 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Terms;
+import com.amica.billing.db.CustomerDictionary;
+
+/**
+ * Unit test for the {@link FastCSVParser}. We run all of the test cases
+ * for the {@link CSVParser}, and add a few for lines that the fast path
+ * should hand off to the CSV parser, and for customer names that would 
+ * be ambiguous when joined into a single string.
+ */
+public class FastCSVParserTest extends CSVParserTest {
+
+	public static final List<String> UNUSUAL_INVOICE_DATA = Stream.of
+			("1,Customer,One,1e2,2022-01-04",
+			 "2,Customer,Two,+200,2022-01-04,2022-01-05",
+			 "+3,Customer,Two,300,2022-01-06",
+			 "4,Customer,Two,400,2021-02-29",
+			 "5,Customer,Three,500,2022-01-04,2022-01-08,",
+			 "6,Customer,Three,600.123456789012345678,2021-12-04",
+			 "",
+			 "7,Customer,Three,700,2021-12-04,").toList();
+	
+	@BeforeEach
+	@Override
+	public void setUp() {
+		parser = new FastCSVParser();
+	}
+	
+	@Test
+	public void testParseInvoices_Unusual() {
+		assertThat(parser.parseInvoices
+			(UNUSUAL_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(new CSVParser().parseInvoices
+					(UNUSUAL_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
+	@Test
+	public void testCustomerLookup() {
+		Map<String,Customer> customers = new HashMap<>(GOOD_CUSTOMERS_MAP);
+		Customer spaced = new Customer("Mary Ann", "Evans", Terms.CASH);
+		customers.put(spaced.getName(), spaced);
+		CustomerDictionary lookup = new CustomerDictionary(customers.values());
+		
+		String line = "Mary Ann,Evans";
+		assertThat(lookup.findCustomer(line, 0, 8, 9, 14)).isSameAs(spaced);
+		line = "Mary,Ann Evans";
+		assertThat(lookup.findCustomer(line, 0, 4, 5, 14)).isSameAs(spaced);
+		line = "Customer,One";
+		assertThat(lookup.findCustomer(line, 0, 8, 9, 12)).isSameAs(GOOD_CUSTOMERS.get(0));
+		line = "Customer,Four";
+		assertThat(lookup.findCustomer(line, 0, 8, 9, 13)).isNull();
+	}
+}
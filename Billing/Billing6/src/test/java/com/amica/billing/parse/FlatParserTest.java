@@ -74,6 +74,24 @@ public class FlatParserTest {
 				.isEqualTo(BAD_INVOICES);
 	}
 	
+	@Test
+	public void testParseInvoices_Buffer() {
+		assertThat(parser.parseInvoices
+			(toBuffer(GOOD_INVOICE_DATA, "\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(GOOD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
+	@Test
+	public void testParseInvoices_BufferBad() {
+		assertThat(parser.parseInvoices
+			(toBuffer(BAD_INVOICE_DATA, "\r\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(BAD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
 	@Test
 	public void testProduceCustomers() {
 		assertThat(parser.produceCustomers(GOOD_CUSTOMERS.stream()))
@@ -85,4 +103,18 @@ public class FlatParserTest {
 		assertThat(parser.produceInvoices(GOOD_INVOICES.stream()))
 				.isEqualTo(GOOD_INVOICE_DATA);
 	}
+	
+	@Test
+	public void testProduceInvoices_Channel() throws Exception {
+		assertThat(produceInvoicesToChannel(parser, GOOD_INVOICES.stream()))
+				.isEqualTo(parser.produceInvoices(GOOD_INVOICES.stream()).toList());
+	}
+	
+	@Test
+	public void testProduceInvoices_ChannelUnusual() throws Exception {
+		assertThat(produceInvoicesToChannel(parser, 
+				CSVParserTest.UNUSUAL_INVOICES.stream()))
+			.isEqualTo(parser.produceInvoices
+				(CSVParserTest.UNUSUAL_INVOICES.stream()).toList());
+	}
 }
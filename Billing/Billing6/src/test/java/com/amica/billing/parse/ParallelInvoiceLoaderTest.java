@@ -0,0 +1,111 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
+/**
+ * Unit test for the {@link ParallelInvoiceLoader}. For each of our formats,
+ * we write a file large enough to be split into many chunks, repeating each
+ * parser test's good and bad invoice data, and check that a parallel load 
+ * gives the same invoices, in the same order, as a sequential line-based load.
+ */
+public class ParallelInvoiceLoaderTest {
+
+	public static final int REPEAT = 2000;
+	public static final int PARALLELISM = 4;
+	
+	private ForkJoinPool pool;
+	private Path path;
+	
+	@BeforeEach
+	public void setUp() throws IOException {
+		Files.createDirectories(Paths.get(TEMP_FOLDER));
+		path = Paths.get(TEMP_FOLDER, "parallel_invoices.txt");
+		pool = new ForkJoinPool(PARALLELISM);
+	}
+	
+	@AfterEach
+	public void tearDown() throws IOException {
+		pool.shutdown();
+		Files.deleteIfExists(path);
+	}
+	
+	private void assertSameAsSequential(Parser parser, List<String> good, 
+			List<String> bad) throws IOException {
+		List<String> lines = IntStream.range(0, REPEAT)
+				.mapToObj(i -> i % 10 == 0 ? bad : good)
+				.flatMap(List::stream)
+				.toList();
+		Files.write(path, lines);
+		
+		ParallelInvoiceLoader loader = new ParallelInvoiceLoader(parser, pool);
+		assertThat(loader.getChunkSize(Files.size(path)))
+				.isLessThan((int) Files.size(path) / PARALLELISM);
+		
+		List<Invoice> expected = 
+				parser.parseInvoices(lines.stream(), GOOD_CUSTOMERS_MAP).toList();
+		assertThat(loader.load(path, GOOD_CUSTOMERS_MAP))
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(expected);
+	}
+	
+	@Test
+	public void testCSV() throws IOException {
+		assertSameAsSequential(new CSVParser(), CSVParserTest.GOOD_INVOICE_DATA,
+				CSVParserTest.BAD_INVOICE_DATA);
+	}
+	
+	@Test
+	public void testQuotedCSV() throws IOException {
+		assertSameAsSequential(new QuotedCSVParser(), 
+				QuotedCSVParserTest.GOOD_INVOICE_DATA,
+				QuotedCSVParserTest.BAD_INVOICE_DATA);
+	}
+	
+	@Test
+	public void testFlat() throws IOException {
+		assertSameAsSequential(new FlatParser(), FlatParserTest.GOOD_INVOICE_DATA,
+				FlatParserTest.BAD_INVOICE_DATA);
+	}
+
+	/**
+	 * Each record has a quoted line break early on, followed by a long
+	 * line, so with chunks split at line breaks, records would straddle
+	 * chunk boundaries.
+	 */
+	@Test
+	public void testQuotedCSV_MultiLineRecords() throws IOException {
+		Parser parser = new QuotedCSVParser();
+		Customer customer = new Customer("Customer", "Two\n" + "Line".repeat(50),
+				Terms.CREDIT_45);
+		List<Invoice> invoices = IntStream.rangeClosed(1, REPEAT)
+				.mapToObj(i -> new Invoice(i, customer, i, LocalDate.of(2022, 1, 4)))
+				.toList();
+		Files.write(path, parser.produceInvoices(invoices.stream()).toList());
+
+		ParallelInvoiceLoader loader = new ParallelInvoiceLoader(parser, pool);
+		assertThat(loader.getChunkSize(Files.size(path)))
+				.isLessThan((int) Files.size(path) / PARALLELISM);
+		assertThat(loader.load(path, Map.of(customer.getName(), customer)))
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(invoices);
+	}
+}
@@ -0,0 +1,224 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.BillingIntegrationTest;
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
+
+/**
+ * Integration test for the journal mode of {@link ParserPersistence}.
+ * We stage the "country singers" data files, save changes in journal mode,
+ * and check that they're appended to the journal, replayed by a fresh
+ * load, and folded back into the data files by compaction. We also check
+ * that loading from a memory-mapped file, or in parallel, or from a 
+ * converted snapshot, gives the same invoices.
+ */
+public class ParserPersistenceIntegrationTest {
+
+	public static final Path CUSTOMERS_PATH = Paths.get(TEMP_FOLDER, CUSTOMERS_FILENAME);
+	public static final Path INVOICES_PATH = Paths.get(TEMP_FOLDER, INVOICES_FILENAME);
+	public static final Path CUSTOMERS_JOURNAL = Paths.get(TEMP_FOLDER, 
+			CUSTOMERS_FILENAME + ParserPersistence.JOURNAL_SUFFIX);
+	public static final Path INVOICES_JOURNAL = Paths.get(TEMP_FOLDER, 
+			INVOICES_FILENAME + ParserPersistence.JOURNAL_SUFFIX);
+	
+	public static final Path SNAPSHOT_CUSTOMERS_PATH = 
+			Paths.get(TEMP_FOLDER, "customers.snap");
+	public static final Path SNAPSHOT_INVOICES_PATH = 
+			Paths.get(TEMP_FOLDER, "invoices.snap");
+	
+	public static final int PAY_INVOICE_NUMBER = 107;
+	
+	private ParserPersistence persistence;
+	
+	private static ParserPersistence createPersistence() {
+		ParserPersistence persistence = new ParserPersistence();
+		persistence.setCustomersFile(CUSTOMERS_PATH.toString());
+		persistence.setInvoicesFile(INVOICES_PATH.toString());
+		persistence.setJournal(true);
+		persistence.load();
+		return persistence;
+	}
+	
+	@BeforeEach
+	public void setUp() throws IOException {
+		BillingIntegrationTest.setUpFiles();
+		Files.deleteIfExists(CUSTOMERS_JOURNAL);
+		Files.deleteIfExists(INVOICES_JOURNAL);
+		persistence = createPersistence();
+	}
+	
+	private void payInvoice() {
+		Invoice invoice = persistence.getInvoices().get(PAY_INVOICE_NUMBER);
+		invoice.setPaidDate(Optional.of(LocalDate.now()));
+		persistence.saveInvoice(invoice);
+	}
+	
+	@Test
+	public void testSaveInvoice_Appends() throws IOException {
+		long size = Files.size(INVOICES_PATH);
+		payInvoice();
+		
+		assertThat(Files.size(INVOICES_PATH)).isEqualTo(size);
+		try ( Stream<String> lines = Files.lines(INVOICES_JOURNAL); ) {
+			assertThat(lines).singleElement().matches(s -> s.startsWith
+				(String.format("%d,", PAY_INVOICE_NUMBER)) &&
+					s.endsWith(LocalDate.now().toString()));
+		}
+	}
+	
+	@Test
+	public void testSaveCustomer_Appends() throws IOException {
+		persistence.saveCustomer(new Customer("Merle", "Haggard", Terms.CASH));
+		try ( Stream<String> lines = Files.lines(CUSTOMERS_JOURNAL); ) {
+			assertThat(lines).containsExactly("Merle,Haggard,CASH");
+		}
+	}
+	
+	@Test
+	public void testLoad_Replays() throws IOException {
+		persistence.saveCustomer(new Customer("Merle", "Haggard", Terms.CASH));
+		payInvoice();
+		
+		ParserPersistence reloaded = createPersistence();
+		assertThat(reloaded.getCustomers()).containsKey("Merle Haggard");
+		assertThat(reloaded.getInvoices().get(PAY_INVOICE_NUMBER).getPaidDate())
+				.contains(LocalDate.now());
+		assertThat(reloaded.getInvoices()).hasSameSizeAs(persistence.getInvoices());
+	}
+	
+	@Test
+	public void testLoad_Compacts() throws IOException {
+		payInvoice();
+		createPersistence();
+		
+		assertThat(INVOICES_JOURNAL).doesNotExist();
+		try ( Stream<String> lines = Files.lines(INVOICES_PATH); ) {
+			assertThat(lines).anyMatch(s -> s.startsWith
+				(String.format("%d,", PAY_INVOICE_NUMBER)) &&
+					s.endsWith(LocalDate.now().toString()));
+		}
+	}
+	
+	@Test
+	public void testCompactionThreshold() throws Exception {
+		persistence.setJournalCompactionThreshold(0);
+		payInvoice();
+		persistence.close();
+		
+		assertThat(INVOICES_JOURNAL).doesNotExist();
+		assertThat(createPersistence().getInvoices().get(PAY_INVOICE_NUMBER)
+				.getPaidDate()).contains(LocalDate.now());
+	}
+	
+	private void assertSameInvoices(ParserPersistence other) {
+		other.setCustomersFile(CUSTOMERS_PATH.toString());
+		other.setInvoicesFile(INVOICES_PATH.toString());
+		other.setJournal(true);
+		other.load();
+		
+		assertThat(other.getInvoices()).hasSameSizeAs(persistence.getInvoices());
+		for (Invoice invoice : persistence.getInvoices().values()) {
+			assertThat(other.getInvoices().get(invoice.getNumber()))
+					.usingRecursiveComparison().isEqualTo(invoice);
+		}
+	}
+	
+	@Test
+	public void testStreamInvoices_LeavesLoadedDataAlone() {
+		Map<String,Customer> customers = persistence.getCustomers();
+		try ( Stream<Invoice> invoices = 
+				persistence.streamInvoices(new HashMap<>(customers)); ) {
+			assertThat(invoices).hasSameSizeAs(persistence.getInvoices().values());
+		}
+		assertThat(persistence.getCustomers()).isSameAs(customers);
+	}
+	
+	@Test
+	public void testLoad_Mapped() throws IOException {
+		payInvoice();
+		ParserPersistence mapped = new ParserPersistence();
+		mapped.setMapInvoicesFile(true);
+		assertSameInvoices(mapped);
+	}
+	
+	@Test
+	public void testLoad_Parallel() throws IOException {
+		payInvoice();
+		ParserPersistence parallel = new ParserPersistence();
+		parallel.setParallelLoad(true);
+		parallel.setLoadParallelism(2);
+		assertSameInvoices(parallel);
+	}
+	
+	private ParserPersistence createSnapshotPersistence() throws IOException {
+		SnapshotConverter.convert(CUSTOMERS_PATH.toString(), INVOICES_PATH.toString(),
+				SNAPSHOT_CUSTOMERS_PATH.toString(), SNAPSHOT_INVOICES_PATH.toString());
+		ParserPersistence snapshot = new ParserPersistence();
+		snapshot.setCustomersFile(SNAPSHOT_CUSTOMERS_PATH.toString());
+		snapshot.setInvoicesFile(SNAPSHOT_INVOICES_PATH.toString());
+		snapshot.setJournal(true);
+		snapshot.load();
+		return snapshot;
+	}
+	
+	@Test
+	public void testLoad_Snapshot() throws IOException {
+		payInvoice();
+		ParserPersistence snapshot = createSnapshotPersistence();
+		
+		assertThat(snapshot.getCustomers()).isEqualTo(persistence.getCustomers());
+		assertThat(snapshot.getInvoices()).hasSameSizeAs(persistence.getInvoices());
+		for (Invoice invoice : persistence.getInvoices().values()) {
+			assertThat(snapshot.getInvoices().get(invoice.getNumber()))
+					.usingRecursiveComparison().isEqualTo(invoice);
+		}
+	}
+	
+	@Test
+	public void testSaveInvoice_Snapshot() throws IOException {
+		ParserPersistence snapshot = createSnapshotPersistence();
+		Invoice invoice = snapshot.getInvoices().get(PAY_INVOICE_NUMBER);
+		invoice.setPaidDate(Optional.of(LocalDate.now()));
+		snapshot.saveInvoice(invoice);
+		
+		ParserPersistence reloaded = new ParserPersistence();
+		reloaded.setCustomersFile(SNAPSHOT_CUSTOMERS_PATH.toString());
+		reloaded.setInvoicesFile(SNAPSHOT_INVOICES_PATH.toString());
+		reloaded.setMapInvoicesFile(true);
+		reloaded.load();
+		assertThat(reloaded.getInvoices().get(PAY_INVOICE_NUMBER).getPaidDate())
+				.contains(LocalDate.now());
+		assertThat(Paths.get(SNAPSHOT_INVOICES_PATH + ParserPersistence.JOURNAL_SUFFIX))
+				.doesNotExist();
+	}
+	
+	@Test
+	public void testMappedFile_Segments() throws IOException {
+		List<ByteBuffer> segments = MappedFile.map(INVOICES_PATH, 100);
+		assertThat(segments).hasSizeGreaterThan(1);
+		assertThat(segments.stream().mapToLong(ByteBuffer::remaining).sum())
+				.isEqualTo(Files.size(INVOICES_PATH));
+		for (ByteBuffer segment : segments.subList(0, segments.size() - 1)) {
+			assertThat(segment.get(segment.limit() - 1)).isEqualTo((byte) '\n');
+		}
+	}
+}
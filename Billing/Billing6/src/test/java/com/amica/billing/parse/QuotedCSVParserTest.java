@@ -3,12 +3,20 @@ package com.amica.billing.parse;
 import static com.amica.billing.TestUtility.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+import com.amica.billing.Terms;
 import com.amica.billing.TestUtility;
 
 /**
@@ -47,6 +55,10 @@ public class QuotedCSVParserTest {
 			 "5,\"Customer\",\"Three\",500,2022-01-04,20220108",
 			 "6,\"Customer\",\"Three\",600,2021-12-04").toList();
 	
+	public static final List<Customer> TRICKY_CUSTOMERS = Stream.of
+			(new Customer("Customer, Jr.", "One \"Uno\"", Terms.CASH),
+			 new Customer("Customer", "Two\nLine", Terms.CREDIT_45)).toList();
+	
 	protected Parser parser;
 	
 	@BeforeEach
@@ -80,6 +92,24 @@ public class QuotedCSVParserTest {
 			.isEqualTo(BAD_INVOICES);
 	}
 	
+	@Test
+	public void testParseInvoices_Buffer() {
+		assertThat(parser.parseInvoices
+			(toBuffer(GOOD_INVOICE_DATA, "\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(GOOD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
+	@Test
+	public void testParseInvoices_BufferBad() {
+		assertThat(parser.parseInvoices
+			(toBuffer(BAD_INVOICE_DATA, "\r\n"), GOOD_CUSTOMERS_MAP)) 
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(parser.parseInvoices
+					(BAD_INVOICE_DATA.stream(), GOOD_CUSTOMERS_MAP).toList());
+	}
+	
 	@Test
 	public void testProduceCustomers() {
 		assertThat(parser.produceCustomers(GOOD_CUSTOMERS.stream()))
@@ -92,4 +122,91 @@ public class QuotedCSVParserTest {
 				.map(s -> s.replace(".00", "")))
 				.isEqualTo(GOOD_INVOICE_DATA);
 	}
+	
+	@Test
+	public void testProduceInvoices_Channel() throws Exception {
+		assertThat(produceInvoicesToChannel(parser, GOOD_INVOICES.stream()))
+				.isEqualTo(parser.produceInvoices(GOOD_INVOICES.stream()).toList());
+	}
+	
+	/**
+	 * In a locale that writes a decimal comma, the channel must still
+	 * write every amount as String.format would, not just those that
+	 * it can't render itself.
+	 */
+	@Test
+	public void testProduceInvoices_Channel_Locale() throws Exception {
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+		try {
+			List<Invoice> invoices = Stream.of(GOOD_INVOICES.get(0),
+					new Invoice(7, GOOD_CUSTOMERS.get(0), 0.1 + 0.2, AS_OF_DATE)).toList();
+			assertThat(produceInvoicesToChannel(parser, invoices.stream()))
+					.isEqualTo(parser.produceInvoices(invoices.stream()).toList());
+		} finally {
+			Locale.setDefault(Locale.Category.FORMAT, locale);
+		}
+	}
+	
+	@Test
+	public void testParseCustomers_EmbeddedSeparators() {
+		assertThat(parser.parseCustomers(Stream.of
+				("\"Customer, Jr.\",\"One \"\"Uno\"\"\",CASH",
+				 "\"Customer\",\"Two",
+				 "Line\",45",
+				 "Customer,Three,30")))
+			.isEqualTo(List.of(TRICKY_CUSTOMERS.get(0), TRICKY_CUSTOMERS.get(1),
+				GOOD_CUSTOMERS.get(2)));
+	}
+	
+	@Test
+	public void testParseInvoices_Malformed() {
+		assertThat(parser.parseInvoices(Stream.of
+				("1,\"Customer\"x,\"One\",100,2022-01-04",
+				 "3,\"Customer\",\"Two\",300,2022-01-06,",
+				 "4,\"Customer,\"Two\"\",400,2021-11-11",
+				 "2,Cust\"omer,Two,200,2022-01-04,2022-01-05"),
+				GOOD_CUSTOMERS_MAP))
+			.isEqualTo(List.of(GOOD_INVOICES.get(2)));
+	}
+	
+	@Test
+	public void testParseInvoices_StrayQuote() {
+		assertThat(parser.parseInvoices(Stream.concat(Stream.of
+				("1,\"Customer,\"One\",100,2022-01-04"), 
+				GOOD_INVOICE_DATA.stream().skip(1)), GOOD_CUSTOMERS_MAP))
+			.isEqualTo(GOOD_INVOICES.subList(1, GOOD_INVOICES.size()));
+	}
+	
+	@Test
+	public void testRecords_JoinLimited() {
+		List<String> lines = Stream.concat(Stream.of("\"Open"), Stream.generate
+				(() -> "more").limit(QuotedCSVParser.MAX_RECORD_LINES)).toList();
+		assertThat(QuotedCSVParser.records(lines.stream())).isEqualTo(lines);
+		
+		List<String> closed = lines.subList(0, QuotedCSVParser.MAX_RECORD_LINES - 1);
+		assertThat(QuotedCSVParser.records(Stream.concat(closed.stream(), 
+				Stream.of("end\""))))
+			.singleElement().isEqualTo(String.join("\n", closed) + "\nend\"");
+	}
+	
+	@Test
+	public void testRoundTrip_EmbeddedSeparators() {
+		List<String> customerLines = parser.produceCustomers
+				(TRICKY_CUSTOMERS.stream()).toList();
+		assertThat(parser.parseCustomers(customerLines.stream()))
+				.isEqualTo(TRICKY_CUSTOMERS);
+		
+		Map<String,Customer> customers = TRICKY_CUSTOMERS.stream()
+				.collect(Collectors.toMap(Customer::getName, Function.identity()));
+		List<Invoice> invoices = Stream.of
+				(new Invoice(1, TRICKY_CUSTOMERS.get(0), 100, LocalDate.of(2022, 1, 4)),
+				 new Invoice(2, TRICKY_CUSTOMERS.get(1), 200, LocalDate.of(2022, 1, 4),
+						 LocalDate.of(2022, 1, 5))).toList();
+		Stream<String> invoiceLines = parser.produceInvoices(invoices.stream())
+				.flatMap(String::lines);
+		assertThat(parser.parseInvoices(invoiceLines, customers))
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(invoices);
+	}
 }
@@ -0,0 +1,101 @@
+package com.amica.billing.parse;
+
+import static com.amica.billing.TestUtility.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.amica.billing.Customer;
+import com.amica.billing.Invoice;
+
+/**
+ * Unit test for the {@link SnapshotParser}. We write the data sets in the
+ * {@link TestUtility} to in-memory snapshots and read them back, and check
+ * that unknown customers, foreign data and truncated files are skipped.
+ */
+public class SnapshotParserTest {
+
+	private Parser parser = new SnapshotParser();
+
+	private ByteBuffer customersSnapshot(Stream<Customer> customers)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		parser.produceCustomers(customers, Channels.newChannel(out));
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	private ByteBuffer invoicesSnapshot(Stream<Invoice> invoices)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		parser.produceInvoices(invoices, Channels.newChannel(out));
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	@Test
+	public void testCustomers_RoundTrip() throws IOException {
+		assertThat(parser.parseCustomers(customersSnapshot(GOOD_CUSTOMERS.stream())))
+				.usingRecursiveFieldByFieldElementComparator()
+				.containsExactlyElementsOf(GOOD_CUSTOMERS);
+	}
+
+	@Test
+	public void testInvoices_RoundTrip() throws IOException {
+		assertThat(parser.parseInvoices
+				(invoicesSnapshot(GOOD_INVOICES.stream()), GOOD_CUSTOMERS_MAP))
+			.usingRecursiveFieldByFieldElementComparator()
+			.containsExactlyElementsOf(GOOD_INVOICES);
+	}
+
+	@Test
+	public void testInvoices_Cents() throws IOException {
+		Invoice invoice = new Invoice(1, GOOD_CUSTOMERS.get(0), 1234.567,
+				LocalDate.of(1969, 12, 31), LocalDate.of(2100, 1, 1));
+		assertThat(parser.parseInvoices
+				(invoicesSnapshot(Stream.of(invoice)), GOOD_CUSTOMERS_MAP))
+			.singleElement().satisfies(parsed -> {
+				assertThat(parsed.getAmount()).isEqualTo(1234.57);
+				assertThat(parsed.getIssueDate()).isEqualTo(invoice.getIssueDate());
+				assertThat(parsed.getPaidDate()).isEqualTo(invoice.getPaidDate());
+			});
+	}
+
+	@Test
+	public void testInvoices_UnknownCustomer() throws IOException {
+		Map<String,Customer> customers = Map.of
+				(GOOD_CUSTOMERS.get(0).getName(), GOOD_CUSTOMERS.get(0));
+		assertThat(parser.parseInvoices
+				(invoicesSnapshot(GOOD_INVOICES.stream()), customers))
+			.extracting(Invoice::getNumber).containsExactly(1);
+	}
+
+	@Test
+	public void testInvoices_NotASnapshot() throws IOException {
+		assertThat(parser.parseInvoices(toBuffer(CSVParserTest.GOOD_INVOICE_DATA, "\n"),
+				GOOD_CUSTOMERS_MAP)).isEmpty();
+		assertThat(parser.parseInvoices
+				(customersSnapshot(GOOD_CUSTOMERS.stream()), GOOD_CUSTOMERS_MAP)).isEmpty();
+	}
+
+	@Test
+	public void testInvoices_Truncated() throws IOException {
+		ByteBuffer snapshot = invoicesSnapshot(GOOD_INVOICES.stream());
+		snapshot.limit(snapshot.limit() - 1);
+		assertThat(parser.parseInvoices(snapshot, GOOD_CUSTOMERS_MAP)).isEmpty();
+	}
+
+	@Test
+	public void testLineMethods_Unsupported() {
+		assertThat(parser.isBinary()).isTrue();
+		assertThatThrownBy(() -> parser.produceInvoices(GOOD_INVOICES.stream()))
+				.isInstanceOf(UnsupportedOperationException.class);
+	}
+}